@@ -19,6 +19,7 @@ public class AssemblyAttributes {
 	private static final String ID_COMPONENT_SEPARATOR = " ";
 	private final SAMRecord record;
 	private Collection<AssemblyEvidenceSupport> support = null;
+	private Set<String> evidenceIds = null;
 	public static boolean isAssembly(SAMRecord record) {
 		return record.hasAttribute(SamTags.IS_ASSEMBLY);
 	}
@@ -64,7 +65,20 @@ public class AssemblyAttributes {
 	 * @return true if the record is likely part of the breakend, false if definitely not
 	 */
 	public boolean isPartOfAssembly(DirectedEvidence e) {
-		return getSupport().stream().anyMatch(ee -> ee.getEvidenceID().equals(e.getEvidenceID()));
+		return getSupportingEvidenceIDs().contains(e.getEvidenceID());
+	}
+	/**
+	 * Lazily constructed lookup of the evidenceIDs of all supporting evidence
+	 */
+	private Set<String> getSupportingEvidenceIDs() {
+		if (evidenceIds == null) {
+			Collection<AssemblyEvidenceSupport> support = getSupport();
+			evidenceIds = new HashSet<>(support.size() * 2);
+			for (AssemblyEvidenceSupport s : support) {
+				evidenceIds.add(s.getEvidenceID());
+			}
+		}
+		return evidenceIds;
 	}
 	private Collection<AssemblyEvidenceSupport> getSupport() {
 		if (support == null) {
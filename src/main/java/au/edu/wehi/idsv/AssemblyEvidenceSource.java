@@ -7,12 +7,14 @@ import au.edu.wehi.idsv.sam.CigarUtil;
 import au.edu.wehi.idsv.sam.SAMFileUtil;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.sam.SamTags;
+import au.edu.wehi.idsv.util.DuplicatingIterable;
 import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.visualisation.AssemblyTelemetry;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import gridss.SoftClipsToSplitReads;
 import gridss.cmdline.CommandLineProgramHelper;
 import htsjdk.samtools.*;
@@ -20,13 +22,19 @@ import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
+import org.apache.commons.lang3.tuple.Pair;
 import picard.sam.GatherBamFiles;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -43,6 +51,15 @@ import java.util.stream.Collectors;
 public class AssemblyEvidenceSource extends SAMEvidenceSource {
 	private static final Log log = Log.getInstance(AssemblyEvidenceSource.class);
 	public static final String INPUT_CATEGORY_SAM_HEADER_PREFIX = "gridss_input_category=";
+	/**
+	 * Maximum number of evidence records the assembler of one breakend direction
+	 * can be ahead of the assembler of the other direction
+	 */
+	private static final int DIRECTIONAL_ASSEMBLY_BUFFER_SIZE = 2048;
+	/**
+	 * Assembler threads are reused across chunks instead of creating new threads for every chunk
+	 */
+	private static final ExecutorService directionThreadpool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("AssembleDirection-%d").build());
 	private final List<SAMEvidenceSource> source;
 	private int cachedMaxSourceFragSize = -1;
 	private int cachedMinConcordantFragmentSize = -1;
@@ -87,22 +104,58 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			telemetry = new AssemblyTelemetry(getContext().getFileSystemContext().getAssemblyTelemetry(getFile(), jobNodeIndex), getContext().getDictionary());
 		}
 		List<QueryInterval[]> chunks = getContext().getReference().getIntervals(getContext().getConfig().chunkSize, getContext().getConfig().chunkSequenceChangePenalty);
+		EvidenceDensityEstimator density = new EvidenceDensityEstimator(getContext(), source);
+		double meanChunkEvidence = chunks.stream().mapToLong(density::getEstimate).average().orElse(0);
 		List<File> assembledChunk = new ArrayList<>();
-		List<Future<Void>> tasks = new ArrayList<>();
+		List<Pair<Long, Callable<Void>>> pending = new ArrayList<>();
 		for (int i = 0; i < chunks.size(); i++) {
 			if (i % jobNodes == jobNodeIndex) {
-				QueryInterval[] chunk = chunks.get(i);
-				File f = getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i);
-				int chunkNumber = i;
-				assembledChunk.add(f);
-				if (!f.exists()) {
-					tasks.add(threadpool.submit(() -> {
-						assembleChunk(f, chunkNumber, chunk, excludedRegions, safetyRegions, downsampledRegions);
-						return null;
-					}));
+				List<QueryInterval[]> subchunks = splitChunk(density, chunks.get(i), meanChunkEvidence);
+				for (int j = 0; j < subchunks.size(); j++) {
+					QueryInterval[] chunk = subchunks.get(j);
+					File f = subchunks.size() == 1 ? getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i) : getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i, j);
+					int chunkNumber = i;
+					int subchunkNumber = subchunks.size() == 1 ? -1 : j;
+					assembledChunk.add(f);
+					if (!f.exists()) {
+						pending.add(Pair.of(density.getEstimate(chunk), () -> {
+							assembleChunk(f, chunkNumber, subchunkNumber, chunk, excludedRegions, safetyRegions, downsampledRegions);
+							return null;
+						}));
+					}
 				}
 			}
 		}
+		// Start the most evidence-dense chunks first so they don't
+		// end up running by themselves after all other chunks have completed.
+		// Stable sort retains genomic ordering for chunks of equal density.
+		pending.sort(Comparator.comparing((Pair<Long, Callable<Void>> p) -> p.getLeft()).reversed());
+		// Each chunk runs one assembler thread per breakend direction so limit
+		// the number of concurrent chunks to keep the total number of assembler
+		// threads (and assembly graphs held in memory) within the worker thread count.
+		Semaphore chunkPermits = new Semaphore(Math.max(1, getContext().getWorkerThreadCount() / BreakendDirection.values().length));
+		List<Future<Void>> tasks = new ArrayList<>();
+		for (Pair<Long, Callable<Void>> p : pending) {
+			try {
+				chunkPermits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			try {
+				tasks.add(threadpool.submit(() -> {
+					try {
+						return p.getRight().call();
+					} finally {
+						chunkPermits.release();
+					}
+				}));
+			} catch (RuntimeException e) {
+				// the task will never run so it will never release its permit
+				chunkPermits.release();
+				throw e;
+			}
+		}
 		runTasks(tasks);
 		if (telemetry != null) {
 			telemetry.close();
@@ -177,9 +230,19 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		}
 		log.info("Breakend assembly complete.");
 	}
-	private void assembleChunk(File output, int chunkNumber, QueryInterval[] qi, IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) throws IOException {
-		AssemblyIdGenerator assemblyNameGenerator = new SequentialIdGenerator(String.format(getContext().getConfig().getAssembly().contigNamePrefix, chunkNumber));
-		String chuckName = String.format("chunk %d (%s:%d-%s:%d)", chunkNumber,
+	/**
+	 * Splits chunks containing considerably more evidence than average into smaller chunks
+	 * so they can be assembled in parallel.
+	 */
+	private List<QueryInterval[]> splitChunk(EvidenceDensityEstimator density, QueryInterval[] chunk, double meanChunkEvidence) {
+		return density.splitDense(chunk, meanChunkEvidence, getContext().getConfig().chunkSplitDensityMultiple);
+	}
+	private void assembleChunk(File output, int chunkNumber, int subchunkNumber, QueryInterval[] qi, IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) throws IOException {
+		String contigNamePrefix = String.format(getContext().getConfig().getAssembly().contigNamePrefix, chunkNumber);
+		if (subchunkNumber >= 0) {
+			contigNamePrefix += subchunkNumber + "-";
+		}
+		String chuckName = String.format("chunk %d%s (%s:%d-%s:%d)", chunkNumber, subchunkNumber >= 0 ? "." + subchunkNumber : "",
 			getContext().getDictionary().getSequence(qi[0].referenceIndex).getSequenceName(), qi[0].start,
 			getContext().getDictionary().getSequence(qi[qi.length-1].referenceIndex).getSequenceName(), qi[qi.length-1].end);
 		log.info(String.format("Starting assembly on %s", chuckName));
@@ -189,14 +252,10 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, false, tmpout)) {
 			if (getContext().getAssemblyParameters().writeFiltered) {
 				try (SAMFileWriter filteredWriter = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, false, filteredout)) {
-					for (BreakendDirection direction : BreakendDirection.values()) {
-						assembleChunk(writer, filteredWriter, chunkNumber, qi, direction, assemblyNameGenerator, excludedRegions, safetyRegions, downsampledRegions);
-					}
+					assembleChunk(writer, filteredWriter, chunkNumber, qi, contigNamePrefix, excludedRegions, safetyRegions, downsampledRegions);
 				}
 			} else {
-				for (BreakendDirection direction : BreakendDirection.values()) {
-					assembleChunk(writer, null, chunkNumber, qi, direction, assemblyNameGenerator, excludedRegions, safetyRegions, downsampledRegions);
-				}
+				assembleChunk(writer, null, chunkNumber, qi, contigNamePrefix, excludedRegions, safetyRegions, downsampledRegions);
 			}
 		} catch (Exception e) {
 			log.error(e, "Error assembling ", chuckName);
@@ -228,25 +287,85 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 				(int)(2 * getMaxConcordantFragmentSize() * getContext().getConfig().getAssembly().maxExpectedBreakendLengthMultiple) + 1);
 		return expanded;
 	}
-	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals, BreakendDirection direction, AssemblyIdGenerator assemblyNameGenerator,
+	/**
+	 * Assembles both breakend directions from a single pass over the evidence in the chunk.
+	 * The evidence stream is shared by the forward and backward assemblers, each running on its own thread.
+	 * A chunk thus holds one assembler thread and assembly graph per direction.
+	 */
+	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals, String contigNamePrefix,
 							   IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) {
 		QueryInterval[] expanded = getExpanded(intervals);
 		try (CloseableIterator<DirectedEvidence> input = mergedIterator(source, expanded, EvidenceSortOrder.SAMRecordStartPosition)) {
 			Iterator<DirectedEvidence> throttledIt = throttled(input, downsampledRegions);
-			PositionalAssembler assembler = new PositionalAssembler(getContext(), AssemblyEvidenceSource.this, assemblyNameGenerator, throttledIt, direction, excludedRegions, safetyRegions);
-			if (telemetry != null) {
-				assembler.setTelemetry(telemetry.getTelemetry(chunkNumber, direction));
+			DuplicatingIterable<DirectedEvidence> evidence = new DuplicatingIterable<>(BreakendDirection.values().length, throttledIt, DIRECTIONAL_ASSEMBLY_BUFFER_SIZE);
+			List<FutureTask<Void>> tasks = new ArrayList<>();
+			for (BreakendDirection direction : BreakendDirection.values()) {
+				Iterator<DirectedEvidence> it = evidence.iterator();
+				// separate name generators ensure contig names are independent of thread scheduling.
+				// Interleaving the per-direction identifiers keeps names unique without changing the contig name prefix.
+				AssemblyIdGenerator assemblyNameGenerator = new SequentialIdGenerator(contigNamePrefix, "", direction.ordinal() + 1, BreakendDirection.values().length);
+				tasks.add(new FutureTask<>(() -> {
+					try {
+						assembleChunk(writer, filteredWriter, chunkNumber, intervals, it, direction, assemblyNameGenerator, excludedRegions, safetyRegions);
+					} catch (Exception | AssertionError e) {
+						// keep consuming so the shared evidence stream does not block the other direction
+						drain(it);
+						throw e;
+					}
+					return null;
+				}));
+			}
+			for (int i = 0; i < tasks.size() - 1; i++) {
+				// not run on the chunk threadpool as a saturated pool would deadlock on the shared evidence stream
+				directionThreadpool.execute(tasks.get(i));
+			}
+			// assemble the last direction on the calling thread
+			tasks.get(tasks.size() - 1).run();
+			for (FutureTask<Void> task : tasks) {
+				try {
+					task.get();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException)e.getCause();
+					}
+					if (e.getCause() instanceof Error) {
+						throw (Error)e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
 			}
-			while (assembler.hasNext()) {
-				SAMRecord asm = assembler.next();
-				asm = transformAssembly(asm); // transform before chunk bounds checking as the position may have moved
-				if (QueryIntervalUtil.overlaps(intervals, asm.getReferenceIndex(), asm.getAlignmentStart())) {
-					// only output assemblies that start within our chunk
-					if (shouldFilterAssembly(asm)) {
-						if (filteredWriter != null) {
+		}
+	}
+	private static void drain(Iterator<DirectedEvidence> it) {
+		try {
+			while (it.hasNext()) {
+				it.next();
+			}
+		} catch (Exception e) {
+			log.debug(e, "Error draining assembly evidence");
+		}
+	}
+	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals, Iterator<DirectedEvidence> evidence, BreakendDirection direction, AssemblyIdGenerator assemblyNameGenerator,
+							   IntervalBed excludedRegions, IntervalBed safetyRegions) {
+		PositionalAssembler assembler = new PositionalAssembler(getContext(), AssemblyEvidenceSource.this, assemblyNameGenerator, evidence, direction, excludedRegions, safetyRegions);
+		if (telemetry != null) {
+			assembler.setTelemetry(telemetry.getTelemetry(chunkNumber, direction));
+		}
+		while (assembler.hasNext()) {
+			SAMRecord asm = assembler.next();
+			asm = transformAssembly(asm); // transform before chunk bounds checking as the position may have moved
+			if (QueryIntervalUtil.overlaps(intervals, asm.getReferenceIndex(), asm.getAlignmentStart())) {
+				// only output assemblies that start within our chunk
+				if (shouldFilterAssembly(asm)) {
+					if (filteredWriter != null) {
+						synchronized (filteredWriter) {
 							filteredWriter.addAlignment(asm);
 						}
-					} else {
+					}
+				} else {
+					synchronized (writer) {
 						writer.addAlignment(asm);
 					}
 				}
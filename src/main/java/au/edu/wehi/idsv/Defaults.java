@@ -14,6 +14,10 @@ public class Defaults {
 	public static final boolean CACHE_REFERENCE;
 	public static final boolean ATTEMPT_ASSEMBLY_RECOVERY;
 	public static final boolean USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES;
+	/**
+	 * Number of record batches sorted and merged concurrently when sorting SAM files
+	 */
+	public static final int SORT_THREADS;
 	static {
 		SANITY_CHECK_ASSEMBLY_GRAPH = Boolean.valueOf(System.getProperty("sanitycheck.assembly", "false"));
 		SANITY_CHECK_CLIQUE = Boolean.valueOf(System.getProperty("sanitycheck.clique", "false"));
@@ -26,5 +30,6 @@ public class Defaults {
 		CACHE_REFERENCE = !Boolean.valueOf(System.getProperty("reference.cache", "true"));
 		ATTEMPT_ASSEMBLY_RECOVERY = Boolean.valueOf(System.getProperty("assembly.recover", "true"));
 		USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES = Boolean.valueOf(System.getProperty("assembly.optimised_data_structures", "true"));
+		SORT_THREADS = Math.max(1, Integer.getInteger("sort.threads", Math.min(4, Runtime.getRuntime().availableProcessors())));
 	}
 }
\ No newline at end of file
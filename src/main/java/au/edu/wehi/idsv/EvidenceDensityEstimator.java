@@ -0,0 +1,179 @@
+package au.edu.wehi.idsv;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Estimates the relative amount of evidence in genomic intervals from the
+ * BAM indexes of the SV BAMs of the given evidence sources.
+ *
+ * The estimate is the approximate compressed size of the BAM records overlapping
+ * each interval and is only intended to be used for load balancing.
+ *
+ * When no index is available, the estimate falls back to the interval width.
+ */
+public class EvidenceDensityEstimator {
+	private static final Log log = Log.getInstance(EvidenceDensityEstimator.class);
+	/**
+	 * Number of bins each chunk is broken up into when estimating density
+	 */
+	private static final int BINS_PER_CHUNK = 32;
+	/**
+	 * Minimum bin size. This matches the BAM linear index resolution.
+	 */
+	private static final int MIN_BIN_SIZE = 16384;
+	private final SAMSequenceDictionary dictionary;
+	private final int binSize;
+	private final long[][] bins;
+	private boolean indexed = false;
+	public EvidenceDensityEstimator(ProcessingContext context, List<? extends SAMEvidenceSource> sources) {
+		this(context.getDictionary(), sources, Math.max(MIN_BIN_SIZE, context.getConfig().chunkSize / BINS_PER_CHUNK));
+	}
+	public EvidenceDensityEstimator(SAMSequenceDictionary dictionary, List<? extends SAMEvidenceSource> sources, int binSize) {
+		if (binSize < 1) throw new IllegalArgumentException("binSize must be positive");
+		this.dictionary = dictionary;
+		this.binSize = binSize;
+		this.bins = new long[dictionary.size()][];
+		for (int i = 0; i < dictionary.size(); i++) {
+			bins[i] = new long[(dictionary.getSequence(i).getSequenceLength() + binSize - 1) / binSize];
+		}
+		for (SAMEvidenceSource source : sources) {
+			add(source);
+		}
+	}
+	private void add(SAMEvidenceSource source) {
+		try (SamReader reader = source.getReader()) {
+			if (!reader.hasIndex()) {
+				return;
+			}
+			BAMIndex index = reader.indexing().getIndex();
+			for (int referenceIndex = 0; referenceIndex < bins.length; referenceIndex++) {
+				long[] refBins = bins[referenceIndex];
+				int length = dictionary.getSequence(referenceIndex).getSequenceLength();
+				for (int bin = 0; bin < refBins.length; bin++) {
+					int start = bin * binSize + 1;
+					int end = Math.min(length, start + binSize - 1);
+					refBins[bin] += approximateSize(index.getSpanOverlapping(referenceIndex, start, end));
+				}
+			}
+			indexed = true;
+		} catch (Exception e) {
+			log.debug(e, "Unable to estimate evidence density of ", source.getFile());
+		}
+	}
+	/**
+	 * Compressed size of the BGZF blocks spanned by the given chunks.
+	 *
+	 * Only the compressed block addresses are used. Records within a single
+	 * block do not contribute to the estimate as their compressed size is unknown.
+	 */
+	private static long approximateSize(BAMFileSpan span) {
+		long size = 0;
+		if (span != null) {
+			for (Chunk chunk : span.getChunks()) {
+				size += BlockCompressedFilePointerUtil.getBlockAddress(chunk.getChunkEnd()) - BlockCompressedFilePointerUtil.getBlockAddress(chunk.getChunkStart());
+			}
+		}
+		return size;
+	}
+	/**
+	 * Indicates whether the estimate is based on evidence density, or just interval width
+	 * @return true if at least one evidence source was indexed
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
+	/**
+	 * Estimated evidence size of the given intervals
+	 */
+	public long getEstimate(QueryInterval[] intervals) {
+		long total = 0;
+		for (QueryInterval qi : intervals) {
+			total += getEstimate(qi.referenceIndex, qi.start, qi.end);
+		}
+		return total;
+	}
+	private long getEstimate(int referenceIndex, int start, int end) {
+		if (end <= 0) {
+			end = dictionary.getSequence(referenceIndex).getSequenceLength();
+		}
+		start = Math.max(1, start);
+		if (!indexed) {
+			return Math.max(0, end - start + 1);
+		}
+		long[] refBins = bins[referenceIndex];
+		long total = 0;
+		for (int bin = (start - 1) / binSize; bin <= (end - 1) / binSize && bin < refBins.length; bin++) {
+			int binStart = bin * binSize + 1;
+			int binEnd = binStart + binSize - 1;
+			int overlap = Math.min(end, binEnd) - Math.max(start, binStart) + 1;
+			total += refBins[bin] * overlap / binSize;
+		}
+		return total;
+	}
+	/**
+	 * Splits the given intervals into at most the given number of contiguous parts
+	 * of approximately equal evidence size.
+	 * @param intervals intervals to split
+	 * @param parts maximum number of parts
+	 * @return intervals split at bin boundaries
+	 */
+	public List<QueryInterval[]> split(QueryInterval[] intervals, int parts) {
+		List<QueryInterval[]> result = new ArrayList<>();
+		double target = getEstimate(intervals) / (double)Math.max(1, parts);
+		if (parts <= 1 || target <= 0) {
+			result.add(intervals);
+			return result;
+		}
+		List<QueryInterval> current = new ArrayList<>();
+		long cumulative = 0;
+		for (QueryInterval qi : intervals) {
+			int end = qi.end <= 0 ? dictionary.getSequence(qi.referenceIndex).getSequenceLength() : qi.end;
+			int currentStart = qi.start;
+			int start = qi.start;
+			while (start <= end) {
+				int binEnd = Math.min(end, ((start - 1) / binSize + 1) * binSize);
+				cumulative += getEstimate(qi.referenceIndex, start, binEnd);
+				if (result.size() < parts - 1 && cumulative >= target * (result.size() + 1)) {
+					current.add(new QueryInterval(qi.referenceIndex, currentStart, binEnd));
+					result.add(current.toArray(new QueryInterval[0]));
+					current = new ArrayList<>();
+					currentStart = binEnd + 1;
+				}
+				start = binEnd + 1;
+			}
+			if (currentStart <= end) {
+				current.add(new QueryInterval(qi.referenceIndex, currentStart, end));
+			}
+		}
+		if (!current.isEmpty()) {
+			result.add(current.toArray(new QueryInterval[0]));
+		}
+		return result;
+	}
+	/**
+	 * Splits the given intervals if they contain substantially more evidence than the average chunk.
+	 * @param intervals intervals to split
+	 * @param meanChunkEvidence mean estimated evidence size of a chunk
+	 * @param splitMultiple intervals with more than this multiple of the mean evidence are split. Splitting is disabled if non-positive.
+	 * @return intervals split into parts of approximately the mean chunk evidence size
+	 */
+	public List<QueryInterval[]> splitDense(QueryInterval[] intervals, double meanChunkEvidence, double splitMultiple) {
+		long estimate = getEstimate(intervals);
+		if (!isIndexed() || splitMultiple <= 0 || meanChunkEvidence <= 0 || estimate <= splitMultiple * meanChunkEvidence) {
+			List<QueryInterval[]> result = new ArrayList<>(1);
+			result.add(intervals);
+			return result;
+		}
+		return split(intervals, (int)Math.ceil(estimate / meanChunkEvidence));
+	}
+}
@@ -64,11 +64,16 @@ public class FileSystemContext {
 	private static final String FORMAT_REALIGN_SAM = "%1$s/%2$s.realign.%3$d" + SAM_SUFFIX;
 	private static final String FORMAT_BREAKPOINT_VCF = "%1$s/%2$s.breakpoint" + VCF_SUFFIX;
 	private static final String FORMAT_ASSEMBLY_CHUNK_SAM = "%1$s/%2$s.assembly.chunk%3$d" + SAM_SUFFIX;
+	private static final String FORMAT_ASSEMBLY_SUBCHUNK_SAM = "%1$s/%2$s.assembly.chunk%3$d.%4$d" + SAM_SUFFIX;
 	private static final String FORMAT_ASSEMBLY_TELEMETRY = "%1$s/%2$s.events_%3$d.csv";
 	private static final String FORMAT_ASSEMBLY_EXCLUDED_REGIONS = "%1$s/%2$s.excluded_%3$d.bed";
 	private static final String FORMAT_ASSEMBLY_SAFETY_REGIONS = "%1$s/%2$s.subsetCalled_%3$d.bed";
 	private static final String FORMAT_ASSEMBLY_DOWNSAMPLED_REGIONS = "%1$s/%2$s.downsampled_%3$d.bed";
 	private static final String FORMAT_VARIANT_CALL_CHUNK_VCF = "%1$s/%2$s.breakpoint.chunk%3$d" + VCF_SUFFIX;
+	private static final String FORMAT_VARIANT_CALL_SUBCHUNK_VCF = "%1$s/%2$s.breakpoint.chunk%3$d.%4$d" + VCF_SUFFIX;
+	private static final String FORMAT_ALLOCATION_CHUNK_VCF = "%1$s/%2$s.allocated.chunk%3$d" + VCF_SUFFIX;
+	private static final String FORMAT_ALLOCATION_INPUT_INDEX = "%1$s/%2$s.allocation.input.idx";
+	private static final String FORMAT_ALLOCATION_ASSEMBLY_INDEX = "%1$s/%2$s.allocation.assembly.bai";
 	/**
 	 * Gets the idsv intermediate working directory for the given input
 	 */
@@ -152,6 +157,9 @@ public class FileSystemContext {
 	public File getAssemblyChunkBam(File input, int chunk) {
 		return getFile(String.format(FORMAT_ASSEMBLY_CHUNK_SAM, getIntermediateDirectory(input), getSource(input).getName(), chunk));
 	}
+	public File getAssemblyChunkBam(File input, int chunk, int subchunk) {
+		return getFile(String.format(FORMAT_ASSEMBLY_SUBCHUNK_SAM, getIntermediateDirectory(input), getSource(input).getName(), chunk, subchunk));
+	}
 	public File getAssemblyTelemetry(File assembly, int nodeIndex) {
 		return getFile(String.format(FORMAT_ASSEMBLY_TELEMETRY, getIntermediateDirectory(assembly), getSource(assembly).getName()));
 	}
@@ -167,4 +175,16 @@ public class FileSystemContext {
 	public File getVariantCallChunkVcf(File input, int chunk) {
 		return getFile(String.format(FORMAT_VARIANT_CALL_CHUNK_VCF, getIntermediateDirectory(input), getSource(input).getName(), chunk));
 	}
+	public File getVariantCallChunkVcf(File input, int chunk, int subchunk) {
+		return getFile(String.format(FORMAT_VARIANT_CALL_SUBCHUNK_VCF, getIntermediateDirectory(input), getSource(input).getName(), chunk, subchunk));
+	}
+	public File getAllocateEvidenceChunkVcf(File output, int chunk) {
+		return getFile(String.format(FORMAT_ALLOCATION_CHUNK_VCF, getIntermediateDirectory(output), getSource(output).getName(), chunk));
+	}
+	public File getAllocateEvidenceInputIndex(File output) {
+		return getFile(String.format(FORMAT_ALLOCATION_INPUT_INDEX, getIntermediateDirectory(output), getSource(output).getName()));
+	}
+	public File getAllocateEvidenceAssemblyIndex(File output) {
+		return getFile(String.format(FORMAT_ALLOCATION_ASSEMBLY_INDEX, getIntermediateDirectory(output), getSource(output).getName()));
+	}
 }
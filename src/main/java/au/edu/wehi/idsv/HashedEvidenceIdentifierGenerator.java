@@ -6,7 +6,6 @@ import com.google.common.hash.Hashing;
 import htsjdk.samtools.SAMRecord;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 
 /**
  * Generates evidence ID using hashes to reduce evidenceID size
@@ -21,14 +20,28 @@ import java.util.Base64;
  *
  */
 public class HashedEvidenceIdentifierGenerator implements EvidenceIdentifierGenerator {
-	private final StringEvidenceIdentifierGenerator gen = new StringEvidenceIdentifierGenerator();
-	private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
-	//private final Base64.Decoder decoder = Base64.getUrlDecoder();
-	private HashFunction hf = Hashing.murmur3_128();
+	private static final char[] BASE64_URL_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+	private static final HashFunction hf = Hashing.murmur3_128();
+	private static final int HASH_BYTES = hf.bits() / 8;
+	private static final int MAX_ENCODED_LENGTH = (HASH_BYTES * 8 + 5) / 6;
+	/**
+	 * Per-thread working buffers. Identifiers are generated for every read so
+	 * intermediate names and hashes are not allocated per call.
+	 */
+	private static class Buffers {
+		private final StringBuilder name = new StringBuilder(256);
+		private byte[] ascii = new byte[256];
+		// padded by a byte so every encoded character can read two bytes
+		private final byte[] hash = new byte[HASH_BYTES + 1];
+	}
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
 	private final int segmentUniqueBytes;
 	private final int alignmentUniqueBytes;
 	private final int evidenceidUniqueBytes;
 	public HashedEvidenceIdentifierGenerator(int segmentUniqueBytes, int alignmentUniqueBytes, int evidenceidUniqueBytes) {
+		if (segmentUniqueBytes > MAX_ENCODED_LENGTH || alignmentUniqueBytes > MAX_ENCODED_LENGTH || evidenceidUniqueBytes > MAX_ENCODED_LENGTH) {
+			throw new IllegalArgumentException(String.format("Hash length cannot exceed %d bytes", MAX_ENCODED_LENGTH));
+		}
 		this.segmentUniqueBytes = segmentUniqueBytes;
 		this.alignmentUniqueBytes = alignmentUniqueBytes;
 		this.evidenceidUniqueBytes = evidenceidUniqueBytes;
@@ -37,18 +50,43 @@ public class HashedEvidenceIdentifierGenerator implements EvidenceIdentifierGene
 		this(20, 6, 6);
 	}
 	/**
-	 * Hashes the given string, returning a string that does not contain any SAM or VCF special characters.
-	 * @param s
-	 * @return string encoding hash
+	 * Hashes the given string, writing an encoding that does not contain any SAM or VCF special characters.
+	 *
+	 * The encoding is the prefix of the url-safe Base64 encoding of the hash of the US-ASCII
+	 * encoding of the given string.
+	 * @param s string to hash
+	 * @param out encoded hash output
+	 * @param offset offset in out to write to
+	 * @param length number of characters to write
 	 */
 	// SAM read name regex: \*|[!-()+-<>-~][!-~]*
 	// !"#$%&'()+,-./0123456789:;<>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\]^_`abcdefghijklmnopqrstuvwxyz{|}~
 	// * = disallowed
-	private String hash(String s, int bytes) {
-		HashCode hc = hf.hashString(s, StandardCharsets.US_ASCII);
-		String encoded = encoder.encodeToString(hc.asBytes());
-		String truncated = encoded.substring(0, bytes);
-		return truncated;
+	private static void hash(Buffers buffers, CharSequence s, char[] out, int offset, int length) {
+		HashCode hc = hashAscii(buffers, s);
+		byte[] hash = buffers.hash;
+		hc.writeBytesTo(hash, 0, HASH_BYTES);
+		for (int i = 0; i < length; i++) {
+			int bit = 6 * i;
+			int window = ((hash[bit >>> 3] & 0xFF) << 8) | (hash[(bit >>> 3) + 1] & 0xFF);
+			out[offset + i] = BASE64_URL_ALPHABET[(window >>> (10 - (bit & 7))) & 0x3F];
+		}
+	}
+	private static HashCode hashAscii(Buffers buffers, CharSequence s) {
+		int length = s.length();
+		if (buffers.ascii.length < length) {
+			buffers.ascii = new byte[Math.max(length, 2 * buffers.ascii.length)];
+		}
+		byte[] ascii = buffers.ascii;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				// let the charset encoder deal with unmappable characters
+				return hf.hashString(s, StandardCharsets.US_ASCII);
+			}
+			ascii[i] = (byte)c;
+		}
+		return hf.hashBytes(ascii, 0, length);
 	}
 	@Override
 	public String extractAlignmentUniqueName(String evidenceId) {
@@ -58,34 +96,69 @@ public class HashedEvidenceIdentifierGenerator implements EvidenceIdentifierGene
 	public String extractSegmentUniqueName(String evidenceId) {
 		return evidenceId.substring(0, segmentUniqueBytes);
 	}
+	/**
+	 * Writes the segment and alignment unique hashes of the given record
+	 * @return buffers containing the alignment unique name of the given record
+	 */
+	private Buffers writeAlignmentUniqueName(SAMRecord record, char[] out) {
+		Buffers buffers = BUFFERS.get();
+		StringBuilder name = buffers.name;
+		name.setLength(0);
+		StringEvidenceIdentifierGenerator.appendSegmentUniqueName(name, record);
+		hash(buffers, name, out, 0, segmentUniqueBytes);
+		StringEvidenceIdentifierGenerator.appendAlignmentUniqueSuffix(name, record);
+		hash(buffers, name, out, segmentUniqueBytes, alignmentUniqueBytes);
+		return buffers;
+	}
 	@Override
 	public String getAlignmentUniqueName(SAMRecord record) {
-		String aun = gen.getAlignmentUniqueName(record);
-		return getSegmentUniqueName(record) + hash(aun, alignmentUniqueBytes);
+		char[] out = new char[segmentUniqueBytes + alignmentUniqueBytes];
+		writeAlignmentUniqueName(record, out);
+		return new String(out);
 	}
 	@Override
 	public String getSegmentUniqueName(SAMRecord record) {
-		String sun = gen.getSegmentUniqueName(record);
-		return hash(sun, segmentUniqueBytes);
+		Buffers buffers = BUFFERS.get();
+		StringBuilder name = buffers.name;
+		name.setLength(0);
+		StringEvidenceIdentifierGenerator.appendSegmentUniqueName(name, record);
+		char[] out = new char[segmentUniqueBytes];
+		hash(buffers, name, out, 0, segmentUniqueBytes);
+		return new String(out);
+	}
+	private String getEvidenceID(Buffers buffers, char[] out) {
+		hash(buffers, buffers.name, out, segmentUniqueBytes + alignmentUniqueBytes, evidenceidUniqueBytes);
+		return new String(out);
+	}
+	private char[] newEvidenceID() {
+		return new char[segmentUniqueBytes + alignmentUniqueBytes + evidenceidUniqueBytes];
 	}
 	@Override
 	public String getEvidenceID(NonReferenceReadPair e) {
-		String id = gen.getEvidenceID(e);
-		return getAlignmentUniqueName(e.getLocalledMappedRead()) + hash(id, evidenceidUniqueBytes);
+		char[] out = newEvidenceID();
+		Buffers buffers = writeAlignmentUniqueName(e.getLocalledMappedRead(), out);
+		StringEvidenceIdentifierGenerator.appendEvidenceSuffix(buffers.name, e);
+		return getEvidenceID(buffers, out);
 	}
 	@Override
 	public String getEvidenceID(SoftClipEvidence e) {
-		String id = gen.getEvidenceID(e);
-		return getAlignmentUniqueName(e.getSAMRecord()) + hash(id, evidenceidUniqueBytes);
+		char[] out = newEvidenceID();
+		Buffers buffers = writeAlignmentUniqueName(e.getSAMRecord(), out);
+		StringEvidenceIdentifierGenerator.appendEvidenceSuffix(buffers.name, e);
+		return getEvidenceID(buffers, out);
 	}
 	@Override
 	public String getEvidenceID(SplitReadEvidence e) {
-		String id = gen.getEvidenceID(e);
-		return getAlignmentUniqueName(e.getSAMRecord()) + hash(id, evidenceidUniqueBytes);
+		char[] out = newEvidenceID();
+		Buffers buffers = writeAlignmentUniqueName(e.getSAMRecord(), out);
+		StringEvidenceIdentifierGenerator.appendEvidenceSuffix(buffers.name, e);
+		return getEvidenceID(buffers, out);
 	}
 	@Override
 	public String getEvidenceID(IndelEvidence e) {
-		String id = gen.getEvidenceID(e);
-		return getAlignmentUniqueName(e.getSAMRecord()) + hash(id, evidenceidUniqueBytes);
+		char[] out = newEvidenceID();
+		Buffers buffers = writeAlignmentUniqueName(e.getSAMRecord(), out);
+		StringEvidenceIdentifierGenerator.appendEvidenceSuffix(buffers.name, e);
+		return getEvidenceID(buffers, out);
 	}
 }
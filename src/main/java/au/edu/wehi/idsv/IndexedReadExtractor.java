@@ -3,17 +3,30 @@ package au.edu.wehi.idsv;
 import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
 import au.edu.wehi.idsv.sam.SAMFileUtil;
-import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.*;
 import htsjdk.samtools.util.Log;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static au.edu.wehi.idsv.sam.ChimericAlignment.getChimericAlignments;
 
+/**
+ * Extracts reads using the input index.
+ *
+ * Query intervals are split into contiguous shards which are queried in parallel,
+ * each with its own reader. A record overlapping multiple shards is returned by the
+ * query of each shard so is only written by the first shard whose intervals it overlaps.
+ */
 public class IndexedReadExtractor extends ReadExtractor {
     private static final Log log = Log.getInstance(IndexedReadExtractor.class);
     public IndexedReadExtractor(LinearGenomicCoordinate lgc, IntervalBed bed, boolean extractMates, boolean extractSplits) {
@@ -22,29 +35,63 @@ public class IndexedReadExtractor extends ReadExtractor {
 
     @Override
     public void extract(File input, File output, int workerThreads) throws IOException {
-        extract(input, output, getRegionBed().asQueryInterval());
+        ExecutorService threadpool = Executors.newFixedThreadPool(Math.max(1, workerThreads), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("IndexedReadExtractor-%d").build());
+        try {
+            extract(input, output, getRegionBed().asQueryInterval(), Math.max(1, workerThreads), threadpool);
+        } finally {
+            threadpool.shutdownNow();
+        }
     }
-    private void extract(File input, File output, QueryInterval[] intervals) throws IOException {
-        IntervalBed remoteLocations = new IntervalBed(getLinearGenomicCoordinate());
-        boolean shouldLookupUnmapped = false;
-        File regionOut = FileSystemContext.getWorkingFileFor(output);
-        File offTargetOut =  FileSystemContext.getWorkingFileFor(output, "mate_splits");
+    private void extract(File input, File output, QueryInterval[] intervals, int shardCount, ExecutorService threadpool) throws IOException {
         try (SamReader reader = SamReaderFactory.makeDefault().open(input)) {
             if (!reader.hasIndex()) {
                 throw new RuntimeException("Missing BAM index for " + input.getName());
             }
+        }
+        List<File> shardFiles = new ArrayList<>();
+        AtomicBoolean shouldLookupUnmapped = new AtomicBoolean(false);
+        log.info(String.format("Extracting %d intervals.", intervals.length));
+        List<Future<IntervalBed>> regionTasks = new ArrayList<>();
+        for (QueryInterval[] shard : shard(intervals, shardCount)) {
+            File shardOut = FileSystemContext.getWorkingFileFor(output, String.format("gridss.tmp.region%d.", shardFiles.size()));
+            shardFiles.add(shardOut);
+            regionTasks.add(threadpool.submit(() -> extractRegion(input, shardOut, shard, shouldLookupUnmapped)));
+        }
+        IntervalBed remoteLocations = IntervalBed.merge(getLinearGenomicCoordinate(), waitFor(regionTasks));
+        // iterator over remote targets
+        QueryInterval[] offTarget = remoteLocations.asQueryInterval();
+        log.info(String.format("Querying %d intervals for mates and split reads.", offTarget.length));
+        List<Future<Void>> remoteTasks = new ArrayList<>();
+        for (QueryInterval[] shard : shard(offTarget, shardCount)) {
+            File shardOut = FileSystemContext.getWorkingFileFor(output, String.format("gridss.tmp.mate_splits%d.", shardFiles.size()));
+            shardFiles.add(shardOut);
+            remoteTasks.add(threadpool.submit(() -> extractRemote(input, shardOut, shard, remoteLocations)));
+        }
+        if (shouldLookupUnmapped.get()) {
+            File unmappedOut = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.unmapped.");
+            shardFiles.add(unmappedOut);
+            remoteTasks.add(threadpool.submit(() -> extractUnmapped(input, unmappedOut)));
+        }
+        waitFor(remoteTasks);
+        SAMFileUtil.merge(shardFiles, output);
+        for (File f : shardFiles) {
+            Files.delete(f.toPath());
+        }
+    }
+    private IntervalBed extractRegion(File input, File output, QueryInterval[] intervals, AtomicBoolean shouldLookupUnmapped) throws IOException {
+        IntervalBed remoteLocations = new IntervalBed(getLinearGenomicCoordinate());
+        long shardStart = shardStart(intervals);
+        try (SamReader reader = SamReaderFactory.makeDefault().open(input)) {
             SAMFileHeader header = reader.getFileHeader();
-            log.info(String.format("Extracting %d intervals.", intervals.length));
             try (SAMRecordIterator it = reader.query(intervals, false)) {
-                //ProgressLoggingSAMRecordIterator it = new ProgressLoggingSAMRecordIterator(it, new ProgressLogger(log));
-                try (SAMFileWriter writer = new SAMFileWriterFactory().setCompressionLevel(0).makeBAMWriter(header, true, regionOut)) {
+                try (SAMFileWriter writer = new SAMFileWriterFactory().setCompressionLevel(0).makeBAMWriter(header, true, output)) {
                     while (it.hasNext()) {
                         SAMRecord r = it.next();
-                        if (overlapsRegionBed(r)) {
+                        if (overlapsRegionBed(r) && isOwnedByShard(r, getRegionBed(), shardStart)) {
                             writer.addAlignment(r);
                             if (shouldExtractMates() && r.getReadPairedFlag()) {
                                 if (r.getMateUnmappedFlag()) {
-                                    shouldLookupUnmapped = true;
+                                    shouldLookupUnmapped.set(true);
                                 } else {
                                     remoteLocations.addInterval(r.getMateReferenceIndex(), r.getMateAlignmentStart(), r.getMateAlignmentStart());
                                 }
@@ -59,32 +106,107 @@ public class IndexedReadExtractor extends ReadExtractor {
                     }
                 }
             }
-            // iterator over remote targets
-            QueryInterval[] offTarget = remoteLocations.asQueryInterval();
-            log.info(String.format("Querying %d intervals for mates and split reads.", offTarget.length));
-            try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, offTargetOut)) {
-                try (SAMRecordIterator it = reader.query(remoteLocations.asQueryInterval(), false)) {
+        }
+        return remoteLocations;
+    }
+    private Void extractRemote(File input, File output, QueryInterval[] intervals, IntervalBed remoteLocations) throws IOException {
+        long shardStart = shardStart(intervals);
+        try (SamReader reader = SamReaderFactory.makeDefault().open(input)) {
+            SAMFileHeader header = reader.getFileHeader();
+            try (SAMFileWriter writer = new SAMFileWriterFactory().setCompressionLevel(0).makeBAMWriter(header, true, output)) {
+                try (SAMRecordIterator it = reader.query(intervals, false)) {
                     while (it.hasNext()) {
                         SAMRecord r = it.next();
-                        if (!overlapsRegionBed(r) && shouldExtract(r)) {
+                        if (!overlapsRegionBed(r) && shouldExtract(r) && isOwnedByShard(r, remoteLocations, shardStart)) {
                             writer.addAlignment(r);
                         }
                     }
                 }
-                if (shouldLookupUnmapped) {
-                    try (SAMRecordIterator it = reader.queryUnmapped()) {
-                        while (it.hasNext()) {
-                            SAMRecord r = it.next();
-                            if (shouldExtract(r)) {
-                                writer.addAlignment(r);
-                            }
+            }
+        }
+        return null;
+    }
+    private Void extractUnmapped(File input, File output) throws IOException {
+        try (SamReader reader = SamReaderFactory.makeDefault().open(input)) {
+            SAMFileHeader header = reader.getFileHeader();
+            try (SAMFileWriter writer = new SAMFileWriterFactory().setCompressionLevel(0).makeBAMWriter(header, true, output)) {
+                try (SAMRecordIterator it = reader.queryUnmapped()) {
+                    while (it.hasNext()) {
+                        SAMRecord r = it.next();
+                        if (shouldExtract(r)) {
+                            writer.addAlignment(r);
                         }
                     }
                 }
             }
         }
-        SAMFileUtil.merge(ImmutableList.of(regionOut, offTargetOut), output);
-        Files.delete(regionOut.toPath());
-        Files.delete(offTargetOut.toPath());
+        return null;
+    }
+    private long shardStart(QueryInterval[] intervals) {
+        if (intervals.length == 0) return Long.MAX_VALUE;
+        return getLinearGenomicCoordinate().getLinearCoordinate(intervals[0].referenceIndex, intervals[0].start);
+    }
+    /**
+     * Determines whether the given record should be written by the shard starting at the given position.
+     * Records overlapping multiple shards are written by the first shard they overlap.
+     * @param r record returned by the shard query
+     * @param bed intervals being queried
+     * @param shardStart linear genomic coordinate of the start of the first interval of the shard
+     */
+    private boolean isOwnedByShard(SAMRecord r, IntervalBed bed, long shardStart) {
+        if (r.getReadUnmappedFlag() && r.getAlignmentStart() == SAMRecord.NO_ALIGNMENT_START) return true;
+        long start = getLinearGenomicCoordinate().getLinearCoordinate(r.getReferenceIndex(), r.getAlignmentStart());
+        return start >= shardStart || !bed.overlaps(start, shardStart - 1);
+    }
+    /**
+     * Splits the given intervals into contiguous shards of approximately equal size
+     * @param intervals sorted non-overlapping intervals
+     * @param shardCount maximum number of shards
+     * @return at least one shard
+     */
+    static List<QueryInterval[]> shard(QueryInterval[] intervals, int shardCount) {
+        long totalBases = 0;
+        for (QueryInterval qi : intervals) {
+            totalBases += qi.end - qi.start + 1;
+        }
+        long shardSize = Math.max(1, (totalBases + shardCount - 1) / shardCount);
+        List<QueryInterval[]> shards = new ArrayList<>();
+        List<QueryInterval> current = new ArrayList<>();
+        long currentBases = 0;
+        for (QueryInterval qi : intervals) {
+            int start = qi.start;
+            while (start <= qi.end) {
+                int end = (int)Math.min(qi.end, start + shardSize - currentBases - 1);
+                current.add(new QueryInterval(qi.referenceIndex, start, end));
+                currentBases += end - start + 1;
+                start = end + 1;
+                if (currentBases >= shardSize) {
+                    shards.add(current.toArray(new QueryInterval[0]));
+                    current.clear();
+                    currentBases = 0;
+                }
+            }
+        }
+        if (!current.isEmpty() || shards.isEmpty()) {
+            shards.add(current.toArray(new QueryInterval[0]));
+        }
+        return shards;
+    }
+    private static <T> List<T> waitFor(List<Future<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> f : tasks) {
+            try {
+                results.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
     }
 }
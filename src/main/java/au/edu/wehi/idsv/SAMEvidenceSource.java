@@ -14,7 +14,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import gridss.ComputeSamTags;
 import gridss.ExtractSVReads;
 import gridss.SoftClipsToSplitReads;
 import gridss.analysis.CollectGridssMetrics;
@@ -157,54 +156,40 @@ public class SAMEvidenceSource extends EvidenceSource {
 	}
 	public synchronized void ensureExtracted() throws IOException {
 		File svFile = getContext().getFileSystemContext().getSVBam(getFile());
-		File extractedFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.extracted.");
-		File querysortedFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.querysorted.");
 		File taggedFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.tagged.");
 		File withsplitreadsFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.splitreads.");
 		ensureMetrics();
 		// Regenerate from from the intermediate file furtherest through the pipeline
-		// extract -> query sort -> tag -> split read -> back to coordinate sorted
+		// extract & query sort & tag -> split read -> back to coordinate sorted
 		// We want to tag before generating split reads so all splits are guaranteed to
 		// have the same tags
 		if (!svFile.exists()) {
 			if (!withsplitreadsFile.exists()) {
 				if (!taggedFile.exists()) {
-					if (!querysortedFile.exists()) {
-						if (!extractedFile.exists()) {
-							log.info("Extracting SV reads from " + getFile().getAbsolutePath());
-							File in = getFile(SortOrder.queryname);
-							if (in == null || !in.exists()) {
-								in = getFile();
-							}
-							List<String> args = Lists.newArrayList(
-									"INPUT=" + in.getPath(),
-									"OUTPUT=" + extractedFile.getPath(),
-									"UNMAPPED_READS=false", // saves intermediate file space
-									"METRICS_OUTPUT=" + getContext().getFileSystemContext().getSVMetrics(getFile()),
-									"MIN_CLIP_LENGTH=" + getContext().getConfig().getSoftClip().minLength,
-									"READ_PAIR_CONCORDANCE_METHOD=" + rpcMethod.name(),
-									"FIXED_READ_PAIR_CONCORDANCE_MIN_FRAGMENT_SIZE=" + rpcMinFragmentSize,
-									"FIXED_READ_PAIR_CONCORDANCE_MAX_FRAGMENT_SIZE=" + rpcMaxFragmentSize,
-									"READ_PAIR_CONCORDANT_PERCENT=" + rpcConcordantPercentage,
-									"INSERT_SIZE_METRICS=" + getContext().getFileSystemContext().getInsertSizeMetrics(getFile()),
-									// Picard tools does not mark duplicates correctly. We need to keep them so we can
-									// fix the duplicate marking in ComputeSamTags
-									"INCLUDE_DUPLICATES=true");
-							execute(new ExtractSVReads(), args);
-						}
-						SAMFileUtil.sort(getContext().getFileSystemContext(), extractedFile, querysortedFile, SortOrder.queryname);
-						if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
-							FileHelper.delete(extractedFile, true);
-						}
+					log.info("Extracting SV reads from " + getFile().getAbsolutePath());
+					File in = getFile(SortOrder.queryname);
+					if (in == null || !in.exists()) {
+						in = getFile();
 					}
-					log.info("Computing SAM tags for " + svFile);
 					List<String> args = Lists.newArrayList(
-							"INPUT=" + querysortedFile.getPath(),
-							"OUTPUT=" + taggedFile.getPath());
-					execute(new ComputeSamTags(), args);
-					if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
-						FileHelper.delete(querysortedFile, true);
-					}
+							"INPUT=" + in.getPath(),
+							"OUTPUT=" + taggedFile.getPath(),
+							"UNMAPPED_READS=false", // saves intermediate file space
+							"METRICS_OUTPUT=" + getContext().getFileSystemContext().getSVMetrics(getFile()),
+							"MIN_CLIP_LENGTH=" + getContext().getConfig().getSoftClip().minLength,
+							"READ_PAIR_CONCORDANCE_METHOD=" + rpcMethod.name(),
+							"FIXED_READ_PAIR_CONCORDANCE_MIN_FRAGMENT_SIZE=" + rpcMinFragmentSize,
+							"FIXED_READ_PAIR_CONCORDANCE_MAX_FRAGMENT_SIZE=" + rpcMaxFragmentSize,
+							"READ_PAIR_CONCORDANT_PERCENT=" + rpcConcordantPercentage,
+							"INSERT_SIZE_METRICS=" + getContext().getFileSystemContext().getInsertSizeMetrics(getFile()),
+							// Picard tools does not mark duplicates correctly. We need to keep them so we can
+							// fix the duplicate marking when computing SAM tags
+							"INCLUDE_DUPLICATES=true",
+							// extracted reads are queryname sorted and tagged in memory
+							// instead of via intermediate extracted and queryname sorted files
+							"COMPUTE_SAM_TAGS=true",
+							"WORKER_THREADS=" + getProcessContext().getWorkerThreadCount());
+					execute(new ExtractSVReads(), args);
 				}
 				log.info("Identifying split reads for " + getFile().getAbsolutePath());
 				List<String> args = Lists.newArrayList(
@@ -229,8 +214,6 @@ public class SAMEvidenceSource extends EvidenceSource {
 			}
 		}
 		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
-			FileHelper.delete(extractedFile, true);
-			FileHelper.delete(querysortedFile, true);
 			FileHelper.delete(taggedFile, true);
 			FileHelper.delete(withsplitreadsFile, true);
 		}
@@ -6,15 +6,28 @@ public class SequentialIdGenerator implements VariantIdGenerator, AssemblyIdGene
 	private final AtomicInteger id = new AtomicInteger(0);
 	private final String prefix;
 	private final String suffix;
+	private final int first;
+	private final int step;
 	public SequentialIdGenerator(String prefix) {
 		this(prefix, "");
 	}
 	public SequentialIdGenerator(String prefix, String suffix) {
+		this(prefix, suffix, 1, 1);
+	}
+	/**
+	 * Generates the identifiers first, first + step, first + 2 * step, ...
+	 * 
+	 * Generators sharing a prefix with the same step but different first identifiers
+	 * less than step generate disjoint identifiers.
+	 */
+	public SequentialIdGenerator(String prefix, String suffix, int first, int step) {
 		this.prefix = prefix;
 		this.suffix = suffix;
+		this.first = first;
+		this.step = step;
 	}
 	public String generate() {
-		return String.format("%s%d%s", prefix, id.incrementAndGet(), suffix);
+		return String.format("%s%d%s", prefix, first + step * id.getAndIncrement(), suffix);
 	}
 	@Override
 	public String generate(BreakendSummary breakpoint, byte[] baseCalls, int startAnchoredBaseCount, int endAnchoredBaseCount) {
@@ -1,17 +1,17 @@
 package au.edu.wehi.idsv;
 
-import au.edu.wehi.idsv.util.SlidingWindowList;
 import au.edu.wehi.idsv.visualisation.TrackedBuffer;
 import com.google.common.collect.*;
 import gridss.analysis.IdsvMetrics;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.filter.*;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * Counts the number of reads and read pairs providing support for the
@@ -25,9 +25,9 @@ public class SequentialReferenceCoverageLookup implements Closeable, ReferenceCo
 	private final List<Closeable> toClose = Lists.newArrayList();
 	private final PeekingIterator<SAMRecord> reads;
 	private final ReadPairConcordanceCalculator pairing;
-	private final PriorityQueue<Integer> currentReferenceRead = Queues.newPriorityQueue();
-	private final PriorityQueue<Integer> currentStartReferencePairs = Queues.newPriorityQueue();
-	private final PriorityQueue<Integer> currentEndReferencePairs = Queues.newPriorityQueue();
+	private final IntHeapPriorityQueue currentReferenceRead = new IntHeapPriorityQueue();
+	private final IntHeapPriorityQueue currentStartReferencePairs = new IntHeapPriorityQueue();
+	private final IntHeapPriorityQueue currentEndReferencePairs = new IntHeapPriorityQueue();
 	/**
 	 * Maximum distance from read alignment start to last concordant support position 
 	 */
@@ -35,8 +35,18 @@ public class SequentialReferenceCoverageLookup implements Closeable, ReferenceCo
 	private int currentReferenceIndex = -1;
 	private int currentPosition;
 	private int largestWindow;
-	private SlidingWindowList<Integer> readCounts;
-	private SlidingWindowList<Integer> pairCounts;
+	/**
+	 * Circular buffer of read counts of the most recent largestWindow positions
+	 */
+	private int[] readCounts;
+	/**
+	 * Circular buffer of read pair counts of the most recent largestWindow positions
+	 */
+	private int[] pairCounts;
+	/**
+	 * Last position for which counts have been calculated
+	 */
+	private int lastCountPosition = -1;
 	/**
 	 * Used to check the data is sequential
 	 */
@@ -74,15 +84,23 @@ public class SequentialReferenceCoverageLookup implements Closeable, ReferenceCo
 		}
 		toClose.clear();
 	}
-	private int getCount(SlidingWindowList<Integer> counts, int referenceIndex, int position) {
-		if (counts.size() <= position) return 0;
+	private int getCount(int[] counts, int referenceIndex, int position) {
+		if (lastCountPosition < position) return 0;
 		// 10 10 0 good
 		// 2 1 1 good
 		// 0 1 1 bad
-		if (position < counts.size() - counts.getWindowSize()) throw new IllegalArgumentException(String.format("position %d outside of window of size %d ending at position %d", position, counts.getWindowSize(), counts.size()));
-		Integer count = counts.get(position);
-		if (count == null) return 0;
-		return (int)count;
+		if (position <= lastCountPosition - counts.length) throw new IllegalArgumentException(String.format("position %d outside of window of size %d ending at position %d", position, counts.length, lastCountPosition + 1));
+		return counts[position % counts.length];
+	}
+	private void setCounts(int position, int readCount, int pairCount) {
+		// positions skipped over have no coverage
+		for (int i = lastCountPosition + 1; i < position && i <= lastCountPosition + readCounts.length; i++) {
+			readCounts[i % readCounts.length] = 0;
+			pairCounts[i % pairCounts.length] = 0;
+		}
+		readCounts[position % readCounts.length] = readCount;
+		pairCounts[position % pairCounts.length] = pairCount;
+		lastCountPosition = position;
 	}
 	/* (non-Javadoc)
 	 * @see au.edu.wehi.idsv.ReferenceCoverageLookup#readsSupportingNoBreakendAfter(int, int)
@@ -121,8 +139,15 @@ public class SequentialReferenceCoverageLookup implements Closeable, ReferenceCo
 			currentReferenceRead.clear();
 			currentStartReferencePairs.clear();
 			currentEndReferencePairs.clear();
-			readCounts = new SlidingWindowList<Integer>(largestWindow);
-			pairCounts = new SlidingWindowList<Integer>(largestWindow);
+			if (readCounts == null) {
+				if (largestWindow <= 0) throw new IllegalArgumentException("Window size must be positive");
+				readCounts = new int[largestWindow];
+				pairCounts = new int[largestWindow];
+			} else {
+				Arrays.fill(readCounts, 0);
+				Arrays.fill(pairCounts, 0);
+			}
+			lastCountPosition = -1;
 		}
 		// skip until we're close to out window
 		while (reads.hasNext() && reads.peek().getReferenceIndex() < currentReferenceIndex) {
@@ -141,8 +166,7 @@ public class SequentialReferenceCoverageLookup implements Closeable, ReferenceCo
 				addRead(checkOrdered(reads.next()));
 			}
 			flushQueues();
-			readCounts.set(currentPosition, currentReferenceRead.size());
-			pairCounts.set(currentPosition, currentEndReferencePairs.size() - currentStartReferencePairs.size());
+			setCounts(currentPosition, currentReferenceRead.size(), currentEndReferencePairs.size() - currentStartReferencePairs.size());
 		}
 		currentPosition--;
 	}
@@ -163,10 +187,10 @@ public class SequentialReferenceCoverageLookup implements Closeable, ReferenceCo
 	private void addRead(SAMRecord read) {
 		if (read.getReadUnmappedFlag()) return;
 		// TODO: process CIGAR instead of just taking the whole alignment length as support for the reference
-		currentReferenceRead.add(read.getAlignmentEnd());
+		currentReferenceRead.enqueue(read.getAlignmentEnd());
 		if (isLowerMappedOfNonOverlappingConcordantPair(read)) {
-			currentStartReferencePairs.add(read.getAlignmentEnd());
-			currentEndReferencePairs.add(read.getMateAlignmentStart());
+			currentStartReferencePairs.enqueue(read.getAlignmentEnd());
+			currentEndReferencePairs.enqueue(read.getMateAlignmentStart());
 		}
 	}
 	/**
@@ -174,9 +198,9 @@ public class SequentialReferenceCoverageLookup implements Closeable, ReferenceCo
 	 * at the given current position
 	 */
 	private void flushQueues() {
-		while (!currentReferenceRead.isEmpty() && currentReferenceRead.peek() <= currentPosition) currentReferenceRead.poll();
-		while (!currentStartReferencePairs.isEmpty() && currentStartReferencePairs.peek() <= currentPosition) currentStartReferencePairs.poll();
-		while (!currentEndReferencePairs.isEmpty() && currentEndReferencePairs.peek() <= currentPosition) currentEndReferencePairs.poll();
+		while (!currentReferenceRead.isEmpty() && currentReferenceRead.firstInt() <= currentPosition) currentReferenceRead.dequeueInt();
+		while (!currentStartReferencePairs.isEmpty() && currentStartReferencePairs.firstInt() <= currentPosition) currentStartReferencePairs.dequeueInt();
+		while (!currentEndReferencePairs.isEmpty() && currentEndReferencePairs.firstInt() <= currentPosition) currentEndReferencePairs.dequeueInt();
 	}
 	private boolean isLowerMappedOfNonOverlappingConcordantPair(SAMRecord read) {
 		return !read.getReadUnmappedFlag()
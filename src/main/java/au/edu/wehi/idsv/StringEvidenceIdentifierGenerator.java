@@ -49,13 +49,21 @@ public class StringEvidenceIdentifierGenerator implements EvidenceIdentifierGene
 		return stripSeperators(evidenceId, 6);
 	}
 	private static StringBuilder buildSegmentUniqueName(SAMRecord record) {
-		StringBuilder sb = new StringBuilder(record.getReadName());
+		return appendSegmentUniqueName(new StringBuilder(), record);
+	}
+	private static StringBuilder buildAlignmentUniqueName(SAMRecord record) {
+		return appendAlignmentUniqueSuffix(buildSegmentUniqueName(record), record);
+	}
+	static StringBuilder appendSegmentUniqueName(StringBuilder sb, SAMRecord record) {
+		sb.append(record.getReadName());
 		sb.append(SEPERATOR);
 		sb.append(SAMRecordUtil.getSegmentIndex(record));
 		return sb;
 	}
-	private static StringBuilder buildAlignmentUniqueName(SAMRecord record) {
-		StringBuilder sb = buildSegmentUniqueName(record);
+	/**
+	 * Appends the components of the alignment unique name following the segment unique name
+	 */
+	static StringBuilder appendAlignmentUniqueSuffix(StringBuilder sb, SAMRecord record) {
 		if (!record.getReadUnmappedFlag()) {
 			sb.append(SEPERATOR);
 			sb.append(record.getReferenceName());
@@ -73,9 +81,7 @@ public class StringEvidenceIdentifierGenerator implements EvidenceIdentifierGene
 		}
 		return sb;
 	}
-	@Override
-	public String getEvidenceID(NonReferenceReadPair e) {
-		StringBuilder sb = buildAlignmentUniqueName(e.getLocalledMappedRead());
+	static StringBuilder appendEvidenceSuffix(StringBuilder sb, NonReferenceReadPair e) {
 		sb.append(SEPERATOR);
 		sb.append("rp");
 		// not technically required if only considering 2 segment templates (ie read pairs)
@@ -83,31 +89,41 @@ public class StringEvidenceIdentifierGenerator implements EvidenceIdentifierGene
 		if (e.getBreakendSummary() != null) {
 			sb.append(e.getBreakendSummary().direction.toChar());
 		}
-		return sb.toString();
+		return sb;
 	}
-	@Override
-	public String getEvidenceID(SoftClipEvidence e) {
-		StringBuilder sb = buildAlignmentUniqueName(e.getSAMRecord());
+	static StringBuilder appendEvidenceSuffix(StringBuilder sb, SoftClipEvidence e) {
 		sb.append(SEPERATOR);
 		sb.append("sc");
 		sb.append(e.getBreakendSummary().direction.toChar());
-		return sb.toString();
+		return sb;
 	}
-	@Override
-	public String getEvidenceID(SplitReadEvidence e) {
-		StringBuilder sb = buildAlignmentUniqueName(e.getSAMRecord());
+	static StringBuilder appendEvidenceSuffix(StringBuilder sb, SplitReadEvidence e) {
 		sb.append(SEPERATOR);
 		sb.append("sr");
 		sb.append(e.getBreakendSummary().direction.toChar());
-		return sb.toString();
+		return sb;
 	}
-	@Override
-	public String getEvidenceID(IndelEvidence e) {
-		StringBuilder sb = buildAlignmentUniqueName(e.getSAMRecord());
+	static StringBuilder appendEvidenceSuffix(StringBuilder sb, IndelEvidence e) {
 		sb.append(SEPERATOR);
 		sb.append(e.getIndelCigarOffset());
 		sb.append('i');
 		sb.append(e.getBreakendSummary().direction.toChar());
-		return sb.toString();
+		return sb;
+	}
+	@Override
+	public String getEvidenceID(NonReferenceReadPair e) {
+		return appendEvidenceSuffix(buildAlignmentUniqueName(e.getLocalledMappedRead()), e).toString();
+	}
+	@Override
+	public String getEvidenceID(SoftClipEvidence e) {
+		return appendEvidenceSuffix(buildAlignmentUniqueName(e.getSAMRecord()), e).toString();
+	}
+	@Override
+	public String getEvidenceID(SplitReadEvidence e) {
+		return appendEvidenceSuffix(buildAlignmentUniqueName(e.getSAMRecord()), e).toString();
+	}
+	@Override
+	public String getEvidenceID(IndelEvidence e) {
+		return appendEvidenceSuffix(buildAlignmentUniqueName(e.getSAMRecord()), e).toString();
 	}
 }
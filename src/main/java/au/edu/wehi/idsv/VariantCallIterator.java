@@ -7,6 +7,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
@@ -17,6 +18,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 /**
  * Calls breakpoints from the given evidence
@@ -26,6 +29,10 @@ import java.util.concurrent.LinkedBlockingDeque;
 public class VariantCallIterator implements CloseableIterator<VariantContextDirectedEvidence> {
 	private static final Log log = Log.getInstance(VariantCallIterator.class);
 	private static final int ITERATOR_BUFFER_SIZE = 256;
+	/**
+	 * Caller threads are reused across chunks instead of creating new threads for every chunk
+	 */
+	private static final ExecutorService callerThreadpool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("CallVariants-%d").build());
 	private final VariantContextDirectedEvidence endOfStream;
 	private final ProcessingContext processContext;
 	private final DuplicatingIterable<DirectedEvidence> iterable;
@@ -35,7 +42,13 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 	private final List<AsyncDirectionalIterator> async = new ArrayList<>();
 	private int activeIterators;
 	private volatile Exception workerThreadException;
-	private VariantCallIterator(ProcessingContext processContext, Iterator<DirectedEvidence> evidence, QueryInterval[] interval, int intervalNumber) {
+	/**
+	 * Number of caller threads used by each VariantCallIterator
+	 */
+	public static int getCallerThreadCount(ProcessingContext processContext) {
+		return processContext.getVariantCallingParameters().callBreakends ? 6 : 4;
+	}
+	private VariantCallIterator(ProcessingContext processContext, Iterator<DirectedEvidence> evidence, QueryInterval[] interval, int intervalNumber, int subintervalNumber) {
 		this.endOfStream = (VariantContextDirectedEvidence)new IdsvVariantContextBuilder(processContext)
 				.id("sentinel")
 				.chr(processContext.getReference().getSequenceDictionary().getSequence(0).getSequenceName())
@@ -45,7 +58,8 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 				.make();
 		this.processContext = processContext;
 		boolean callBreakends = processContext.getVariantCallingParameters().callBreakends;
-		this.activeIterators = callBreakends ? 6 : 4;
+		this.activeIterators = getCallerThreadCount(processContext);
+		String idPrefix = subintervalNumber < 0 ? String.format("gridss%d", Math.max(intervalNumber, 0)) : String.format("gridss%d-%d", intervalNumber, subintervalNumber);
 		this.iterable = new DuplicatingIterable<>(activeIterators, evidence, ITERATOR_BUFFER_SIZE);
 		this.filterInterval = interval;
 		for (BreakendDirection localDir : BreakendDirection.values()) {
@@ -55,7 +69,7 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 						this.iterable.iterator(),
 						localDir,
 						remoteDir,
-						new SequentialIdGenerator(String.format("gridss%d%s%s_", Math.max(intervalNumber, 0), localDir.toChar(), remoteDir.toChar())));
+						new SequentialIdGenerator(String.format("%s%s%s_", idPrefix, localDir.toChar(), remoteDir.toChar())));
 				async.add(new AsyncDirectionalIterator(it, localDir, remoteDir));
 			}
 			if (callBreakends) {
@@ -63,29 +77,36 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 						processContext,
 						this.iterable.iterator(),
 						localDir,
-						new SequentialIdGenerator(String.format("gridss%d%s_", Math.max(intervalNumber, 0), localDir.toChar())));
+						new SequentialIdGenerator(String.format("%s%s_", idPrefix, localDir.toChar())));
 				async.add(new AsyncDirectionalIterator(it, localDir, null));
 			}
 		}
 	}
 	public VariantCallIterator(ProcessingContext processContext, Iterator<DirectedEvidence> evidence) {
-		this(processContext, evidence, null, -1);
+		this(processContext, evidence, null, -1, -1);
 	}
 	public VariantCallIterator(AggregateEvidenceSource source) {
-		this(source.getContext(), source.iterator(), null, -1);
+		this(source.getContext(), source.iterator(), null, -1, -1);
 	}
 	public VariantCallIterator(AggregateEvidenceSource source, QueryInterval[] interval, int intervalNumber) {
+		this(source, interval, intervalNumber, -1);
+	}
+	/**
+	 * @param subintervalNumber subinterval of intervalNumber being called. Use -1 if the interval has not been split.
+	 */
+	public VariantCallIterator(AggregateEvidenceSource source, QueryInterval[] interval, int intervalNumber, int subintervalNumber) {
 		this(source.getContext(),
 				source.iterator(QueryIntervalUtil.padIntervals(source.getContext().getDictionary(), interval, source.getMaxConcordantFragmentSize() + 1)),
 				QueryIntervalUtil.padIntervals(source.getContext().getDictionary(), interval, source.getMaxConcordantFragmentSize() + 1),
-				intervalNumber);
+				intervalNumber,
+				subintervalNumber);
 	}
 	public class AsyncDirectionalIterator<T extends VariantContextDirectedEvidence> implements TrackedState, Closeable {
 		private Iterator<T> it;
 		private StateTracker currentTracker = null;
 		private Collection<TrackedState> currentTrackedObjects = null;
 		private T lastElement = null;
-		private Thread thread;
+		private final String threadName;
 		private volatile boolean shouldAbortImmediately = false;
 		public AsyncDirectionalIterator(Iterator<T> iterator, BreakendDirection dir1, BreakendDirection dir2) {
 			this.it = iterator;
@@ -105,10 +126,8 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 				}
 			}
 			this.it = filterInterval == null ? this.it : wrapFilter(filterInterval, this.it);
-			this.thread = new Thread(() -> run());
-			this.thread.setDaemon(true);
-			this.thread.setName("CallVariants " + positionComponent + dir1.toChar() + (dir2 == null ? "" : dir2.toChar()));
-			this.thread.start();
+			this.threadName = "CallVariants " + positionComponent + dir1.toChar() + (dir2 == null ? "" : dir2.toChar());
+			callerThreadpool.execute(() -> run());
 		}
 		private Iterator<T> wrapFilter(QueryInterval[] filterInterval, Iterator<T> it) {
 			return Iterators.filter(it, v -> {
@@ -123,6 +142,9 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 			});
 		}
 		public void run() {
+			Thread currentThread = Thread.currentThread();
+			String poolThreadName = currentThread.getName();
+			currentThread.setName(threadName);
 			try {
 				while (it.hasNext() && !shouldAbortImmediately) {
 					lastElement = it.next();
@@ -150,6 +172,8 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 				} catch (InterruptedException ex) {
 					log.error("Interrupted writing end of stream");
 				}
+			} finally {
+				currentThread.setName(poolThreadName);
 			}
 		}
 		@Override
@@ -7,13 +7,17 @@ import com.google.common.util.concurrent.MoreExecutors;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.Log;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 
 /**
@@ -23,6 +27,10 @@ import java.util.concurrent.Future;
  */
 public class VariantCaller {
 	private static final Log log = Log.getInstance(VariantCaller.class);
+	/**
+	 * Number of worker threads each concurrently called chunk is assumed to keep busy
+	 */
+	private static final int CALLER_THREADS_BUSY_PER_CHUNK = 2;
 	private final ProcessingContext processContext;
 	private final List<SAMEvidenceSource> samEvidence;
 	private final AssemblyEvidenceSource assemblyEvidence;
@@ -41,16 +49,49 @@ public class VariantCaller {
 		}
 		AggregateEvidenceSource es = new AggregateEvidenceSource(processContext, samEvidence, assemblyEvidence, SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
 		List<QueryInterval[]> chunks = processContext.getReference().getIntervals(processContext.getConfig().chunkSize, processContext.getConfig().chunkSequenceChangePenalty);
+		EvidenceDensityEstimator density = new EvidenceDensityEstimator(processContext, samEvidence);
+		double meanChunkEvidence = chunks.stream().mapToLong(density::getEstimate).average().orElse(0);
 		List<File> calledChunk = new ArrayList<>();
-		List<Future<Void>> tasks = new ArrayList<>();
-		
+		List<Pair<Long, Callable<Void>>> pending = new ArrayList<>();
 		for (int i = 0; i < chunks.size(); i++) {
-			QueryInterval[] chunk = chunks.get(i);
-			File f = processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i);
-			int chunkNumber = i;
-			calledChunk.add(f);
-			if (!f.exists()) {
-				tasks.add(threadpool.submit(() -> { callChunk(f, es, chunkNumber, chunk); return null; }));
+			List<QueryInterval[]> subchunks = density.splitDense(chunks.get(i), meanChunkEvidence, processContext.getConfig().chunkSplitDensityMultiple);
+			for (int j = 0; j < subchunks.size(); j++) {
+				QueryInterval[] chunk = subchunks.get(j);
+				File f = subchunks.size() == 1 ? processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i) : processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i, j);
+				int chunkNumber = i;
+				int subchunkNumber = subchunks.size() == 1 ? -1 : j;
+				calledChunk.add(f);
+				if (!f.exists()) {
+					pending.add(Pair.of(density.getEstimate(chunk), () -> { callChunk(f, es, chunkNumber, subchunkNumber, chunk); return null; }));
+				}
+			}
+		}
+		// Start the most evidence-dense chunks first so they don't
+		// end up running by themselves after all other chunks have completed.
+		pending.sort(Comparator.comparing((Pair<Long, Callable<Void>> p) -> p.getLeft()).reversed());
+		// Each chunk runs multiple caller threads so limit the number of
+		// concurrent chunks to keep the number of live caller threads bounded.
+		Semaphore chunkPermits = new Semaphore(getConcurrentChunkCount(processContext));
+		List<Future<Void>> tasks = new ArrayList<>();
+		for (Pair<Long, Callable<Void>> p : pending) {
+			try {
+				chunkPermits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			try {
+				tasks.add(threadpool.submit(() -> {
+					try {
+						return p.getRight().call();
+					} finally {
+						chunkPermits.release();
+					}
+				}));
+			} catch (RuntimeException e) {
+				// the task will never run so it will never release its permit
+				chunkPermits.release();
+				throw e;
 			}
 		}
 		runTasks(tasks);
@@ -69,6 +110,18 @@ public class VariantCaller {
 			FileHelper.delete(mergedOut, true);
 		}
 	}
+	/**
+	 * Number of chunks to call concurrently.
+	 *
+	 * The caller threads of a chunk all consume the same evidence stream and
+	 * spend most of their time waiting on the slowest caller, so each chunk
+	 * is assumed to keep CALLER_THREADS_BUSY_PER_CHUNK worker threads busy
+	 * rather than all of its caller threads.
+	 */
+	static int getConcurrentChunkCount(ProcessingContext processContext) {
+		int busyThreadsPerChunk = Math.min(CALLER_THREADS_BUSY_PER_CHUNK, VariantCallIterator.getCallerThreadCount(processContext));
+		return Math.max(1, processContext.getWorkerThreadCount() / busyThreadsPerChunk);
+	}
 	private void runTasks(List<Future<Void>> tasks) {
 		// Run as many tasks as we can before dying
 		Exception firstException = null;
@@ -86,13 +139,13 @@ public class VariantCaller {
 			throw new RuntimeException(firstException);
 		}
 	}
-	private void callChunk(File output, AggregateEvidenceSource es, int chunkNumber, QueryInterval[] chunk) {
-		String chunkMsg = String.format("chunk %d (%s:%d-%s:%d)", chunkNumber,
+	private void callChunk(File output, AggregateEvidenceSource es, int chunkNumber, int subchunkNumber, QueryInterval[] chunk) {
+		String chunkMsg = String.format("chunk %d%s (%s:%d-%s:%d)", chunkNumber, subchunkNumber >= 0 ? "." + subchunkNumber : "",
 				processContext.getDictionary().getSequence(chunk[0].referenceIndex).getSequenceName(), chunk[0].start,
 				processContext.getDictionary().getSequence(chunk[chunk.length-1].referenceIndex).getSequenceName(), chunk[chunk.length-1].end);
 		String msg = "calling maximal cliques in " + chunkMsg;
 		File tmp = new File(output.getParent(), "gridss.tmp." + output.getName());
-		try (VariantCallIterator rawit = new VariantCallIterator(es, chunk, chunkNumber)) {
+		try (VariantCallIterator rawit = new VariantCallIterator(es, chunk, chunkNumber, subchunkNumber)) {
 			try (VariantContextWriter vcfWriter = processContext.getVariantContextWriter(tmp, false)) {
 				log.info("Start ", msg);
 				try (AsyncBufferedIterator<VariantContextDirectedEvidence> it = new AsyncBufferedIterator<>(rawit, "VariantCaller " + chunkMsg)) {
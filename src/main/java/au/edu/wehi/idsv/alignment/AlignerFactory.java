@@ -56,7 +56,7 @@ public class AlignerFactory {
         	}
         }
         if (!sswjniLoaded) {
-        	log.error("Unable to use sswjni library - inexact homology annotation will be very slow. Please ensure libsswjni for your OS and architecture can be found on java.library.path");
+        	log.warn("Unable to use sswjni library - falling back to pure Java Smith-Waterman alignment. For best performance, ensure libsswjni for your OS and architecture can be found on java.library.path");
         }
     }
     private static void unpacksswjni(File destination) throws IOException {
@@ -79,7 +79,7 @@ public class AlignerFactory {
 		if (sswjniLoaded) {
 			return new SswJniAligner(match, mismatch, ambiguous, gapOpen, gapExtend);
 		} else {
-			return new JAlignerAligner(match, mismatch, ambiguous, gapOpen, gapExtend);
+			return new StripedSmithWatermanAligner(match, mismatch, ambiguous, gapOpen, gapExtend);
 		}
 	}
 	public static Aligner create() {
@@ -2,17 +2,8 @@ package au.edu.wehi.idsv.alignment;
 
 import au.edu.wehi.idsv.*;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
-import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
-import htsjdk.samtools.CigarElement;
-import htsjdk.samtools.SAMSequenceRecord;
-import htsjdk.samtools.TextCigarCodec;
 import htsjdk.samtools.util.SequenceUtil;
-import org.apache.commons.lang3.StringUtils;
-
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.List;
 
 /**
  * Determines the length of any inexact breakpoint homology
@@ -58,38 +49,45 @@ public class BreakpointHomology {
 		// localSeq           remoteSeq
 		//      >>>>       >>>>
 		//      localRef   remoteRef
-		String localSeq = getAnchorSeq(lookup, bs, refLength);
-		String localBsSeq = getAnchorSeq(lookup, bs, seqLength);
-		String localRef = getAnchorSeq(lookup, advance(bs, refLength), refLength);
-		String remoteSeq = SequenceUtil.reverseComplement(getAnchorSeq(lookup, bs.remoteBreakend(), refLength));
-		String remoteBsSeq = SequenceUtil.reverseComplement(getAnchorSeq(lookup, bs.remoteBreakend(), seqLength));
-		String remoteRef = SequenceUtil.reverseComplement(getAnchorSeq(lookup, advance(bs.remoteBreakend(), refLength), refLength));
-		String strBreakend = localBsSeq + insertedSequence + remoteBsSeq;
-		String strLocal = localSeq + localRef;
-		String strRemote = remoteRef + remoteSeq;
-		byte[] breakend = strBreakend.getBytes(StandardCharsets.US_ASCII);
-		byte[] local = strLocal.getBytes(StandardCharsets.US_ASCII);
-		byte[] remote = strRemote.getBytes(StandardCharsets.US_ASCII);
+		int localOffset = bs.direction == BreakendDirection.Forward ? refLength : -refLength;
+		int remoteOffset = bs.direction2 == BreakendDirection.Forward ? refLength : -refLength;
+		int localSeqLength = getAnchorLength(lookup, bs.referenceIndex, bs.direction, bs.start, refLength);
+		int localBsSeqLength = getAnchorLength(lookup, bs.referenceIndex, bs.direction, bs.start, seqLength);
+		int localRefLength = getAnchorLength(lookup, bs.referenceIndex, bs.direction, bs.start + localOffset, refLength);
+		int remoteSeqLength = getAnchorLength(lookup, bs.referenceIndex2, bs.direction2, bs.start2, refLength);
+		int remoteBsSeqLength = getAnchorLength(lookup, bs.referenceIndex2, bs.direction2, bs.start2, seqLength);
+		int remoteRefLength = getAnchorLength(lookup, bs.referenceIndex2, bs.direction2, bs.start2 + remoteOffset, refLength);
+		Buffers buffers = BUFFERS.get();
+		byte[] breakend = buffers.breakend = ensureLength(buffers.breakend, localBsSeqLength + insertedSequence.length() + remoteBsSeqLength);
+		byte[] local = buffers.local = ensureLength(buffers.local, localSeqLength + localRefLength);
+		byte[] remote = buffers.remote = ensureLength(buffers.remote, remoteRefLength + remoteSeqLength);
+		writeAnchorSeq(lookup, bs.referenceIndex, bs.direction, bs.start, seqLength, false, breakend, 0);
+		for (int i = 0; i < insertedSequence.length(); i++) {
+			breakend[localBsSeqLength + i] = (byte)insertedSequence.charAt(i);
+		}
+		writeAnchorSeq(lookup, bs.referenceIndex2, bs.direction2, bs.start2, seqLength, true, breakend, localBsSeqLength + insertedSequence.length());
+		writeAnchorSeq(lookup, bs.referenceIndex, bs.direction, bs.start, refLength, false, local, 0);
+		writeAnchorSeq(lookup, bs.referenceIndex, bs.direction, bs.start + localOffset, refLength, false, local, localSeqLength);
+		writeAnchorSeq(lookup, bs.referenceIndex2, bs.direction2, bs.start2 + remoteOffset, refLength, true, remote, 0);
+		writeAnchorSeq(lookup, bs.referenceIndex2, bs.direction2, bs.start2, refLength, true, remote, remoteRefLength);
 		Aligner aligner = AlignerFactory.create();
 		int localHomologyBaseCount = 0;
 		int remoteHomologyBaseCount = 0;
-		if (breakend != null && breakend.length > 0) {
-			if (local != null && local.length > 0) {
-				Alignment localAlignment = aligner.align_smith_waterman(breakend, local);
-				List<CigarElement> cigar = TextCigarCodec.decode(localAlignment.getCigar()).getCigarElements();
+		if (breakend.length > 0) {
+			if (local.length > 0) {
+				String cigar = aligner.align_smith_waterman(breakend, local).getCigar();
 				// We are defining a homology as the number of bases mapped on the other side
 				// inserted sequence means the number of bases consumed can be negative
-				remoteHomologyBaseCount = Math.max(0, remoteBsSeq.length() - SAMRecordUtil.getEndSoftClipLength(cigar));
-				if (SAMRecordUtil.getStartSoftClipLength(cigar) > 0) {
+				remoteHomologyBaseCount = Math.max(0, remoteBsSeqLength - getEndSoftClipLength(cigar));
+				if (getStartSoftClipLength(cigar) > 0) {
 					// anchor is not aligned - something went wrong
 					remoteHomologyBaseCount = 0;
 				}
 			}
-			if (remote != null && remote.length > 0) {
-				Alignment remoteAlignment = aligner.align_smith_waterman(breakend, remote);
-				List<CigarElement> cigar = TextCigarCodec.decode(remoteAlignment.getCigar()).getCigarElements();
-				localHomologyBaseCount = Math.max(0, localBsSeq.length() - SAMRecordUtil.getStartSoftClipLength(cigar));
-				if (SAMRecordUtil.getEndSoftClipLength(cigar) > 0) {
+			if (remote.length > 0) {
+				String cigar = aligner.align_smith_waterman(breakend, remote).getCigar();
+				localHomologyBaseCount = Math.max(0, localBsSeqLength - getStartSoftClipLength(cigar));
+				if (getEndSoftClipLength(cigar) > 0) {
 					// anchor is not aligned - something went wrong
 					localHomologyBaseCount = 0;
 				}
@@ -98,45 +96,80 @@ public class BreakpointHomology {
 		return new BreakpointHomology(localHomologyBaseCount, remoteHomologyBaseCount);
 	}
 	/**
-	 * Moves the given breakend forward by the given amount. 
+	 * Per-thread sequence buffers. Breakpoints are typically of the same size
+	 * so buffers can be reused across calls.
 	 */
-	private static BreakendSummary advance(BreakendSummary bs, int bases) {
-		int offset = bases;
-		if (bs.direction == BreakendDirection.Backward) {
-			offset *= -1;
-		}
-		return new BreakendSummary(bs.referenceIndex, bs.direction, bs.nominal + offset, bs.start + offset, bs.end + offset);
+	private static class Buffers {
+		private byte[] breakend = new byte[0];
+		private byte[] local = new byte[0];
+		private byte[] remote = new byte[0];
+	}
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+	private static byte[] ensureLength(byte[] buffer, int length) {
+		if (buffer.length == length) return buffer;
+		return new byte[length];
 	}
-	private static String getAnchorSeq(final ReferenceLookup lookup, final BreakendSummary bs, final int length) {
-		final SAMSequenceRecord refseq = lookup.getSequenceDictionary().getSequence(bs.referenceIndex);
-		int start;
-		int end;
-		if (bs.direction == BreakendDirection.Forward) {
-			end = bs.start;
-			start = end - length + 1;
+	/**
+	 * Determines the number of anchoring reference bases available for the given breakend
+	 */
+	private static int getAnchorLength(ReferenceLookup lookup, int referenceIndex, BreakendDirection direction, int position, int length) {
+		int start = getAnchorStart(direction, position, length);
+		int end = start + length - 1;
+		int sequenceLength = lookup.getSequenceDictionary().getSequence(referenceIndex).getSequenceLength();
+		return Math.max(0, Math.min(sequenceLength, end) - Math.max(1, start) + 1);
+	}
+	private static int getAnchorStart(BreakendDirection direction, int position, int length) {
+		if (direction == BreakendDirection.Forward) {
+			return position - length + 1;
 		} else {
-			start = bs.start;
-			end = start + length - 1;
+			return position;
 		}
-		int startPadding = Math.max(0, 1 - start);
-		int endPadding = Math.max(0, end - refseq.getSequenceLength());
+	}
+	/**
+	 * Writes the anchoring reference bases of the given breakend into the given buffer.
+	 * Bases are written in breakend orientation: forward breakends are written in reference
+	 * orientation and backward breakends are reverse complemented.
+	 * @param reverseComplement reverse complement the written bases
+	 */
+	private static void writeAnchorSeq(ReferenceLookup lookup, int referenceIndex, BreakendDirection direction, int position, int length, boolean reverseComplement, byte[] buffer, int offset) {
+		int start = getAnchorStart(direction, position, length);
+		int end = start + length - 1;
+		int sequenceLength = lookup.getSequenceDictionary().getSequence(referenceIndex).getSequenceLength();
 		start = Math.max(1, start);
-		end = Math.min(refseq.getSequenceLength(), end);
-		if (start > end) {
-			// anchor is outside of contig bounds
-			return StringUtils.repeat('N', end - start + 1);
+		end = Math.min(sequenceLength, end);
+		if (reverseComplement ^ (direction == BreakendDirection.Backward)) {
+			for (int i = end; i >= start; i--) {
+				buffer[offset++] = SequenceUtil.complement(lookup.getBase(referenceIndex, i));
+			}
+		} else {
+			for (int i = start; i <= end; i++) {
+				buffer[offset++] = lookup.getBase(referenceIndex, i);
+			}
 		}
-		byte[] bseq = lookup.getSubsequenceAt(refseq.getSequenceName(), start, end).getBases();
-		if (startPadding > 0 || endPadding > 0) {
-			byte[] arr = new byte[startPadding + bseq.length + endPadding];
-			Arrays.fill(arr, (byte)'N');
-			System.arraycopy(bseq, 0, arr, startPadding, bseq.length);
+	}
+	private static int getStartSoftClipLength(String cigar) {
+		int length = 0;
+		for (int i = 0; i < cigar.length(); i++) {
+			char c = cigar.charAt(i);
+			if (c >= '0' && c <= '9') {
+				length = length * 10 + c - '0';
+			} else {
+				return c == 'S' ? length : 0;
+			}
 		}
-		if (bs.direction == BreakendDirection.Backward) {
-			SequenceUtil.reverseComplement(bseq);
+		return 0;
+	}
+	private static int getEndSoftClipLength(String cigar) {
+		if (cigar.length() == 0 || cigar.charAt(cigar.length() - 1) != 'S') return 0;
+		int length = 0;
+		int multiplier = 1;
+		for (int i = cigar.length() - 2; i >= 0; i--) {
+			char c = cigar.charAt(i);
+			if (c < '0' || c > '9') break;
+			length += (c - '0') * multiplier;
+			multiplier *= 10;
 		}
-		String seq = new String(bseq);
-		return seq;
+		return length;
 	}
 	public int getLocalHomologyLength() {
 		return localHomologyLength;
@@ -24,11 +24,23 @@ import java.util.stream.Collectors;
  * Iterator methods block until an input record has been aligned. The StreamingAligner
  * interface allows for more fine-grain control over record processing.
  * 
+ * Records are written to the aligner in batches. A batch is flushed when it reaches
+ * the batch size, when the oldest record in the batch is older than the maximum batch
+ * latency, or when a caller blocks waiting for an alignment.
+ * 
  * @author Daniel Cameron
  *
  */
 public class ExternalProcessStreamingAligner implements Closeable, Flushable, StreamingAligner, Iterator<SAMRecord> {
 	private static final int POLL_INTERVAL = 1000;
+	/**
+	 * Default number of records to send to the aligner at once
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	/**
+	 * Default maximum time (in milliseconds) a record is held before being sent to the aligner
+	 */
+	public static final int DEFAULT_BATCH_LATENCY = 100;
 	private static final Log log = Log.getInstance(ExternalProcessStreamingAligner.class);	
 	private final AtomicInteger outstandingReads = new AtomicInteger(0);
 	private final BlockingQueue<SAMRecord> buffer = new LinkedBlockingQueue<>();
@@ -37,11 +49,35 @@ public class ExternalProcessStreamingAligner implements Closeable, Flushable, St
 	private Process aligner = null;
 	private NonFlushingBasicFastqWriter toExternalProgram = null;
 	private Thread reader = null;
+	private Thread flusher = null;
+	private final int batchSize;
+	private final long batchLatency;
+	/**
+	 * Number of records written but not yet flushed to the aligner.
+	 * Only modified while holding the monitor of this object so the count always
+	 * matches the records held in toExternalProgram.
+	 */
+	private volatile int unflushedRecords = 0;
+	/**
+	 * Time the oldest unflushed record was written
+	 */
+	private volatile long firstUnflushedRecordTime;
 	// The following are only needed for pretty error messages
 	private final String commandlinestr;
 	private final File reference;
 	private final AtomicBoolean isClosed = new AtomicBoolean(false);
 	public ExternalProcessStreamingAligner(final SamReaderFactory readerFactory, final List<String> commandline, final File reference, final int threads) {
+		this(readerFactory, commandline, reference, threads, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_LATENCY);
+	}
+	/**
+	 * @param batchSize number of records to send to the aligner at once
+	 * @param batchLatency maximum time in milliseconds a record is held before being sent to the aligner
+	 */
+	public ExternalProcessStreamingAligner(final SamReaderFactory readerFactory, final List<String> commandline, final File reference, final int threads, final int batchSize, final int batchLatency) {
+		if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+		if (batchLatency < 0) throw new IllegalArgumentException("batchLatency must not be negative");
+		this.batchSize = batchSize;
+		this.batchLatency = batchLatency;
 		this.readerFactory = readerFactory;
 		this.reference = reference;
 		this.args = commandline.stream()
@@ -53,11 +89,66 @@ public class ExternalProcessStreamingAligner implements Closeable, Flushable, St
 	 * @see au.edu.wehi.idsv.alignment.StreamingAligner#asyncAlign(htsjdk.samtools.fastq.FastqRecord)
 	 */
 	@Override
-	public synchronized void asyncAlign(FastqRecord fq) throws IOException {
-		ensureAligner();
-		outstandingReads.incrementAndGet();
-		toExternalProgram.write(fq);
-		toExternalProgram.flush();
+	public void asyncAlign(FastqRecord fq) throws IOException {
+		// The write, the unflushed count and the batch timestamp must be updated
+		// atomically with respect to flushBatch() so a record can never be left
+		// in the buffer with an unflushed count of zero.
+		synchronized (this) {
+			ensureAligner();
+			outstandingReads.incrementAndGet();
+			toExternalProgram.write(fq);
+			if (unflushedRecords == 0) {
+				firstUnflushedRecordTime = System.currentTimeMillis();
+			}
+			unflushedRecords++;
+			if (unflushedRecords >= batchSize || System.currentTimeMillis() - firstUnflushedRecordTime >= batchLatency) {
+				flushBatch();
+			}
+		}
+	}
+	/**
+	 * Sends all buffered records to the aligner
+	 */
+	private void flushBatch() throws IOException {
+		synchronized (this) {
+			if (toExternalProgram != null && unflushedRecords > 0) {
+				toExternalProgram.flush();
+				unflushedRecords = 0;
+			}
+		}
+	}
+	/**
+	 * Sends all buffered records to the aligner if the oldest record has exceeded the batch latency
+	 */
+	private void flushStaleBatch() throws IOException {
+		synchronized (this) {
+			if (unflushedRecords > 0 && System.currentTimeMillis() - firstUnflushedRecordTime >= batchLatency) {
+				flushBatch();
+			}
+		}
+	}
+	/**
+	 * Ensures records are not held indefinitely when no further records are written
+	 */
+	private void flushStaleBatches(Process process) {
+		while (true) {
+			try {
+				Thread.sleep(Math.max(1, batchLatency));
+			} catch (InterruptedException e) {
+				return;
+			}
+			synchronized (this) {
+				if (aligner != process) {
+					return;
+				}
+				try {
+					flushStaleBatch();
+				} catch (IOException e) {
+					log.warn(e);
+					return;
+				}
+			}
+		}
 	}
 	private void ensureAligner() throws IOException {
 		if (aligner == null) {
@@ -79,6 +170,13 @@ public class ExternalProcessStreamingAligner implements Closeable, Flushable, St
 			reader = new Thread(() -> readAllAlignments(readerFactory));
 			reader.setName("ExternalProcessStreamingAligner");
 			reader.start();
+			if (batchSize > 1 && batchLatency > 0) {
+				final Process process = aligner;
+				flusher = new Thread(() -> flushStaleBatches(process));
+				flusher.setName("ExternalProcessStreamingAligner-flush");
+				flusher.setDaemon(true);
+				flusher.start();
+			}
 		}
 	}
 	/* (non-Javadoc)
@@ -136,6 +234,7 @@ public class ExternalProcessStreamingAligner implements Closeable, Flushable, St
 		if (aligner != null) {
 			log.info("Waiting for external aligner to complete all alignments.");
 			toExternalProgram.flush();
+			unflushedRecords = 0;
 			aligner.getOutputStream().flush();
 			toExternalProgram.close();
 			// and just to be sure we don't hit any more htsjdk bugs where they don't close the underlying stream
@@ -160,14 +259,25 @@ public class ExternalProcessStreamingAligner implements Closeable, Flushable, St
 				log.warn(e);
 			}
 		}
+		if (flusher != null) {
+			flusher.interrupt();
+		}
 		aligner = null;
 		reader = null;
+		flusher = null;
 		toExternalProgram = null;
 		isClosed.set(true);
 	}
 
 	private void syncEnsureNext() {
 		while (!isClosed.get() && buffer.isEmpty()) {
+			try {
+				// we're waiting on the aligner so it needs to have everything we've sent.
+				// flushBatch() checks the unflushed count while holding the monitor
+				flushBatch();
+			} catch (IOException e) {
+				log.warn(e);
+			}
 			try {
 				log.debug(String.format("%d alignments outstanding", outstandingReads.get()));
 				Thread.sleep(POLL_INTERVAL);
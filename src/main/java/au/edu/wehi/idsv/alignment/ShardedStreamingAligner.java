@@ -0,0 +1,97 @@
+package au.edu.wehi.idsv.alignment;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.fastq.FastqRecord;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming aligner that distributes records across multiple external aligner processes.
+ *
+ * A single aligner process is typically limited by its input parsing and cannot make
+ * use of all available cores. Records are assigned to an aligner based on their read name
+ * so all alignments for a given fastq record are returned by the same process.
+ * Alignments from different aligners are returned in an arbitrary order.
+ */
+public class ShardedStreamingAligner implements Closeable, Flushable, StreamingAligner {
+	private final List<ExternalProcessStreamingAligner> aligners;
+	/**
+	 * Aligner to return the next alignment from
+	 */
+	private int nextAlignment = 0;
+	/**
+	 * @param processes number of aligner processes to run
+	 * @param threads total number of threads. Threads are divided evenly between the aligner processes
+	 */
+	public ShardedStreamingAligner(final SamReaderFactory readerFactory, final List<String> commandline, final File reference, final int threads, final int processes, final int batchSize, final int batchLatency) {
+		if (processes < 1) throw new IllegalArgumentException("At least one aligner process required");
+		int threadsPerProcess = Math.max(1, threads / processes);
+		this.aligners = new ArrayList<>(processes);
+		for (int i = 0; i < processes; i++) {
+			aligners.add(new ExternalProcessStreamingAligner(readerFactory, commandline, reference, threadsPerProcess, batchSize, batchLatency));
+		}
+	}
+	private ExternalProcessStreamingAligner shardFor(FastqRecord fq) {
+		return aligners.get(Math.floorMod(fq.getReadName().hashCode(), aligners.size()));
+	}
+	@Override
+	public void asyncAlign(FastqRecord fq) throws IOException {
+		shardFor(fq).asyncAlign(fq);
+	}
+	@Override
+	public void flush() throws IOException {
+		for (ExternalProcessStreamingAligner aligner : aligners) {
+			aligner.flush();
+		}
+	}
+	@Override
+	public boolean hasAlignmentRecord() {
+		for (ExternalProcessStreamingAligner aligner : aligners) {
+			if (aligner.hasAlignmentRecord()) return true;
+		}
+		return false;
+	}
+	@Override
+	public int processedAlignmentRecords() {
+		int count = 0;
+		for (ExternalProcessStreamingAligner aligner : aligners) {
+			count += aligner.processedAlignmentRecords();
+		}
+		return count;
+	}
+	@Override
+	public int outstandingAlignmentRecord() {
+		int count = 0;
+		for (ExternalProcessStreamingAligner aligner : aligners) {
+			count += aligner.outstandingAlignmentRecord();
+		}
+		return count;
+	}
+	@Override
+	public SAMRecord getAlignment() {
+		for (int i = 0; i < aligners.size(); i++) {
+			ExternalProcessStreamingAligner aligner = aligners.get(nextAlignment);
+			nextAlignment = (nextAlignment + 1) % aligners.size();
+			if (aligner.hasAlignmentRecord()) {
+				return aligner.getAlignment();
+			}
+		}
+		throw new IllegalStateException("No alignments available. getAlignment() should only be called if at least one alignment record is available.");
+	}
+	/**
+	 * Flushes outstanding alignments and closes all aligner processes.
+	 * Alignment records returned by the aligners are still available after closing.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (ExternalProcessStreamingAligner aligner : aligners) {
+			aligner.close();
+		}
+	}
+}
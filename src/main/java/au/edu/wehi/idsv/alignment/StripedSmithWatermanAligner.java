@@ -0,0 +1,453 @@
+package au.edu.wehi.idsv.alignment;
+
+import htsjdk.samtools.util.SequenceUtil;
+
+/**
+ * Pure Java striped Smith-Waterman aligner.
+ *
+ * Implements the Farrar striped algorithm used by the SSW library using
+ * SIMD-within-a-register arithmetic: scores are held in 16-bit lanes packed four
+ * to a long. As with SSW, alignment is first attempted using the 16 lane striping
+ * of the SSE2 8-bit implementation, falling back to the 8 lane striping of the 16-bit
+ * implementation if the score exceeds the 8-bit range. The lane layout, lazy-F loop
+ * and tie-breaking all follow SSW so the alignments returned are identical to those
+ * of SswJniAligner without requiring a native library.
+ *
+ * This class is thread-safe.
+ */
+public class StripedSmithWatermanAligner implements Aligner {
+	private static final int MATRIX_SIZE = 128;
+	/**
+	 * Lane striping of the SSW 8-bit implementation
+	 */
+	private static final Lanes BYTE_LANES = new Lanes(16, 255);
+	/**
+	 * Lane striping of the SSW 16-bit implementation
+	 */
+	private static final Lanes WORD_LANES = new Lanes(8, Lanes.MAX_VALUE);
+	private final int gapOpen;
+	private final int gapExtend;
+	private final int[][] matrix;
+	/**
+	 * Offset added to every score so lane values are never negative
+	 */
+	private final int bias;
+	public StripedSmithWatermanAligner(int match, int mismatch, int ambiguous, int gapOpen, int gapExtend) {
+		this.gapOpen = gapOpen;
+		this.gapExtend = gapExtend;
+		this.matrix = createMatrix(match, mismatch, ambiguous);
+		this.bias = Math.max(0, -Math.min(match, Math.min(mismatch, ambiguous)));
+		if (match + bias >= 255 || gapOpen < 0 || gapExtend < 0 || gapOpen > Lanes.MAX_VALUE || gapExtend > Lanes.MAX_VALUE) {
+			throw new IllegalArgumentException("Scoring parameters out of range");
+		}
+	}
+	private static int[][] createMatrix(int match, int mismatch, int ambiguous) {
+		int[][] scores = new int[MATRIX_SIZE][MATRIX_SIZE];
+		for (int i = 0; i < MATRIX_SIZE; i++) {
+			for (int j = 0; j < MATRIX_SIZE; j++) {
+				if (Character.toUpperCase(i) == Character.toUpperCase(j)) {
+					scores[i][j] = match;
+				} else if (SequenceUtil.isValidBase((byte) i) && SequenceUtil.isValidBase((byte) j)) {
+					scores[i][j] = mismatch;
+				} else {
+					scores[i][j] = ambiguous;
+				}
+			}
+		}
+		return scores;
+	}
+	@Override
+	public Alignment align_smith_waterman(byte[] seq, byte[] ref) {
+		seq = clean(seq);
+		ref = clean(ref);
+		if (seq == null || seq.length == 0) {
+			throw new IllegalArgumentException("seq must be non-zero size");
+		}
+		if (ref == null || ref.length == 0) {
+			throw new IllegalArgumentException("ref must be non-zero size");
+		}
+		Lanes lanes = BYTE_LANES;
+		AlignmentEnd end = align(lanes, ref, false, ref.length, seq, seq.length, -1);
+		if (end.overflow) {
+			lanes = WORD_LANES;
+			end = align(lanes, ref, false, ref.length, seq, seq.length, -1);
+			if (end.overflow) {
+				throw new IllegalArgumentException("Alignment score exceeds maximum supported score");
+			}
+		}
+		// Find the start of the alignment by aligning the reversed read prefix backwards along the reference
+		byte[] reversed = new byte[end.read + 1];
+		for (int i = 0; i < reversed.length; i++) {
+			reversed[i] = seq[end.read - i];
+		}
+		AlignmentEnd start = align(lanes, ref, true, end.ref + 1, reversed, reversed.length, end.score);
+		int refStart = start.ref;
+		int readStart = end.read - start.read;
+		// SSW reports a single base alignment starting before the reference when no bases align
+		String cigar = end.ref < 0 ? "1M" : bandedCigar(ref, refStart, end.ref, seq, readStart, end.read, end.score);
+		if (readStart != 0) {
+			cigar = Integer.toString(readStart) + "S" + cigar;
+		}
+		int endOffset = seq.length - end.read - 1;
+		if (endOffset != 0) {
+			cigar += Integer.toString(endOffset) + "S";
+		}
+		return new Alignment(refStart, cigar);
+	}
+	private static class AlignmentEnd {
+		private int score;
+		/**
+		 * Reference position of the first column containing the best score
+		 */
+		private int ref;
+		/**
+		 * First read position with the best score in that column
+		 */
+		private int read;
+		private boolean overflow;
+	}
+	/**
+	 * Finds the best local alignment score and end position
+	 * @param lanes lane striping to use
+	 * @param ref reference sequence
+	 * @param reverse traverse the reference from refLen - 1 down to 0
+	 * @param refLen number of reference bases to align against
+	 * @param read read sequence
+	 * @param readLen read length
+	 * @param terminate stop as soon as a reference position with this best score is found
+	 */
+	private AlignmentEnd align(Lanes lanes, byte[] ref, boolean reverse, int refLen, byte[] read, int readLen, int terminate) {
+		final int words = lanes.words;
+		final int segLen = (readLen + lanes.count - 1) / lanes.count;
+		final int size = words * segLen;
+		final long[][] profile = new long[MATRIX_SIZE][];
+		long[] hStore = new long[size];
+		long[] hLoad = new long[size];
+		final long[] e = new long[size];
+		final long[] hMax = new long[size];
+		final long[] f = new long[words];
+		final long[] h = new long[words];
+		final long[] columnMax = new long[words];
+		final long vBias = Lanes.broadcast(bias);
+		final long vGapO = Lanes.broadcast(gapOpen);
+		final long vGapE = Lanes.broadcast(gapExtend);
+		AlignmentEnd result = new AlignmentEnd();
+		int max = 0;
+		int endRef = -1;
+		int begin = reverse ? refLen - 1 : 0;
+		int end = reverse ? -1 : refLen;
+		int step = reverse ? -1 : 1;
+		for (int i = begin; i != end; i += step) {
+			long[] p = profile[ref[i]];
+			if (p == null) {
+				p = profile[ref[i]] = createProfile(lanes, ref[i], read, readLen, segLen);
+			}
+			for (int w = 0; w < words; w++) {
+				f[w] = 0;
+				columnMax[w] = 0;
+				// diagonal of the first segment is the previous column shifted by one lane
+				h[w] = hStore[size - words + w];
+			}
+			lanes.shift(h);
+			long[] swap = hLoad;
+			hLoad = hStore;
+			hStore = swap;
+			for (int j = 0; j < size; j += words) {
+				for (int w = 0; w < words; w++) {
+					int k = j + w;
+					long vH = Lanes.subs(Lanes.adds(h[w], p[k]), vBias);
+					long vE = e[k];
+					long vF = f[w];
+					vH = Lanes.max(Lanes.max(vH, vE), vF);
+					columnMax[w] = Lanes.max(columnMax[w], vH);
+					hStore[k] = vH;
+					vH = Lanes.subs(vH, vGapO);
+					e[k] = Lanes.max(Lanes.subs(vE, vGapE), vH);
+					f[w] = Lanes.max(Lanes.subs(vF, vGapE), vH);
+					h[w] = hLoad[k];
+				}
+			}
+			// Lazy-F loop. As with SSW, E is not updated so an insertion cannot directly follow a deletion
+			lanes.shift(f);
+			int j = 0;
+			while (updatesH(f, hStore, j, vGapO)) {
+				for (int w = 0; w < words; w++) {
+					long vH = Lanes.max(hStore[j + w], f[w]);
+					columnMax[w] = Lanes.max(columnMax[w], vH);
+					hStore[j + w] = vH;
+					f[w] = Lanes.subs(f[w], vGapE);
+				}
+				j += words;
+				if (j >= size) {
+					j = 0;
+					lanes.shift(f);
+				}
+			}
+			int currentMax = lanes.horizontalMax(columnMax);
+			if (currentMax > max) {
+				max = currentMax;
+				if (max + bias >= lanes.overflow) {
+					result.overflow = true;
+					return result;
+				}
+				endRef = i;
+				System.arraycopy(hStore, 0, hMax, 0, size);
+			}
+			if (currentMax == terminate) break;
+		}
+		int endRead = readLen - 1;
+		for (int segment = 0; segment < segLen; segment++) {
+			for (int lane = 0; lane < lanes.count; lane++) {
+				int position = segment + lane * segLen;
+				if (position < endRead && lanes.get(hMax, segment, lane) == max) {
+					endRead = position;
+				}
+			}
+		}
+		result.score = max;
+		result.ref = endRef;
+		result.read = endRead;
+		return result;
+	}
+	/**
+	 * Determines whether the given F vector could increase any H score of the given segment
+	 */
+	private static boolean updatesH(long[] f, long[] h, int offset, long vGapO) {
+		for (int w = 0; w < f.length; w++) {
+			if (Lanes.subs(f[w], Lanes.subs(h[offset + w], vGapO)) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Creates the striped query profile for the given reference base
+	 */
+	private long[] createProfile(Lanes lanes, byte refBase, byte[] read, int readLen, int segLen) {
+		long[] profile = new long[lanes.words * segLen];
+		int[] scores = matrix[refBase];
+		for (int segment = 0; segment < segLen; segment++) {
+			for (int lane = 0; lane < lanes.count; lane++) {
+				int position = segment + lane * segLen;
+				int score = position >= readLen ? bias : scores[read[position]] + bias;
+				lanes.set(profile, segment, lane, score);
+			}
+		}
+		return profile;
+	}
+	/**
+	 * Generates the CIGAR of the best alignment using banded global alignment
+	 * between the previously determined start and end positions.
+	 */
+	private String bandedCigar(byte[] ref, int refStart, int refEnd, byte[] read, int readStart, int readEnd, int score) {
+		int refLen = refEnd - refStart + 1;
+		int readLen = readEnd - readStart + 1;
+		int bandWidth = Math.abs(refLen - readLen) + 1;
+		int max = 0;
+		int width, widthD;
+		byte[] direction;
+		do {
+			width = bandWidth * 2 + 3;
+			widthD = bandWidth * 2 + 1;
+			int[] hB = new int[width];
+			int[] eB = new int[width];
+			int[] hC = new int[width];
+			direction = new byte[widthD * readLen * 3];
+			for (int i = 0; i < readLen; i++) {
+				int beg = Math.max(0, i - bandWidth);
+				int end = Math.min(refLen - 1, i + bandWidth);
+				int edge = Math.min(end + 1, width - 1);
+				int f = 0;
+				hB[0] = eB[0] = hB[edge] = eB[edge] = hC[0] = 0;
+				int line = widthD * i * 3;
+				int offset = Math.max(0, i - bandWidth);
+				int prevOffset = Math.max(0, i - 1 - bandWidth);
+				int u = 0;
+				for (int j = beg; j <= end; j++) {
+					u = j - offset + 1;
+					int up = j - prevOffset + 1;
+					int left = j - 1 - offset + 1;
+					int diag = j - 1 - prevOffset + 1;
+					int de = line + (j - offset) * 3;
+					int df = de + 1;
+					int dh = de + 2;
+					int temp1 = i == 0 ? -gapOpen : hB[up] - gapOpen;
+					int temp2 = i == 0 ? -gapExtend : eB[up] - gapExtend;
+					eB[u] = Math.max(temp1, temp2);
+					direction[de] = (byte)(temp1 > temp2 ? 3 : 2);
+					temp1 = hC[left] - gapOpen;
+					temp2 = f - gapExtend;
+					f = Math.max(temp1, temp2);
+					direction[df] = (byte)(temp1 > temp2 ? 5 : 4);
+					int e1 = Math.max(eB[u], 0);
+					int f1 = Math.max(f, 0);
+					temp1 = Math.max(e1, f1);
+					temp2 = hB[diag] + matrix[ref[refStart + j]][read[readStart + i]];
+					hC[u] = Math.max(temp1, temp2);
+					if (hC[u] > max) max = hC[u];
+					if (temp1 <= temp2) {
+						direction[dh] = 1;
+					} else {
+						direction[dh] = e1 > f1 ? direction[de] : direction[df];
+					}
+				}
+				for (int j = 1; j <= u; j++) {
+					hB[j] = hC[j];
+				}
+			}
+			bandWidth *= 2;
+		} while (max < score);
+		bandWidth /= 2;
+		// trace back
+		StringBuilder sb = new StringBuilder();
+		int i = readLen - 1;
+		int j = refLen - 1;
+		int count = 0;
+		char op = 'M';
+		char prevOp = 'M';
+		int matrixIndex = 2;
+		while (i > 0) {
+			int d = widthD * i * 3 + (j - Math.max(0, i - bandWidth)) * 3 + matrixIndex;
+			switch (direction[d]) {
+				case 1:
+					i--;
+					j--;
+					matrixIndex = 2;
+					op = 'M';
+					break;
+				case 2:
+					i--;
+					matrixIndex = 0;
+					op = 'I';
+					break;
+				case 3:
+					i--;
+					matrixIndex = 2;
+					op = 'I';
+					break;
+				case 4:
+					j--;
+					matrixIndex = 1;
+					op = 'D';
+					break;
+				case 5:
+					j--;
+					matrixIndex = 2;
+					op = 'D';
+					break;
+				default:
+					throw new IllegalStateException("Smith-Waterman traceback error");
+			}
+			if (op == prevOp) {
+				count++;
+			} else {
+				sb.insert(0, prevOp).insert(0, count);
+				prevOp = op;
+				count = 1;
+			}
+		}
+		if (op == 'M') {
+			sb.insert(0, 'M').insert(0, count + 1);
+		} else {
+			sb.insert(0, op).insert(0, count);
+			sb.insert(0, 'M').insert(0, 1);
+		}
+		return sb.toString();
+	}
+	/**
+	 * Converts all non-reference bases to Ns
+	 * @param seq sequence
+	 * @return equivalent sequence containing only ACGTN
+	 */
+	private static byte[] clean(final byte[] seq) {
+		if (seq == null) return null;
+		byte[] s = SequenceUtil.upperCase(seq.clone());
+		for (int i = 0; i < s.length; i++) {
+			if (!SequenceUtil.isValidBase(s[i])) {
+				s[i] = 'N';
+			}
+		}
+		return s;
+	}
+	/**
+	 * Striped vectors of unsigned saturating 16-bit lanes packed into longs.
+	 *
+	 * The high bit of each lane is kept clear as a guard bit so
+	 * lane-wise arithmetic never carries or borrows into the adjacent lane.
+	 */
+	private static final class Lanes {
+		private static final int LANE_WIDTH = 16;
+		private static final int LANES_PER_WORD = 64 / LANE_WIDTH;
+		private static final long LOW = 0x0001000100010001L;
+		private static final long HIGH = LOW << (LANE_WIDTH - 1);
+		private static final long LANE_MASK = (1L << LANE_WIDTH) - 1;
+		/**
+		 * Maximum value that can be stored in a lane
+		 */
+		private static final int MAX_VALUE = (int)(LANE_MASK >>> 1);
+		/**
+		 * Lanes per vector
+		 */
+		private final int count;
+		/**
+		 * Words per vector
+		 */
+		private final int words;
+		/**
+		 * Biased score at which the lane striping is considered to have overflowed
+		 */
+		private final int overflow;
+		private Lanes(int count, int overflow) {
+			this.count = count;
+			this.words = count / LANES_PER_WORD;
+			this.overflow = overflow;
+		}
+		private static long broadcast(int value) {
+			return LOW * value;
+		}
+		/**
+		 * Expands the guard bit of each lane to the value bits of that lane
+		 */
+		private static long spread(long guard) {
+			return guard - (guard >>> (LANE_WIDTH - 1));
+		}
+		private static long subs(long a, long b) {
+			long d = (a | HIGH) - b;
+			return d & spread(d & HIGH);
+		}
+		private static long adds(long a, long b) {
+			long s = a + b;
+			return (s | spread(s & HIGH)) & ~HIGH;
+		}
+		private static long max(long a, long b) {
+			return b + subs(a, b);
+		}
+		/**
+		 * Shifts the vector up by one lane
+		 */
+		private void shift(long[] v) {
+			for (int w = words - 1; w > 0; w--) {
+				v[w] = (v[w] << LANE_WIDTH) | (v[w - 1] >>> (64 - LANE_WIDTH));
+			}
+			v[0] <<= LANE_WIDTH;
+		}
+		private int horizontalMax(long[] v) {
+			int max = 0;
+			for (long word : v) {
+				for (int i = 0; i < LANES_PER_WORD; i++) {
+					max = Math.max(max, (int)((word >>> (i * LANE_WIDTH)) & LANE_MASK));
+				}
+			}
+			return max;
+		}
+		private int get(long[] vectors, int segment, int lane) {
+			long word = vectors[words * segment + lane / LANES_PER_WORD];
+			return (int)((word >>> ((lane % LANES_PER_WORD) * LANE_WIDTH)) & LANE_MASK);
+		}
+		private void set(long[] vectors, int segment, int lane, int value) {
+			int index = words * segment + lane / LANES_PER_WORD;
+			int offset = (lane % LANES_PER_WORD) * LANE_WIDTH;
+			vectors[index] = (vectors[index] & ~(LANE_MASK << offset)) | (((long)value & LANE_MASK) << offset);
+		}
+	}
+}
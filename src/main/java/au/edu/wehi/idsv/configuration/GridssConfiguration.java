@@ -69,6 +69,12 @@ public class GridssConfiguration {
 	 * from a single reference sequence.
 	 */
 	public int chunkSequenceChangePenalty;
+	/**
+	 * Chunks with an estimated evidence density exceeding this multiple of the mean
+	 * chunk density are split into smaller chunks of approximately equal density.
+	 * A value of 0 disables density-based chunk splitting.
+	 */
+	public double chunkSplitDensityMultiple;
 	/**
 	 * Use the read group sample name as the category label
 	 */
@@ -122,6 +128,7 @@ public class GridssConfiguration {
 		terminateOnFirstError = config.getBoolean("terminateOnFirstError");
 		chunkSize = config.getInt("chunkSize");
 		chunkSequenceChangePenalty = config.getInt("chunkSequenceChangePenalty");
+		chunkSplitDensityMultiple = config.getDouble("chunkSplitDensityMultiple");
 		useReadGroupSampleNameCategoryLabel = config.getBoolean("useReadGroupSampleNameCategoryLabel");
 		hashEvidenceID = config.getBoolean("hashEvidenceID");
 		sourceConfigurationFile = null;
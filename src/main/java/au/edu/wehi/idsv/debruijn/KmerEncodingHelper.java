@@ -7,6 +7,7 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.IntToLongFunction;
 
 
 public class KmerEncodingHelper {
@@ -319,14 +320,21 @@ public class KmerEncodingHelper {
 	 * @return
 	 */
 	public static int[] baseCounts(int k, LongArrayList path) {
+		return baseCounts(k, path::getLong, path.size());
+	}
+	/**
+	 * @param path kmer at each offset of the path
+	 * @param length number of kmers in the path
+	 */
+	public static int[] baseCounts(int k, IntToLongFunction path, int length) {
 		int[] counts = new int[4];
-		long startKmer = path.getLong(0);
+		long startKmer = path.applyAsLong(0);
 		for (int i = 0; i < k; i++) {
 			counts[(int)startKmer & 3]++;
 			startKmer >>>= 2;
 		}
-		for (int i = 1; i < path.size(); i++) {
-			counts[(int)path.getLong(i) & 3]++;
+		for (int i = 1; i < length; i++) {
+			counts[(int)path.applyAsLong(i) & 3]++;
 		}
 		return counts;
 	}
@@ -344,27 +352,35 @@ public class KmerEncodingHelper {
 	 * @return number of bases different
 	 */
 	public static int partialSequenceBasesDifferent(int k, LongArrayList ref, LongArrayList kmers, int offset, boolean startAnchored) {
+		return partialSequenceBasesDifferent(k, ref, kmers::getLong, kmers.size(), offset, startAnchored);
+	}
+	/**
+	 * @param kmers kmer at each offset of the sequence to compare
+	 * @param kmerCount number of kmers in the sequence to compare
+	 * @see #partialSequenceBasesDifferent(int, LongArrayList, LongArrayList, int, boolean)
+	 */
+	public static int partialSequenceBasesDifferent(int k, LongArrayList ref, IntToLongFunction kmers, int kmerCount, int offset, boolean startAnchored) {
 		int basesDiff = 0;
 		if (startAnchored) {
 			if (offset == 0) {
 				// anchored at end
-				basesDiff = KmerEncodingHelper.basesDifference(k, ref.getLong(0), kmers.getLong(0));
+				basesDiff = KmerEncodingHelper.basesDifference(k, ref.getLong(0), kmers.applyAsLong(0));
 			}
-			int loopEnd = Math.min(kmers.size(), ref.size() - offset);
+			int loopEnd = Math.min(kmerCount, ref.size() - offset);
 			for (int i = offset == 0 ? 1 : 0; i < loopEnd; i++) {
-				if (!KmerEncodingHelper.lastBaseMatches(k, ref.getLong(offset + i),  kmers.getLong(i))) {
+				if (!KmerEncodingHelper.lastBaseMatches(k, ref.getLong(offset + i),  kmers.applyAsLong(i))) {
 					basesDiff++;
 				}
 			}
 		} else {
-			int loopEnd = kmers.size();
-			if (offset + kmers.size() == ref.size()) {
+			int loopEnd = kmerCount;
+			if (offset + kmerCount == ref.size()) {
 				// anchored at end
-				basesDiff = KmerEncodingHelper.basesDifference(k, ref.getLong(ref.size() - 1), kmers.getLong(kmers.size() - 1));
+				basesDiff = KmerEncodingHelper.basesDifference(k, ref.getLong(ref.size() - 1), kmers.applyAsLong(kmerCount - 1));
 				loopEnd--;
 			}
 			for (int i = Math.max(0, -offset); i < loopEnd; i++) {
-				if (!KmerEncodingHelper.firstBaseMatches(k, ref.getLong(offset + i),  kmers.getLong(i))) {
+				if (!KmerEncodingHelper.firstBaseMatches(k, ref.getLong(offset + i),  kmers.applyAsLong(i))) {
 					basesDiff++;
 				}
 			}
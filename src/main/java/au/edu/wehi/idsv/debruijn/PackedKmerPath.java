@@ -0,0 +1,239 @@
+package au.edu.wehi.idsv.debruijn;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.util.Arrays;
+
+/**
+ * List of kmers along a de Bruijn graph path stored in 2-bit format.
+ *
+ * Only the final base of each kmer is stored. Kmers that are not the successor
+ * of the preceding kmer are stored in full as anchor kmers so any sequence
+ * of kmers can be represented, with the kmer size only determining how well
+ * the path is compressed. The first kmer is always an anchor kmer.
+ */
+public class PackedKmerPath {
+	private static final int BITS_PER_BASE = 2;
+	private static final int BASES_PER_WORD = Long.SIZE / BITS_PER_BASE;
+	private static final int ARRAY_SHIFT = Long.SIZE - 1 - Long.numberOfLeadingZeros(BASES_PER_WORD);
+	private static final int ARRAY_OFFSET_MASK = (1 << ARRAY_SHIFT) - 1;
+	private static final long BASE_MASK = (1 << BITS_PER_BASE) - 1;
+	/**
+	 * kmer size used for compression. 0 indicates all kmers are stored as anchors
+	 */
+	private final byte k;
+	private final long kmerMask;
+	private int size;
+	/**
+	 * Final base of each kmer, packed MSB first
+	 */
+	private long[] packed;
+	private long firstKmer;
+	private long lastKmer;
+	/**
+	 * Offsets of anchor kmers after the first kmer in ascending order
+	 */
+	private IntArrayList anchorOffsets = null;
+	private LongArrayList anchorKmers = null;
+	/**
+	 * Creates a new path
+	 * @param k kmer size. Paths of kmers of a different size are supported but do not compress.
+	 * Use 0 if the kmer size is not known.
+	 * @param kmer initial kmer
+	 */
+	public PackedKmerPath(int k, long kmer) {
+		if (k < 0 || k > KmerEncodingHelper.MAX_K) throw new IllegalArgumentException("Invalid kmer size");
+		this.k = (byte)k;
+		this.kmerMask = k == KmerEncodingHelper.MAX_K ? -1L : (1L << (BITS_PER_BASE * k)) - 1;
+		this.packed = new long[1];
+		this.size = 1;
+		this.firstKmer = kmer;
+		this.lastKmer = kmer;
+		setBase(0, kmer);
+	}
+	/**
+	 * Copies the given path
+	 */
+	public PackedKmerPath(PackedKmerPath path) {
+		this.k = path.k;
+		this.kmerMask = path.kmerMask;
+		this.size = path.size;
+		this.packed = Arrays.copyOf(path.packed, wordCount(path.size));
+		this.firstKmer = path.firstKmer;
+		this.lastKmer = path.lastKmer;
+		if (path.anchorOffsets != null) {
+			this.anchorOffsets = new IntArrayList(path.anchorOffsets);
+			this.anchorKmers = new LongArrayList(path.anchorKmers);
+		}
+	}
+	/**
+	 * Copies the given subpath
+	 * @param path path to copy
+	 * @param offset offset of first kmer to copy
+	 * @param length number of kmers to copy
+	 */
+	public PackedKmerPath(PackedKmerPath path, int offset, int length) {
+		this(path.k, path.get(offset));
+		for (int i = 1; i < length; i++) {
+			add(path.get(offset + i));
+		}
+	}
+	private static int wordCount(int bases) {
+		return (bases + BASES_PER_WORD - 1) >> ARRAY_SHIFT;
+	}
+	private void setBase(int offset, long kmer) {
+		int wordIndex = offset >> ARRAY_SHIFT;
+		int shift = BITS_PER_BASE * (BASES_PER_WORD - 1 - (offset & ARRAY_OFFSET_MASK));
+		long word = packed[wordIndex];
+		word &= ~(BASE_MASK << shift);
+		word |= (kmer & BASE_MASK) << shift;
+		packed[wordIndex] = word;
+	}
+	/**
+	 * Gets the given number of bases packed into the LSBs of the result
+	 */
+	private long getBases(int offset, int length) {
+		int wordIndex = offset >> ARRAY_SHIFT;
+		int wordOffset = offset & ARRAY_OFFSET_MASK;
+		long bases = packed[wordIndex] << (BITS_PER_BASE * wordOffset);
+		if (wordOffset + length > BASES_PER_WORD) {
+			bases |= packed[wordIndex + 1] >>> (BITS_PER_BASE * (BASES_PER_WORD - wordOffset));
+		}
+		return bases >>> (BITS_PER_BASE * (BASES_PER_WORD - length));
+	}
+	public int size() {
+		return size;
+	}
+	public int kmerSize() {
+		return k;
+	}
+	public long firstKmer() {
+		return firstKmer;
+	}
+	public long lastKmer() {
+		return lastKmer;
+	}
+	public long get(int offset) {
+		if (offset < 0 || offset >= size) throw new IndexOutOfBoundsException();
+		if (offset == size - 1) return lastKmer;
+		int anchorOffset = 0;
+		long anchorKmer = firstKmer;
+		if (anchorOffsets != null) {
+			int index = Arrays.binarySearch(anchorOffsets.elements(), 0, anchorOffsets.size(), offset);
+			if (index < 0) {
+				index = -index - 2;
+			}
+			if (index >= 0) {
+				anchorOffset = anchorOffsets.getInt(index);
+				anchorKmer = anchorKmers.getLong(index);
+			}
+		}
+		int basesAfterAnchor = offset - anchorOffset;
+		if (basesAfterAnchor == 0) return anchorKmer;
+		if (basesAfterAnchor >= k - 1) {
+			// kmer is fully defined by our packed bases
+			return getBases(offset - k + 1, k);
+		}
+		return ((anchorKmer << (BITS_PER_BASE * basesAfterAnchor)) | getBases(anchorOffset + 1, basesAfterAnchor)) & kmerMask;
+	}
+	private boolean isSuccessor(long prev, long kmer) {
+		return k > 0 && (((prev << BITS_PER_BASE) | (kmer & BASE_MASK)) & kmerMask) == kmer;
+	}
+	/**
+	 * Adds the given kmer to the end of the path
+	 */
+	public void add(long kmer) {
+		if (!isSuccessor(lastKmer, kmer)) {
+			if (anchorOffsets == null) {
+				anchorOffsets = new IntArrayList(2);
+				anchorKmers = new LongArrayList(2);
+			}
+			anchorOffsets.add(size);
+			anchorKmers.add(kmer);
+		}
+		if (wordCount(size + 1) > packed.length) {
+			packed = Arrays.copyOf(packed, Math.max(packed.length * 2, wordCount(size + 1)));
+		}
+		setBase(size, kmer);
+		size++;
+		lastKmer = kmer;
+	}
+	/**
+	 * Adds all kmers in the given path to the end of this path
+	 */
+	public void addAll(PackedKmerPath path) {
+		for (int i = 0; i < path.size; i++) {
+			add(path.get(i));
+		}
+	}
+	/**
+	 * Removes all kmers from the given offset onwards
+	 * @param length new path length
+	 */
+	public void truncate(int length) {
+		if (length <= 0 || length > size) throw new IndexOutOfBoundsException();
+		if (length == size) return;
+		lastKmer = get(length - 1);
+		size = length;
+		if (anchorOffsets != null) {
+			while (!anchorOffsets.isEmpty() && anchorOffsets.getInt(anchorOffsets.size() - 1) >= length) {
+				anchorOffsets.removeInt(anchorOffsets.size() - 1);
+				anchorKmers.removeLong(anchorKmers.size() - 1);
+			}
+			if (anchorOffsets.isEmpty()) {
+				anchorOffsets = null;
+				anchorKmers = null;
+			}
+		}
+		if (packed.length > wordCount(size)) {
+			packed = Arrays.copyOf(packed, wordCount(size));
+		}
+	}
+	/**
+	 * Removes the first kmer from the path
+	 */
+	public void removeFirst() {
+		if (size <= 1) throw new IllegalStateException("Cannot remove only kmer in path");
+		PackedKmerPath sub = new PackedKmerPath(this, 1, size - 1);
+		this.size = sub.size;
+		this.packed = sub.packed;
+		this.firstKmer = sub.firstKmer;
+		this.lastKmer = sub.lastKmer;
+		this.anchorOffsets = sub.anchorOffsets;
+		this.anchorKmers = sub.anchorKmers;
+	}
+	/**
+	 * Returns the kmers in this path as an unpacked list
+	 */
+	public LongArrayList toLongArrayList() {
+		long[] kmers = new long[size];
+		for (int i = 0; i < size; i++) {
+			kmers[i] = get(i);
+		}
+		return LongArrayList.wrap(kmers);
+	}
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i = 0; i < size; i++) {
+			result = 31 * result + Long.hashCode(get(i));
+		}
+		return result;
+	}
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof PackedKmerPath)) return false;
+		PackedKmerPath other = (PackedKmerPath)obj;
+		if (size != other.size || firstKmer != other.firstKmer || lastKmer != other.lastKmer) return false;
+		for (int i = 1; i < size - 1; i++) {
+			if (get(i) != other.get(i)) return false;
+		}
+		return true;
+	}
+	@Override
+	public String toString() {
+		return toLongArrayList().toString();
+	}
+}
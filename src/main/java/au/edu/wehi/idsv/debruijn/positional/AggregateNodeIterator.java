@@ -10,6 +10,7 @@ import com.google.common.collect.PeekingIterator;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
 
 import java.util.Iterator;
 import java.util.PriorityQueue;
@@ -23,6 +24,10 @@ import java.util.Queue;
  */
 public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 	private final PeekingIterator<? extends KmerNode> underlying;
+	/**
+	 * Support source consumed without allocating a KmerNode per kmer. Used in place of underlying when not null.
+	 */
+	private final SupportNodeIterator support;
 	private Queue<ImmutableKmerNode> outputSortBuffer = Defaults.USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES ? new KmerNodeByFirstStartPriorityQueue<>(16) : new PriorityQueue<ImmutableKmerNode>(1024, KmerNodeUtil.ByFirstStart);
 	private Long2ObjectOpenHashMap<KmerNodeAggregator> byKmer = new Long2ObjectOpenHashMap<KmerNodeAggregator>();
 	private Queue<KmerNodeAggregatorSnapshot> byEnd = Defaults.USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES ? new KmerNodeAggregatorSnapshotByEndPriorityQueue(16) : new PriorityQueue<KmerNodeAggregatorSnapshot>(1024, BySnapshotEnd);
@@ -31,6 +36,17 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 	private long consumed = 0;
 	public AggregateNodeIterator(Iterator<? extends KmerNode> it) {
 		this.underlying = Iterators.peekingIterator(it);
+		this.support = null;
+	}
+	public AggregateNodeIterator(SupportNodeIterator it) {
+		this.underlying = null;
+		this.support = it;
+	}
+	private boolean underlyingHasNext() {
+		return support != null ? support.hasNext() : underlying.hasNext();
+	}
+	private int underlyingPeekFirstStart() {
+		return support != null ? support.peekFirstStart() : underlying.peek().firstStart();
 	}
 	@Override
 	public boolean hasNext() {
@@ -50,12 +66,12 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 	private void ensureBuffer() {
 		// we can emit whenever there are no unprocessed or incomplete intervals
 		// before our current interval
-		while (underlying.hasNext() && (outputSortBuffer.isEmpty() || outputSortBuffer.peek().firstStart() >= earliestPossibleStartOfNodeBeingAggregated())) {
-			inputPosition = underlying.peek().firstStart(); 
+		while (underlyingHasNext() && (outputSortBuffer.isEmpty() || outputSortBuffer.peek().firstStart() >= earliestPossibleStartOfNodeBeingAggregated())) {
+			inputPosition = underlyingPeekFirstStart();
 			process();
 			flush();
 		}
-		if (!underlying.hasNext()) {
+		if (!underlyingHasNext()) {
 			// flush everything
 			inputPosition = Integer.MAX_VALUE;
 			flush();
@@ -68,17 +84,35 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		return inputPosition - maxWidth;
 	}
 	private void process() {
-		while (underlying.hasNext() && underlying.peek().firstStart() <= inputPosition) {
-			KmerNode n = underlying.next();
+		while (underlyingHasNext() && underlyingPeekFirstStart() <= inputPosition) {
+			long kmer;
+			int start;
+			int end;
+			int weight;
+			boolean reference;
+			if (support != null) {
+				support.nextSupport();
+				kmer = support.supportKmer();
+				start = support.supportStart();
+				end = support.supportEnd();
+				weight = support.supportWeight();
+				reference = support.supportIsReference();
+			} else {
+				KmerNode n = underlying.next();
+				kmer = n.firstKmer();
+				start = n.firstStart();
+				end = n.firstEnd();
+				weight = n.weight();
+				reference = n.isReference();
+			}
 			consumed++;
-			assert(n.firstStart() == inputPosition || inputPosition == Integer.MAX_VALUE); // input should be sorted by start position
-			long kmer = n.firstKmer();
+			assert(start == inputPosition || inputPosition == Integer.MAX_VALUE); // input should be sorted by start position
 			KmerNodeAggregator ag = byKmer.get(kmer);
 			if (ag == null) {
 				ag = new KmerNodeAggregator(kmer);
 				byKmer.put(kmer, ag);
 			}
-			ag.add(n);
+			ag.add(start, end, weight, reference);
 			byEnd.add(ag.new KmerNodeAggregatorSnapshot());
 		}
 	}
@@ -100,6 +134,15 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 			}
 		}
 	}
+	private static int activeEnd(long packed) {
+		return (int)(packed >> 32);
+	}
+	private static int activeWeight(long packed) {
+		return (int)((packed & 0xFFFFFFFFL) >>> 1);
+	}
+	private static boolean activeIsReference(long packed) {
+		return (packed & 1) != 0;
+	}
 	private static final Ordering<KmerNodeAggregatorSnapshot> BySnapshotEnd = new Ordering<KmerNodeAggregatorSnapshot>() {
 		@Override
 		public int compare(KmerNodeAggregatorSnapshot left, KmerNodeAggregatorSnapshot right) {
@@ -133,9 +176,10 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		}
 		public boolean isEmpty() { return active.isEmpty(); }
 		/**
-		 * KmerNodes in the currently active aggregation interval
+		 * End position, weight and reference flag of the KmerNodes in the currently active aggregation interval
+		 * packed into a long so nodes are ordered by end position
 		 */
-		private PriorityQueue<KmerNode> active = new PriorityQueue<KmerNode>(8, KmerNodeUtil.ByLastEnd);
+		private LongHeapPriorityQueue active = new LongHeapPriorityQueue(8);
 		/**
 		 * Start position of currently active aggregation interval
 		 */
@@ -156,36 +200,39 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		private final long kmer;
 		public int end() {
 			if (active.isEmpty()) return Integer.MAX_VALUE;
-			return active.peek().firstEnd();
+			return activeEnd(active.firstLong());
 		}
 		public void add(KmerNode node) {
 			assert(node.firstKmer() == kmer);
-			assert(node.firstStart() >= start);
-			maxWidth = Math.max(maxWidth, node.width());
-			advanceTo(node.firstStart() - 1);
-			if (weight > 0 && start < node.firstStart()) {
-				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, node.firstStart() - 1, referenceCount > 0, weight));
+			add(node.firstStart(), node.firstEnd(), node.weight(), node.isReference());
+		}
+		public void add(int nodeStart, int nodeEnd, int nodeWeight, boolean nodeIsReference) {
+			assert(nodeStart >= start);
+			assert(nodeWeight >= 0);
+			maxWidth = Math.max(maxWidth, nodeEnd - nodeStart + 1);
+			advanceTo(nodeStart - 1);
+			if (weight > 0 && start < nodeStart) {
+				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, nodeStart - 1, referenceCount > 0, weight));
 			}
-			start = node.firstStart();
-			if (node.isReference()) {
+			start = nodeStart;
+			if (nodeIsReference) {
 				referenceCount++;
 			}
-			weight += node.weight();
-			active.add(node);
+			weight += nodeWeight;
+			active.enqueue(((long)nodeEnd << 32) | ((long)nodeWeight << 1) | (nodeIsReference ? 1 : 0));
 		}
 		/**
 		 * Process up to and including the given position
 		 * @param position final processing position
 		 */
 		public void advanceTo(int position) {
-			while (!active.isEmpty() && active.peek().firstEnd() <= position) {
-				int end = active.peek().firstEnd();
+			while (!active.isEmpty() && activeEnd(active.firstLong()) <= position) {
+				int end = activeEnd(active.firstLong());
 				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, end, referenceCount > 0, weight));
-				while (!active.isEmpty() && active.peek().firstEnd() == end) {
-					KmerNode endingHere = active.poll();
-					assert(endingHere.firstKmer() == kmer);
-					weight -= endingHere.weight();
-					if (endingHere.isReference()) {
+				while (!active.isEmpty() && activeEnd(active.firstLong()) == end) {
+					long endingHere = active.dequeueLong();
+					weight -= activeWeight(endingHere);
+					if (activeIsReference(endingHere)) {
 						referenceCount--;
 					}
 				}
@@ -213,7 +260,7 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		if (outputSortBuffer.isEmpty()) {
 			assert(byKmer.isEmpty());
 			assert(byEnd.isEmpty());
-			assert(!underlying.hasNext());
+			assert(!underlyingHasNext());
 		}	
 		return true;
 	}
@@ -3,10 +3,12 @@ package au.edu.wehi.idsv.debruijn.positional;
 import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.util.IntervalUtil;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
 import java.util.*;
@@ -20,30 +22,124 @@ import java.util.*;
  */
 public class EvidenceTracker {
 	//public static EvidenceTracker TEMP_HACK_CURRENT_TRACKER = null;
-	private final Long2ObjectOpenHashMap<LinkedList<KmerSupportNode>> lookup = new Long2ObjectOpenHashMap<LinkedList<KmerSupportNode>>();
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int NONE = -1;
+	/**
+	 * First support node for each kmer. Support nodes for the same kmer are linked through nodeNext
+	 */
+	private final Long2IntOpenHashMap kmerHead = new Long2IntOpenHashMap();
+	// Support nodes are stored as parallel arrays indexed by node
+	private int[] nodeNext = new int[INITIAL_CAPACITY];
+	private int[] nodeStart = new int[INITIAL_CAPACITY];
+	private int[] nodeEnd = new int[INITIAL_CAPACITY];
+	private int[] nodeWeight = new int[INITIAL_CAPACITY];
+	private int[] nodeEvidence = new int[INITIAL_CAPACITY];
+	private int nodeSlotsUsed = 0;
+	private int freeNode = NONE;
+	private int nodeCount = 0;
+	/**
+	 * Tracked evidence by evidence index
+	 */
+	private final ObjectArrayList<KmerEvidence> evidenceLookup = new ObjectArrayList<>();
+	private final Object2IntOpenHashMap<KmerEvidence> evidenceIndex = new Object2IntOpenHashMap<>();
+	private final IntArrayList freeEvidenceIndex = new IntArrayList();
+	private final BitSet evidenceBeingRemoved = new BitSet();
+	private KmerEvidence lastTrackedEvidence = null;
+	private int lastTrackedEvidenceIndex = NONE;
 	private final ObjectOpenHashSet<String> id = new ObjectOpenHashSet<String>();
 	private long evidenceTotal = 0;
 	/**
 	 * Tracks evidence emitted from the given iterator
 	 */
 	public EvidenceTracker() {
+		kmerHead.defaultReturnValue(NONE);
+		evidenceIndex.defaultReturnValue(NONE);
 	}
 	/**
 	 * Tracks the given evidence
 	 * @param support
 	 */
 	public KmerSupportNode track(KmerSupportNode support) {
-		long kmer = support.lastKmer();
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list == null) {
-			list = new LinkedList<KmerSupportNode>();
-			lookup.put(kmer, list);
+		track(support.evidence(), support.offset());
+		return support;
+	}
+	/**
+	 * Tracks the support provided by the kmer at the given offset of the given evidence
+	 * @param evidence evidence
+	 * @param offset kmer offset
+	 */
+	public void track(KmerEvidence evidence, int offset) {
+		int evidenceIndex = getOrCreateEvidenceIndex(evidence);
+		int node = allocateNode();
+		long kmer = evidence.kmer(offset);
+		nodeStart[node] = evidence.startPosition() + offset;
+		nodeEnd[node] = evidence.endPosition() + offset;
+		nodeWeight[node] = evidence.weight(offset);
+		nodeEvidence[node] = evidenceIndex;
+		nodeNext[node] = kmerHead.put(kmer, node);
+		nodeCount++;
+	}
+	private int getOrCreateEvidenceIndex(KmerEvidence evidence) {
+		// support is typically tracked an evidence at a time
+		if (lastTrackedEvidence == evidence && evidenceLookup.get(lastTrackedEvidenceIndex) == evidence) {
+			return lastTrackedEvidenceIndex;
 		}
-		list.add(support);
-		if (id.add(support.evidence().evidence().getEvidenceID())) {
-			evidenceTotal++;
+		int index = evidenceIndex.getInt(evidence);
+		if (index == NONE) {
+			if (freeEvidenceIndex.isEmpty()) {
+				index = evidenceLookup.size();
+				evidenceLookup.add(evidence);
+			} else {
+				index = freeEvidenceIndex.popInt();
+				evidenceLookup.set(index, evidence);
+			}
+			evidenceIndex.put(evidence, index);
+			if (id.add(evidence.evidence().getEvidenceID())) {
+				evidenceTotal++;
+			}
 		}
-		return support;
+		lastTrackedEvidence = evidence;
+		lastTrackedEvidenceIndex = index;
+		return index;
+	}
+	private int allocateNode() {
+		if (freeNode != NONE) {
+			int node = freeNode;
+			freeNode = nodeNext[node];
+			return node;
+		}
+		if (nodeSlotsUsed == nodeNext.length) {
+			int capacity = nodeNext.length * 2;
+			nodeNext = Arrays.copyOf(nodeNext, capacity);
+			nodeStart = Arrays.copyOf(nodeStart, capacity);
+			nodeEnd = Arrays.copyOf(nodeEnd, capacity);
+			nodeWeight = Arrays.copyOf(nodeWeight, capacity);
+			nodeEvidence = Arrays.copyOf(nodeEvidence, capacity);
+		}
+		return nodeSlotsUsed++;
+	}
+	/**
+	 * Unlinks the given node from the kmer list
+	 * @param kmer node kmer
+	 * @param prev previous node in the kmer list
+	 * @param node node to remove
+	 * @return next node in the kmer list
+	 */
+	private int removeNode(long kmer, int prev, int node) {
+		int next = nodeNext[node];
+		if (prev == NONE) {
+			if (next == NONE) {
+				kmerHead.remove(kmer);
+			} else {
+				kmerHead.put(kmer, next);
+			}
+		} else {
+			nodeNext[prev] = next;
+		}
+		nodeNext[node] = freeNode;
+		freeNode = node;
+		nodeCount--;
+		return next;
 	}
 	/**
 	 * Stops tracking all nodes associated with all of the given evidence
@@ -51,33 +147,42 @@ public class EvidenceTracker {
 	 */
 	public void remove(Set<KmerEvidence> evidenceSet) {
 		LongSortedSet kmersInSet = new LongLinkedOpenHashSet();
+		IntArrayList removedIndex = new IntArrayList(evidenceSet.size());
 		for (KmerEvidence evidence : evidenceSet) {
 			for (int i = 0; i < evidence.length(); i++) {
 				long kmer = evidence.kmer(i);
 				kmersInSet.add(kmer);
 			}
 			id.remove(evidence.evidence().getEvidenceID());
+			int index = evidenceIndex.removeInt(evidence);
+			if (index != NONE) {
+				evidenceBeingRemoved.set(index);
+				removedIndex.add(index);
+			}
 		}
 		for (long kmer : kmersInSet) {
-			remove(kmer, evidenceSet);
+			remove(kmer);
+		}
+		for (int i = 0; i < removedIndex.size(); i++) {
+			int index = removedIndex.getInt(i);
+			evidenceBeingRemoved.clear(index);
+			evidenceLookup.set(index, null);
+			freeEvidenceIndex.add(index);
 		}
 	}
 	/**
-	 * Stops tracking all nodes associated with the given evidence 
-	 * @param evidence
+	 * Stops tracking all nodes for the given kmer associated with evidence being removed
+	 * @param kmer
 	 */
-	private void remove(long kmer, Collection<KmerEvidence> evidence) {
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list != null) {
-			ListIterator<KmerSupportNode> it = list.listIterator();
-			while (it.hasNext()) {
-				KmerSupportNode n = it.next();
-				if (evidence.contains(n.evidence())) {
-					it.remove();
-				}
-			}
-			if (list.size() == 0) {
-				lookup.remove(kmer);
+	private void remove(long kmer) {
+		int prev = NONE;
+		int node = kmerHead.get(kmer);
+		while (node != NONE) {
+			if (evidenceBeingRemoved.get(nodeEvidence[node])) {
+				node = removeNode(kmer, prev, node);
+			} else {
+				prev = node;
+				node = nodeNext[node];
 			}
 		}
 	}
@@ -127,19 +232,18 @@ public class EvidenceTracker {
 	 * @param end
 	 */
 	private void toCollection(Collection<KmerEvidence> collection, long kmer, int start, int end, boolean remove) {
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list != null) {
-			ListIterator<KmerSupportNode> it = list.listIterator();
-			while (it.hasNext()) {
-				KmerSupportNode n = it.next();
-				if (IntervalUtil.overlapsClosed(start, end, n.lastStart(), n.lastEnd())) {
-					if (remove) {
-						it.remove();
-					}
-					KmerEvidence e = n.evidence();
-					collection.add(e);
+		int prev = NONE;
+		int node = kmerHead.get(kmer);
+		while (node != NONE) {
+			if (IntervalUtil.overlapsClosed(start, end, nodeStart[node], nodeEnd[node])) {
+				collection.add(evidenceLookup.get(nodeEvidence[node]));
+				if (remove) {
+					node = removeNode(kmer, prev, node);
+					continue;
 				}
 			}
+			prev = node;
+			node = nodeNext[node];
 		}
 	}
 	public boolean matchesExpected(KmerPathSubnode pn) {
@@ -160,11 +264,8 @@ public class EvidenceTracker {
 	public boolean matchesExpected(int expectedWidthWeight, LongArrayList kmers, int start, int end) {
 		int evidenceWeight = 0;
 		for (long kmer : kmers) {
-			LinkedList<KmerSupportNode> list = lookup.get(kmer);
-			if (list != null) {
-				for (KmerSupportNode n : list) {
-					evidenceWeight += n.weight() * IntervalUtil.overlapsWidthClosed(start, end, n.lastStart(), n.lastEnd());
-				}
+			for (int node = kmerHead.get(kmer); node != NONE; node = nodeNext[node]) {
+				evidenceWeight += nodeWeight[node] * IntervalUtil.overlapsWidthClosed(start, end, nodeStart[node], nodeEnd[node]);
 			}
 		}
 		assert(evidenceWeight == expectedWidthWeight);
@@ -213,9 +314,9 @@ public class EvidenceTracker {
 	}
 	public Set<KmerEvidence> getTrackedEvidence() {
 		HashSet<KmerEvidence> set = new HashSet<>();
-		for (LinkedList<KmerSupportNode> ll : lookup.values()) {
-			for (KmerSupportNode ksn : ll) {
-				set.add(ksn.evidence());
+		for (KmerEvidence e : evidenceLookup) {
+			if (e != null) {
+				set.add(e);
 			}
 		}
 		return set;
@@ -227,12 +328,20 @@ public class EvidenceTracker {
 		return id.size();
 	}
 	public int tracking_kmerCount() {
-		return lookup.size();
+		return kmerHead.size();
 	}
 	public int tracking_supportNodeCount() {
-		return lookup.values().stream().mapToInt(x -> x.size()).sum();
+		return nodeCount;
 	}
 	public int tracking_maxKmerSupportNodesCount() {
-		return lookup.values().stream().mapToInt(x -> x.size()).max().orElse(0);
+		int max = 0;
+		for (int head : kmerHead.values()) {
+			int count = 0;
+			for (int node = head; node != NONE; node = nodeNext[node]) {
+				count++;
+			}
+			max = Math.max(max, count);
+		}
+		return max;
 	}
 }
@@ -12,12 +12,10 @@ import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.Log;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.NotImplementedException;
-import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
@@ -44,11 +42,17 @@ public class KmerEvidence extends PackedKmerList {
 	private final int end;
 	private final float score;
 	public KmerSupportNode node(int offset) {
-		if (ambiguous != null && ambiguous.get(offset)) {
+		if (isAmbiguous(offset)) {
 			return null;
 		}
 		return new KmerSupportNode(this, offset);
 	}
+	/**
+	 * Determines whether the kmer at the given offset should be excluded from the graph
+	 */
+	public boolean isAmbiguous(int offset) {
+		return ambiguous != null && ambiguous.get(offset);
+	}
 	public float evidenceQuality() { return score; }
 	public DirectedEvidence evidence() { return evidence; }
 	/**
@@ -113,58 +117,51 @@ public class KmerEvidence extends PackedKmerList {
 	 * in the presence of low complexity sequence.  
 	 */
 	private BitSet flagSelfIntersectingKmersAsAmbiguous(BitSet toFlag) {
-		// populate lookups
-		Long2ObjectOpenHashMap<List<KmerSupportNode>> lookup = new Long2ObjectOpenHashMap<List<KmerSupportNode>>();
-		KmerSupportNode[] nodes = new KmerSupportNode[length()];
-		for (int i = 0; i < length(); i++) {
-			KmerSupportNode n = node(i);
-			nodes[i] = n;
-			if (n != null) {
-				long kmer = n.firstKmer();
-				List<KmerSupportNode> kmerList = lookup.get(kmer);
-				if (kmerList == null) {
-					kmerList = new ArrayList<>(2);
-					lookup.put(kmer, kmerList);
-				}
-				kmerList.add(n);
+		// sort the unambiguous kmer offsets by kmer so adjacent kmers can be found by binary search
+		int n = length();
+		long[] kmers = new long[n];
+		int[] byKmer = new int[n];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			kmers[i] = kmer(i);
+			if (!isAmbiguous(i)) {
+				byKmer[count++] = i;
 			}
 		}
-		// calculcate adjacencies
-		List<Pair<Integer, Integer>> unexpectedAdjacencies = new ArrayList<>();
-		for (int i = 0; i < length(); i++) {
-			KmerSupportNode n = nodes[i];
-			if (n != null) {
-				long currentkmer = n.firstKmer();
-				for (long kmer : KmerEncodingHelper.nextStates(k, currentkmer)) {
-					List<KmerSupportNode> kmerList = lookup.get(kmer);
-					if (kmerList != null) {
-						for (KmerSupportNode adj : kmerList) {
-							// we only need to track unexpected adjacencies
-							// we already know that it is adjacent to its successor
-							if (adj.offset() != n.offset() + 1) {  
-								if (IntervalUtil.overlapsClosed(n.firstStart() + 1, n.firstEnd() + 1, adj.firstStart(), adj.firstEnd())) {
-									unexpectedAdjacencies.add(Pair.of(n.offset(), adj.offset()));
-								}
+		IntArrays.quickSort(byKmer, 0, count, (a, b) -> Long.compare(kmers[a], kmers[b]));
+		long[] sortedKmers = new long[count];
+		for (int i = 0; i < count; i++) {
+			sortedKmers[i] = kmers[byKmer[i]];
+		}
+		// flag the nodes furtherest into the breakpoint as this
+		// favours breakpoint truncation over split assemblies
+		boolean flagLater = evidence.getBreakendSummary().direction == BreakendDirection.Forward;
+		int width = end - start;
+		for (int i = 0; i < count; i++) {
+			int offset = byKmer[i];
+			long nextBase = (kmers[offset] << 2) & (k == KmerEncodingHelper.MAX_K ? -1L : (1L << (2 * k)) - 1);
+			for (int base = 0; base < 4; base++) {
+				long kmer = nextBase | base;
+				int index = Arrays.binarySearch(sortedKmers, kmer);
+				if (index < 0) continue;
+				while (index > 0 && sortedKmers[index - 1] == kmer) {
+					index--;
+				}
+				for (; index < count && sortedKmers[index] == kmer; index++) {
+					int adjOffset = byKmer[index];
+					// we only need to track unexpected adjacencies
+					// we already know that it is adjacent to its successor
+					if (adjOffset != offset + 1) {
+						if (IntervalUtil.overlapsClosed(start + offset + 1, start + offset + 1 + width, start + adjOffset, start + adjOffset + width)) {
+							if (toFlag == null) {
+								toFlag = new BitSet(n);
 							}
+							toFlag.set(flagLater ? Math.max(offset, adjOffset) : Math.min(offset, adjOffset));
 						}
 					}
 				}
 			}
 		}
-		// flag the nodes furtherest into the breakpoint as this
-		// favours breakpoint truncation over split assemblies
-		if (unexpectedAdjacencies.size() > 0 && toFlag == null) {
-			toFlag = new BitSet(length());  
-		}
-		if (evidence.getBreakendSummary().direction == BreakendDirection.Forward) {
-			for (Pair<Integer, Integer> pair : unexpectedAdjacencies) {
-				toFlag.set(Math.max(pair.getLeft(), pair.getRight()));
-			}
-		} else {
-			for (Pair<Integer, Integer> pair : unexpectedAdjacencies) {
-				toFlag.set(Math.min(pair.getLeft(), pair.getRight()));
-			}
-		}
 		return toFlag;
 	}
 	public static KmerEvidence create(int k, NonReferenceReadPair pair) {
@@ -3,6 +3,7 @@ package au.edu.wehi.idsv.debruijn.positional;
 import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.debruijn.DeBruijnSequenceGraphNode;
 import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
+import au.edu.wehi.idsv.debruijn.PackedKmerPath;
 import au.edu.wehi.idsv.util.CollectionUtil;
 import au.edu.wehi.idsv.util.IntervalUtil;
 import com.google.common.collect.ImmutableList;
@@ -29,7 +30,7 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 	private static final List<KmerPathNode> EMPTY_EDGE_LIST = ImmutableList.of();
 	private static final Ordering<KmerNode> NEXT_SORT_ORDER = KmerNodeUtil.ByFirstStart;
 	private static final Ordering<KmerNode> PREV_SORT_ORDER = KmerNodeUtil.ByLastStart;
-	private LongArrayList kmers; // FIXME: replace with 2-bit encoding of kmer sequence
+	private PackedKmerPath kmers;
 	private LongArrayList additionalKmers = null;
 	private IntArrayList additionalKmerOffsets = null;
 	private IntArrayList weight;
@@ -46,8 +47,8 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 	/**
 	 * Final kmer in path graph
 	 */
-	public long lastKmer() { return kmer(length() - 1); }
-	public long firstKmer() { return kmer(0); }
+	public long lastKmer() { return kmers.lastKmer(); }
+	public long firstKmer() { return kmers.firstKmer(); }
 	/**
 	 * First possible position of final kmer
 	 */
@@ -58,11 +59,18 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 	public int lastEnd() { return endPosition(length() - 1); }
 	public int firstStart() { return start; }
 	public int firstEnd() { return end; }
-	public long kmer(int offset) { return kmers.getLong(offset); }
+	public long kmer(int offset) { return kmers.get(offset); }
 	public int startPosition(int offset) { return start + offset; }
 	public int endPosition(int offset) { return end + offset; }
 	public int weight() { return totalWeight; }
-	public LongArrayList pathKmers() { return kmers; }
+	/**
+	 * Kmers along this path.
+	 * 
+	 * Note: kmers are stored in packed form and the returned list is a copy.
+	 * Use {@link #kmer(int)} to access individual kmers without copying.
+	 * @return kmers of this path
+	 */
+	public LongArrayList pathKmers() { return kmers.toLongArrayList(); }
 	public IntArrayList pathWeights() { return weight; }
 	@Override
 	public int weight(int offset) {
@@ -70,6 +78,10 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 	}
 	public boolean isReference() { return reference; }
 	public int length() { return kmers.size(); }
+	/**
+	 * Kmer size used to compress the path kmers. 0 if not known.
+	 */
+	public int kmerSize() { return kmers.kmerSize(); }
 	public int width() { return end - start + 1; }
 	/**
 	 * List of kmers that have been collapsed into this path
@@ -86,8 +98,14 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		return additionalKmerOffsets != null ? additionalKmerOffsets : EMPTY_OFFSET_LIST;
 	}
 	public KmerPathNode(long kmer, int start, int end, boolean reference, int weight) {
-		this.kmers = new LongArrayList(1);
-		this.kmers.add(kmer);
+		this(0, kmer, start, end, reference, weight);
+	}
+	/**
+	 * Creates a new path node
+	 * @param k kmer size used to compress the path. Use 0 if unknown.
+	 */
+	public KmerPathNode(int k, long kmer, int start, int end, boolean reference, int weight) {
+		this.kmers = new PackedKmerPath(k, kmer);
 		this.weight = new IntArrayList(1);
 		this.weight.add(weight);
 		this.totalWeight = weight;
@@ -95,19 +113,22 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		this.end = end;
 		this.reference = reference;
 	}
-	private KmerPathNode(LongArrayList kmer, int start, int end, boolean reference, int totalWeight, IntArrayList weight) {
-		this.kmers = kmer.clone();
+	private KmerPathNode(PackedKmerPath kmer, int start, int end, boolean reference, int totalWeight, IntArrayList weight) {
+		this.kmers = new PackedKmerPath(kmer);
 		this.weight = weight.clone();
 		this.totalWeight = totalWeight;
 		this.start = start;
 		this.end = end;
 		this.reference = reference;
 	}
-	private KmerPathNode(LongArrayList kmer, int start, int end, boolean reference, IntArrayList weight) {
+	private KmerPathNode(PackedKmerPath kmer, int start, int end, boolean reference, IntArrayList weight) {
 		this(kmer, start, end, reference, sumWeights(weight), weight);
 	}
 	public KmerPathNode(KmerNode node) {
-		this(node.lastKmer(), node.lastStart(), node.lastEnd(), node.isReference(), node.weight());
+		this(0, node);
+	}
+	public KmerPathNode(int k, KmerNode node) {
+		this(k, node.lastKmer(), node.lastStart(), node.lastEnd(), node.isReference(), node.weight());
 	}
 	private static int sumWeights(IntArrayList weight) {
 		int sum = 0;
@@ -273,10 +294,10 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 			additionalKmerOffsets.addAll(toMerge.additionalKmerOffsets);
 		}
 		if (additionalKmers == null) {
-			additionalKmers = toMerge.kmers;
+			additionalKmers = toMerge.kmers.toLongArrayList();
 			additionalKmerOffsets = new IntArrayList(toMerge.kmers.size());
 		} else {
-			additionalKmers.addAll(toMerge.kmers);
+			additionalKmers.addAll(toMerge.kmers.toLongArrayList());
 		}
 		for (int i = 0; i < toMerge.length(); i++) {
 			additionalKmerOffsets.add(i);
@@ -514,10 +535,10 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		assert(firstNodeLength > 0);
 		assert(firstNodeLength < length());
 		// copy our new kmers and weights
-		LongArrayList kmerSecond = new LongArrayList(kmers.subList(firstNodeLength, length()));
+		PackedKmerPath kmerSecond = new PackedKmerPath(kmers, firstNodeLength, length() - firstNodeLength);
 		IntArrayList weightSecond = new IntArrayList(weight.subList(firstNodeLength, length()));
 		// let split own our current arrays
-		this.kmers.removeElements(firstNodeLength, this.kmers.size());
+		this.kmers.truncate(firstNodeLength);
 		this.weight.removeElements(firstNodeLength, this.weight.size());
 		KmerPathNode split = new KmerPathNode(
 				this.kmers,
@@ -665,8 +686,8 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		result = prime * result + end;
 		result = prime * result + totalWeight;
 		if (kmers != null) {
-			result = prime * result + Long.hashCode(kmers.getLong(0));
-			result = prime * result + Long.hashCode(kmers.getLong(kmers.size() - 1));
+			result = prime * result + Long.hashCode(kmers.firstKmer());
+			result = prime * result + Long.hashCode(kmers.lastKmer());
 		}
 		// incorporating these adds hash cost whilst giving minimal improvement
 		// to hash collision rate
@@ -759,7 +780,15 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		}
 		totalWeight -= weight.getInt(offset);
 		weight.removeInt(offset);
-		kmers.removeLong(offset);
+		if (length() == 1) {
+			invalidate();
+			return null;
+		}
+		if (offset == 0) {
+			kmers.removeFirst();
+		} else {
+			kmers.truncate(offset);
+		}
 		if (additionalKmers != null) {
 			if (length() > 0) {
 				int offsetShift = offset == 0 ? 1 : 0;
@@ -775,9 +804,6 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 				}
 			}
 		}
-		if (length() == 0) {
-			invalidate();
-		}
 		if (Defaults.SANITY_CHECK_ASSEMBLY_GRAPH) {
 			if (kmers != null) {
 				assert(sanityCheck());
@@ -1073,7 +1099,7 @@ public class KmerPathNode implements KmerNode, DeBruijnSequenceGraphNode {
 		assert(length() <= maxPathLength);
 		assert(end - start <= maxSupportWidth);
 		for (int i = 1; i < length(); i++) {
-			assert(KmerEncodingHelper.isNext(k, kmers.getLong(i - 1), kmers.getLong(i)));
+			assert(KmerEncodingHelper.isNext(k, kmer(i - 1), kmer(i)));
 		}
 		assert(sumWeights(weight) == totalWeight);
 		if (nextList != null) {
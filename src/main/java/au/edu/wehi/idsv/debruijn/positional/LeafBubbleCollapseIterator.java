@@ -184,12 +184,12 @@ public class LeafBubbleCollapseIterator extends CollapseIterator {
 		return node.traversingWouldCauseSelfIntersection(sn.node());
 	}
 	private int partialSequenceBasesDifferent(LongArrayList toCollapsePathKmers, TraversalNode tn, boolean traversalForward) {
-		LongArrayList nodeKmers = tn.node.node().pathKmers();
+		KmerPathNode node = tn.node.node();
 		int basesDifference;
 		if (traversalForward) {
-			basesDifference = KmerEncodingHelper.partialSequenceBasesDifferent(k, toCollapsePathKmers, nodeKmers, tn.pathLength - tn.node.length(), true);
+			basesDifference = KmerEncodingHelper.partialSequenceBasesDifferent(k, toCollapsePathKmers, node::kmer, node.length(), tn.pathLength - tn.node.length(), true);
 		} else {
-			basesDifference = KmerEncodingHelper.partialSequenceBasesDifferent(k, toCollapsePathKmers, nodeKmers, toCollapsePathKmers.size() - tn.pathLength, false);
+			basesDifference = KmerEncodingHelper.partialSequenceBasesDifferent(k, toCollapsePathKmers, node::kmer, node.length(), toCollapsePathKmers.size() - tn.pathLength, false);
 		}
 		return basesDifference;
 	}
@@ -256,7 +256,10 @@ public class LeafBubbleCollapseIterator extends CollapseIterator {
 	private boolean memoizedCollapse(Set<KmerPathNode> collapseNodes, TraversalNode toCollapse, boolean traversalForward, KmerPathNode terminalNode) {
 		LongArrayList toCollapsePathKmers = new LongArrayList(toCollapse.pathLength);
 		for (KmerPathSubnode sn : traversalForward ? toCollapse.toSubnodeNextPath() : toCollapse.toSubnodePrevPath()) {
-			toCollapsePathKmers.addAll(sn.node().pathKmers());
+			KmerPathNode node = sn.node();
+			for (int i = 0; i < node.length(); i++) {
+				toCollapsePathKmers.add(node.kmer(i));
+			}
 		}
 		assert(toCollapsePathKmers.size() == toCollapse.pathLength);
 		if (terminalNode != null) {
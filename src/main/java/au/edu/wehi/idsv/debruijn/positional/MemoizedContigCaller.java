@@ -395,7 +395,7 @@ public class MemoizedContigCaller extends ContigCaller {
 			}
 		}
 	}
-	public boolean sanityCheck(Set<KmerPathNode> loadedGraph) {
+	public boolean sanityCheck(Collection<KmerPathNode> loadedGraph) {
 		for (KmerPathNode node : loadedGraph) {
 			if (!frontier.isMemoized(node)) {
 				try {
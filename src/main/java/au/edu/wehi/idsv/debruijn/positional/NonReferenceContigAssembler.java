@@ -5,6 +5,8 @@ import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.debruijn.DeBruijnGraphBase;
 import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
 import au.edu.wehi.idsv.graph.ScalingHelper;
+import au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures.KmerPathNodeByFirstStartKmerRingBuffer;
+import au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures.KmerPathNodeKmerNodeByKmerLastEndLookup;
 import au.edu.wehi.idsv.model.Models;
 import au.edu.wehi.idsv.util.IntervalUtil;
 import au.edu.wehi.idsv.util.MessageThrottler;
@@ -65,11 +67,9 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 	 * expensive approach overall
 	 */
 	private static final boolean SIMPLIFY_AFTER_REMOVAL = false;
-	// TODO: OPT: don't use ArrayList<>() as child structure
-	// sort by end position so we can do fast overlap calculations
-	private Long2ObjectMap<Collection<KmerPathNodeKmerNode>> graphByKmerNode = new Long2ObjectOpenHashMap<Collection<KmerPathNodeKmerNode>>();
-	private TreeSet<KmerPathNode> graphByPosition = new TreeSet<KmerPathNode>(KmerNodeUtil.ByFirstStartKmer); // TODO: OPT: replace data structure
-	private SortedSet<KmerPathNode> nonReferenceGraphByPosition = new TreeSet<KmerPathNode>(KmerNodeUtil.ByFirstStartKmer); // TODO: OPT: replace data structure
+	private final KmerPathNodeKmerNodeByKmerLastEndLookup graphByKmerNode = new KmerPathNodeKmerNodeByKmerLastEndLookup();
+	private final KmerPathNodeByFirstStartKmerRingBuffer graphByPosition = new KmerPathNodeByFirstStartKmerRingBuffer();
+	private final KmerPathNodeByFirstStartKmerRingBuffer nonReferenceGraphByPosition = new KmerPathNodeByFirstStartKmerRingBuffer();
 	private final EvidenceTracker evidenceTracker;
 	private final AssemblyEvidenceSource aes;
 	private final AssemblyIdGenerator assemblyNameGenerator;
@@ -466,7 +466,14 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 			endingAnchor.addFirst(endIt.next());
 		}
 		
-		byte[] bases = KmerEncodingHelper.baseCalls(fullContig.stream().flatMap(sn -> sn.node().pathKmers().stream()).collect(Collectors.toList()), k);
+		LongArrayList contigKmers = new LongArrayList();
+		for (KmerPathSubnode sn : fullContig) {
+			KmerPathNode node = sn.node();
+			for (int i = 0; i < node.length(); i++) {
+				contigKmers.add(node.kmer(i));
+			}
+		}
+		byte[] bases = KmerEncodingHelper.baseCalls(contigKmers, k);
 		byte[] quals = DeBruijnGraphBase.kmerWeightsToBaseQuals(k, fullContig.stream().flatMapToInt(sn -> sn.node().pathWeights().stream().mapToInt(Integer::intValue)).toArray());
 		assert(quals.length == bases.length);
 		// left aligned anchor position although it shouldn't matter since anchoring should be a single base wide
@@ -756,16 +763,7 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		}
 	}
 	private void updateRemovalList(Map<KmerPathNode, List<List<KmerNode>>> toRemove, KmerSupportNode support) {
-		Collection<KmerPathNodeKmerNode> kpnknList = graphByKmerNode.get(support.lastKmer());
-		if (kpnknList != null) {
-			// TODO: secondary sort order on graphByKmerNode so we can subset this iterator to only
-			// the overlapping nodes
-			for (KmerPathNodeKmerNode n : kpnknList) {
-				if (IntervalUtil.overlapsClosed(support.lastStart(), support.lastEnd(), n.lastStart(), n.lastEnd())) {
-					updateRemovalList(toRemove, n, support);
-				}
-			}
-		}
+		graphByKmerNode.forEachOverlapping(support.lastKmer(), support.lastStart(), support.lastEnd(), n -> updateRemovalList(toRemove, n, support));
 	}
 	private void updateRemovalList(Map<KmerPathNode, List<List<KmerNode>>> toRemove, KmerPathNodeKmerNode node, KmerSupportNode support) {
 		KmerPathNode pn = node.node();
@@ -839,20 +837,10 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		}
 	}
 	private void addToGraph(KmerPathNodeKmerNode node) {
-		Collection<KmerPathNodeKmerNode> list = graphByKmerNode.get(node.firstKmer());
-		if (list == null) {
-			list = new ArrayList<>();
-			graphByKmerNode.put(node.firstKmer(), list);
-		}
-		list.add(node);
+		graphByKmerNode.add(node);
 	}
 	private void removeFromGraph(KmerPathNodeKmerNode node) {
-		Collection<KmerPathNodeKmerNode> list = graphByKmerNode.get(node.firstKmer());
-		if (list == null) return;
-		list.remove(node);
-		if (list.size() == 0) {
-			graphByKmerNode.remove(node.firstKmer());
-		}
+		graphByKmerNode.remove(node);
 	}
 
 	/**
@@ -984,10 +972,12 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		}
 	}
 	public boolean sanityCheck() {
-		graphByKmerNode.long2ObjectEntrySet().stream().flatMap(e -> e.getValue().stream()).forEach(kn -> { 
+		graphByKmerNode.stream().forEach(kn -> { 
 			assert(kn.node().isValid());
 			assert(graphByPosition.contains(kn.node()));
 		});
+		assert(graphByPosition.sanityCheck());
+		assert(nonReferenceGraphByPosition.sanityCheck());
 		for (KmerPathNode n : graphByPosition) {
 			assert(n.isValid());
 			assert(evidenceTracker.matchesExpected(new KmerPathSubnode(n)));
@@ -1015,7 +1005,7 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		return graphByPosition.size();
 	}
 	public int tracking_maxKmerActiveNodeCount() {
-		return graphByKmerNode.values().stream().mapToInt(x -> x.size()).max().orElse(0);
+		return graphByKmerNode.maxNodesPerKmer();
 	}
 	public long tracking_underlyingConsumed() {
 		return consumed;
@@ -1,17 +1,17 @@
 package au.edu.wehi.idsv.debruijn.positional;
 
-import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.DirectedEvidence;
 import au.edu.wehi.idsv.NonReferenceReadPair;
 import au.edu.wehi.idsv.SingleReadEvidence;
-import au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures.KmerNodeByFirstStartPriorityQueue;
+import au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures.KmerSupportByFirstStartQueue;
 import au.edu.wehi.idsv.util.MessageThrottler;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.Log;
 
-import java.util.*;
+import java.util.BitSet;
+import java.util.Iterator;
 
 /**
  * Transforms a breakend start DirectedEvidence iterator
@@ -35,7 +35,11 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	 */
 	private final int emitOffset;
 	private final int maxSupportStartPositionOffset;
-	private final Queue<KmerSupportNode> buffer = Defaults.USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES ? new KmerNodeByFirstStartPriorityQueue<>(16) : new PriorityQueue<>(1024, KmerNodeUtil.ByFirstStart);
+	private final KmerSupportByFirstStartQueue buffer = new KmerSupportByFirstStartQueue();
+	/**
+	 * Offsets of the evidence kmers to include in the graph
+	 */
+	private final BitSet included = new BitSet();
 	private final EvidenceTracker tracker;
 	private final int disallowMismatch;
 	private int inputPosition = Integer.MIN_VALUE;
@@ -103,61 +107,72 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 		if (e == null) {
 			return;
 		}
-		List<KmerSupportNode> supportNodes = new ArrayList<KmerSupportNode>(e.length() + (e2 == null ? 0 : e2.length()));
-		boolean hasNonReference = addSupport(supportNodes, de, e);
-		addSupport(supportNodes, de, e2);
+		boolean hasNonReference = includeSupport(de, e);
 		if (hasNonReference) {
 			// only add evidence that provides support for an SV
 			// If we have no non-reference kmers then we might
 			// never call a contig containing this evidence thus
 			// never remove it from the graph
 			// SC or RPs with no non-reference kmers can occur when
-			// an ambiguous base case exist in the soft clip/mate  
-			buffer.addAll(supportNodes);
+			// an ambiguous base case exist in the soft clip/mate
+			addSupport(e);
+		}
+		if (e2 != null) {
+			includeSupport(de, e2);
+			if (hasNonReference) {
+				addSupport(e2);
+			}
+		}
+	}
+	private void addSupport(KmerEvidence e) {
+		for (int i = included.nextSetBit(0); i >= 0; i = included.nextSetBit(i + 1)) {
+			buffer.add(e, i);
 			if (tracker != null) {
-				for (KmerSupportNode sn : supportNodes) {
-					tracker.track(sn);
-				}
+				tracker.track(e, i);
 			}
 		}
 	}
-	private boolean addSupport(List<KmerSupportNode> supportNodes, DirectedEvidence de, KmerEvidence e) {
+	/**
+	 * Determines which kmers of the given evidence to include in the graph
+	 * @return true if any included kmer is non-reference
+	 */
+	private boolean includeSupport(DirectedEvidence de, KmerEvidence e) {
 		boolean hasNonReference = false;
-		if (e != null) {
-			for (int i = 0; i < e.length(); i++) {
-				KmerSupportNode support = e.node(i); 
-				if (support != null) {
-					// make sure that we are actually able to resort into kmer order
-					if (support.firstStart() < de.getBreakendSummary().start - maxSupportStartPositionOffset) {
-						SAMRecord read = null;
-						if (de instanceof SingleReadEvidence) {
-							read = ((SingleReadEvidence)de).getSAMRecord(); 
-						} else if (de instanceof NonReferenceReadPair) {
-							read = ((NonReferenceReadPair)de).getLocalledMappedRead();
-						}
-						String readString = "";
-						if (read != null) {
-							readString = read.getReadName();
-							if (!read.getReadUnmappedFlag()) {
-								readString += String.format(" (%s:%d %s)", read.getReferenceName(), read.getStart(), read.getCigarString());
-							}
+		included.clear();
+		for (int i = 0; i < e.length(); i++) {
+			if (!e.isAmbiguous(i)) {
+				int supportStart = e.startPosition() + i;
+				int supportWeight = e.weight(i);
+				// make sure that we are actually able to resort into kmer order
+				if (supportStart < de.getBreakendSummary().start - maxSupportStartPositionOffset) {
+					SAMRecord read = null;
+					if (de instanceof SingleReadEvidence) {
+						read = ((SingleReadEvidence)de).getSAMRecord(); 
+					} else if (de instanceof NonReferenceReadPair) {
+						read = ((NonReferenceReadPair)de).getLocalledMappedRead();
+					}
+					String readString = "";
+					if (read != null) {
+						readString = read.getReadName();
+						if (!read.getReadUnmappedFlag()) {
+							readString += String.format(" (%s:%d %s)", read.getReferenceName(), read.getStart(), read.getCigarString());
 						}
-						String msg = String.format("Error: kmer in evidence %s of read %s out of bounds."
-								+ " Kmer support starts at %d which is more than %d before the breakpoint start position at %s",
-								de.getEvidenceID(),
-								readString,
-								support.firstStart(), maxSupportStartPositionOffset, de.getBreakendSummary());
-						log.error(msg);
-						// Try to continue
-						//throw new RuntimeException(msg);
-					} else if (support.weight() <= 0) {
-						String msg = String.format("Invalid support weight of %d for evidence %s", support.weight(), de.getEvidenceID());
-						log.error(msg);
-						throw new RuntimeException(msg);
-					} else {
-						supportNodes.add(support);
-						hasNonReference |= !support.isReference();
 					}
+					String msg = String.format("Error: kmer in evidence %s of read %s out of bounds."
+							+ " Kmer support starts at %d which is more than %d before the breakpoint start position at %s",
+							de.getEvidenceID(),
+							readString,
+							supportStart, maxSupportStartPositionOffset, de.getBreakendSummary());
+					log.error(msg);
+					// Try to continue
+					//throw new RuntimeException(msg);
+				} else if (supportWeight <= 0) {
+					String msg = String.format("Invalid support weight of %d for evidence %s", supportWeight, de.getEvidenceID());
+					log.error(msg);
+					throw new RuntimeException(msg);
+				} else {
+					included.set(i);
+					hasNonReference |= !e.isAnchored(i);
 				}
 			}
 		}
@@ -170,19 +185,48 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	}
 	@Override
 	public KmerSupportNode next() {
-		ensureBuffer();
-		KmerSupportNode node = buffer.poll();
-		assert(node.lastStart() >= lastPosition);
-		lastPosition = node.lastStart();		
-		return node;
+		nextSupport();
+		return buffer.currentNode();
 	}
 	@Override
 	public KmerSupportNode peek() {
 		ensureBuffer();
-		return buffer.peek();
+		return buffer.peekNode();
+	}
+	/**
+	 * Start position of the next kmer support
+	 */
+	public int peekFirstStart() {
+		ensureBuffer();
+		return buffer.peekFirstStart();
+	}
+	/**
+	 * Advances to the next kmer support without allocating a support node.
+	 * The support is available through the support*() accessors.
+	 */
+	public void nextSupport() {
+		ensureBuffer();
+		buffer.poll();
+		assert(buffer.currentStart() >= lastPosition);
+		lastPosition = buffer.currentStart();
+	}
+	public long supportKmer() {
+		return buffer.currentKmer();
+	}
+	public int supportStart() {
+		return buffer.currentStart();
+	}
+	public int supportEnd() {
+		return buffer.currentEnd();
+	}
+	public int supportWeight() {
+		return buffer.currentWeight();
+	}
+	public boolean supportIsReference() {
+		return buffer.currentIsReference();
 	}
 	private void ensureBuffer() {
-		while (underlying.hasNext() && (buffer.isEmpty() || buffer.peek().lastStart() > inputPosition - emitOffset)) {
+		while (underlying.hasNext() && (buffer.isEmpty() || buffer.peekFirstStart() > inputPosition - emitOffset)) {
 			inputPosition = underlying.peek().getUnderlyingSAMRecord().getAlignmentStart();
 			advance();
 		}
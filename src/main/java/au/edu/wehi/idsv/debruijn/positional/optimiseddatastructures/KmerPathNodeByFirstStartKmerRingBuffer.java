@@ -0,0 +1,260 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.debruijn.positional.KmerPathNode;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of KmerPathNodes ordered by first start position then first kmer.
+ *
+ * Nodes are stored in a ring buffer of position buckets covering the window
+ * between the first and last occupied start position. This is optimised for
+ * a window sliding linearly through the genome: insertion and removal are
+ * constant time (for the small number of nodes expected at each position)
+ * and no comparator calls or rebalancing is required.
+ *
+ * As with TreeSet, nodes with the same first start position and first kmer
+ * are considered equal. Nodes must not be mutated whilst in the set.
+ */
+public class KmerPathNodeByFirstStartKmerRingBuffer extends AbstractCollection<KmerPathNode> {
+	private static final int INITIAL_CAPACITY = 1024;
+	private ArrayList<KmerPathNode>[] buckets;
+	private int mask;
+	private int size = 0;
+	/**
+	 * First occupied position. Only defined when not empty.
+	 */
+	private int firstPosition;
+	/**
+	 * Last occupied position. Only defined when not empty.
+	 */
+	private int lastPosition;
+
+	public KmerPathNodeByFirstStartKmerRingBuffer() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public KmerPathNodeByFirstStartKmerRingBuffer(int initialCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(2, initialCapacity) - 1) << 1;
+		this.buckets = newBuckets(capacity);
+		this.mask = capacity - 1;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ArrayList<KmerPathNode>[] newBuckets(int capacity) {
+		return (ArrayList<KmerPathNode>[])new ArrayList[capacity];
+	}
+
+	private ArrayList<KmerPathNode> bucket(int position) {
+		ArrayList<KmerPathNode> bucket = buckets[position & mask];
+		if (bucket == null) {
+			bucket = new ArrayList<>(2);
+			buckets[position & mask] = bucket;
+		}
+		return bucket;
+	}
+
+	private boolean isBucketEmpty(int position) {
+		ArrayList<KmerPathNode> bucket = buckets[position & mask];
+		return bucket == null || bucket.isEmpty();
+	}
+
+	private void ensureWindowWidth(int first, int last) {
+		int width = last - first + 1;
+		if (width <= buckets.length) return;
+		int capacity = buckets.length;
+		while (capacity < width) {
+			capacity <<= 1;
+		}
+		ArrayList<KmerPathNode>[] newBuckets = newBuckets(capacity);
+		int newMask = capacity - 1;
+		for (int position = firstPosition; position <= lastPosition; position++) {
+			newBuckets[position & newMask] = buckets[position & mask];
+		}
+		buckets = newBuckets;
+		mask = newMask;
+	}
+
+	/**
+	 * Index of the node with the given kmer in the bucket,
+	 * or (-(insertion point) - 1) if no such node exists
+	 */
+	private static int indexOf(ArrayList<KmerPathNode> bucket, long kmer) {
+		for (int i = 0; i < bucket.size(); i++) {
+			long bucketKmer = bucket.get(i).firstKmer();
+			if (bucketKmer == kmer) return i;
+			if (bucketKmer > kmer) return -i - 1;
+		}
+		return -bucket.size() - 1;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean add(KmerPathNode node) {
+		int position = node.firstStart();
+		if (size == 0) {
+			firstPosition = position;
+			lastPosition = position;
+		} else if (position < firstPosition) {
+			ensureWindowWidth(position, lastPosition);
+			firstPosition = position;
+		} else if (position > lastPosition) {
+			ensureWindowWidth(firstPosition, position);
+			lastPosition = position;
+		}
+		ArrayList<KmerPathNode> bucket = bucket(position);
+		int index = indexOf(bucket, node.firstKmer());
+		if (index >= 0) return false;
+		bucket.add(-index - 1, node);
+		size++;
+		return true;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof KmerPathNode) || size == 0) return false;
+		KmerPathNode node = (KmerPathNode)o;
+		int position = node.firstStart();
+		if (position < firstPosition || position > lastPosition || isBucketEmpty(position)) return false;
+		ArrayList<KmerPathNode> bucket = buckets[position & mask];
+		int index = indexOf(bucket, node.firstKmer());
+		if (index < 0) return false;
+		bucket.remove(index);
+		size--;
+		if (size > 0 && bucket.isEmpty()) {
+			while (isBucketEmpty(firstPosition)) {
+				firstPosition++;
+			}
+			while (isBucketEmpty(lastPosition)) {
+				lastPosition--;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof KmerPathNode) || size == 0) return false;
+		KmerPathNode node = (KmerPathNode)o;
+		int position = node.firstStart();
+		if (position < firstPosition || position > lastPosition || isBucketEmpty(position)) return false;
+		return indexOf(buckets[position & mask], node.firstKmer()) >= 0;
+	}
+
+	@Override
+	public void clear() {
+		if (size > 0) {
+			for (int position = firstPosition; position <= lastPosition; position++) {
+				if (!isBucketEmpty(position)) {
+					buckets[position & mask].clear();
+				}
+			}
+		}
+		size = 0;
+	}
+
+	/**
+	 * Node with the lowest first start position
+	 */
+	public KmerPathNode first() {
+		if (size == 0) throw new NoSuchElementException();
+		return buckets[firstPosition & mask].get(0);
+	}
+
+	/**
+	 * Node with the highest first start position
+	 */
+	public KmerPathNode last() {
+		if (size == 0) throw new NoSuchElementException();
+		ArrayList<KmerPathNode> bucket = buckets[lastPosition & mask];
+		return bucket.get(bucket.size() - 1);
+	}
+
+	/**
+	 * Iterates over the nodes in ascending order.
+	 * The set must not be modified during iteration.
+	 */
+	@Override
+	public Iterator<KmerPathNode> iterator() {
+		return new BucketIterator(true);
+	}
+
+	/**
+	 * Iterates over the nodes in descending order.
+	 * The set must not be modified during iteration.
+	 */
+	public Iterator<KmerPathNode> descendingIterator() {
+		return new BucketIterator(false);
+	}
+
+	private class BucketIterator implements Iterator<KmerPathNode> {
+		private final boolean ascending;
+		private int position;
+		private int offset;
+		private ArrayList<KmerPathNode> bucket = null;
+		private boolean started = false;
+		private int remaining = size;
+
+		public BucketIterator(boolean ascending) {
+			this.ascending = ascending;
+			this.position = ascending ? firstPosition : lastPosition;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@Override
+		public KmerPathNode next() {
+			if (remaining <= 0) throw new NoSuchElementException();
+			while (bucket == null || offset < 0 || offset >= bucket.size()) {
+				if (started) {
+					position += ascending ? 1 : -1;
+				}
+				started = true;
+				bucket = buckets[position & mask];
+				offset = ascending ? 0 : (bucket == null ? -1 : bucket.size() - 1);
+			}
+			remaining--;
+			KmerPathNode node = bucket.get(offset);
+			offset += ascending ? 1 : -1;
+			return node;
+		}
+	}
+
+	public boolean sanityCheck() {
+		int count = 0;
+		if (size > 0) {
+			assert(!isBucketEmpty(firstPosition));
+			assert(!isBucketEmpty(lastPosition));
+			assert(lastPosition - firstPosition < buckets.length);
+			for (int position = firstPosition; position <= lastPosition; position++) {
+				if (!isBucketEmpty(position)) {
+					ArrayList<KmerPathNode> bucket = buckets[position & mask];
+					for (int i = 0; i < bucket.size(); i++) {
+						assert(bucket.get(i).firstStart() == position);
+						if (i > 0) {
+							assert(bucket.get(i - 1).firstKmer() < bucket.get(i).firstKmer());
+						}
+					}
+					count += bucket.size();
+				}
+			}
+		}
+		assert(count == size);
+		return true;
+	}
+}
@@ -0,0 +1,134 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.debruijn.positional.KmerPathNodeKmerNode;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Lookup of KmerPathNodeKmerNodes by kmer.
+ *
+ * The nodes for each kmer are held in an array sorted by end position
+ * so the nodes overlapping a given interval can be found without
+ * scanning every node with that kmer.
+ *
+ * Nodes must not be mutated whilst in the lookup.
+ */
+public class KmerPathNodeKmerNodeByKmerLastEndLookup {
+	private final Long2ObjectOpenHashMap<KmerEntries> lookup = new Long2ObjectOpenHashMap<>();
+	private int size = 0;
+
+	private static class KmerEntries {
+		private KmerPathNodeKmerNode[] nodes = new KmerPathNodeKmerNode[2];
+		private int size = 0;
+		/**
+		 * Upper bound on the width of the nodes in this entry
+		 */
+		private int maxWidth = 0;
+
+		/**
+		 * Index of the first node ending at or after the given position
+		 */
+		private int firstEndingAtOrAfter(int position) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (nodes[mid].lastEnd() < position) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private void add(KmerPathNodeKmerNode node) {
+			int index = firstEndingAtOrAfter(node.lastEnd() + 1);
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+			}
+			System.arraycopy(nodes, index, nodes, index + 1, size - index);
+			nodes[index] = node;
+			size++;
+			maxWidth = Math.max(maxWidth, node.lastEnd() - node.lastStart());
+		}
+
+		private boolean remove(KmerPathNodeKmerNode node) {
+			int end = node.lastEnd();
+			for (int i = firstEndingAtOrAfter(end); i < size && nodes[i].lastEnd() == end; i++) {
+				if (nodes[i].equals(node)) {
+					System.arraycopy(nodes, i + 1, nodes, i, size - i - 1);
+					nodes[--size] = null;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void add(KmerPathNodeKmerNode node) {
+		long kmer = node.firstKmer();
+		KmerEntries entries = lookup.get(kmer);
+		if (entries == null) {
+			entries = new KmerEntries();
+			lookup.put(kmer, entries);
+		}
+		entries.add(node);
+		size++;
+	}
+
+	public boolean remove(KmerPathNodeKmerNode node) {
+		long kmer = node.firstKmer();
+		KmerEntries entries = lookup.get(kmer);
+		if (entries == null) return false;
+		boolean removed = entries.remove(node);
+		if (removed) {
+			size--;
+			if (entries.size == 0) {
+				lookup.remove(kmer);
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Calls the given action for each node of the given kmer overlapping the given interval
+	 * @param kmer kmer
+	 * @param start start position of interval
+	 * @param end end position of interval
+	 * @param action action to perform for each overlapping node
+	 */
+	public void forEachOverlapping(long kmer, int start, int end, Consumer<KmerPathNodeKmerNode> action) {
+		KmerEntries entries = lookup.get(kmer);
+		if (entries == null) return;
+		KmerPathNodeKmerNode[] nodes = entries.nodes;
+		for (int i = entries.firstEndingAtOrAfter(start); i < entries.size; i++) {
+			KmerPathNodeKmerNode node = nodes[i];
+			if (node.lastEnd() - entries.maxWidth > end) {
+				// all subsequent nodes start after the interval
+				break;
+			}
+			if (node.lastStart() <= end) {
+				action.accept(node);
+			}
+		}
+	}
+
+	/**
+	 * Maximum number of nodes sharing the same kmer
+	 */
+	public int maxNodesPerKmer() {
+		return lookup.values().stream().mapToInt(e -> e.size).max().orElse(0);
+	}
+
+	public Stream<KmerPathNodeKmerNode> stream() {
+		return lookup.values().stream().flatMap(e -> Arrays.stream(e.nodes, 0, e.size));
+	}
+}
@@ -0,0 +1,209 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.debruijn.positional.KmerEvidence;
+import au.edu.wehi.idsv.debruijn.positional.KmerSupportNode;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Priority queue of evidence kmer support ordered by start position.
+ *
+ * Support is held in parallel primitive arrays rather than as KmerSupportNode
+ * objects so queueing a kmer does not allocate. The head of the queue is
+ * consumed by calling poll() then reading the current*() fields, which remain
+ * valid until the next call to poll().
+ *
+ * The order in which support with the same start position is returned is undefined.
+ */
+public class KmerSupportByFirstStartQueue {
+	private static final int INITIAL_CAPACITY = 1024;
+	private long[] kmer;
+	private int[] start;
+	private int[] end;
+	private int[] weight;
+	private boolean[] reference;
+	private KmerEvidence[] evidence;
+	private int[] offset;
+	/**
+	 * Binary min-heap of slots ordered by start position
+	 */
+	private int[] heap;
+	private int size = 0;
+	/**
+	 * Slots not currently in use
+	 */
+	private int[] freeSlots;
+	private int freeCount = 0;
+	/**
+	 * Number of slots ever used
+	 */
+	private int slotsUsed = 0;
+	private long currentKmer;
+	private int currentStart;
+	private int currentEnd;
+	private int currentWeight;
+	private boolean currentReference;
+	private KmerEvidence currentEvidence;
+	private int currentOffset;
+
+	public KmerSupportByFirstStartQueue() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public KmerSupportByFirstStartQueue(int initialCapacity) {
+		int capacity = Math.max(2, initialCapacity);
+		kmer = new long[capacity];
+		start = new int[capacity];
+		end = new int[capacity];
+		weight = new int[capacity];
+		reference = new boolean[capacity];
+		evidence = new KmerEvidence[capacity];
+		offset = new int[capacity];
+		heap = new int[capacity];
+		freeSlots = new int[capacity];
+	}
+
+	private void grow() {
+		int capacity = heap.length * 2;
+		kmer = Arrays.copyOf(kmer, capacity);
+		start = Arrays.copyOf(start, capacity);
+		end = Arrays.copyOf(end, capacity);
+		weight = Arrays.copyOf(weight, capacity);
+		reference = Arrays.copyOf(reference, capacity);
+		evidence = Arrays.copyOf(evidence, capacity);
+		offset = Arrays.copyOf(offset, capacity);
+		heap = Arrays.copyOf(heap, capacity);
+		freeSlots = Arrays.copyOf(freeSlots, capacity);
+	}
+
+	private int allocateSlot() {
+		if (freeCount > 0) {
+			return freeSlots[--freeCount];
+		}
+		if (slotsUsed == heap.length) {
+			grow();
+		}
+		return slotsUsed++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Adds the support provided by the kmer at the given offset of the given evidence
+	 */
+	public void add(KmerEvidence e, int kmerOffset) {
+		int slot = allocateSlot();
+		kmer[slot] = e.kmer(kmerOffset);
+		start[slot] = e.startPosition() + kmerOffset;
+		end[slot] = e.endPosition() + kmerOffset;
+		weight[slot] = e.weight(kmerOffset);
+		reference[slot] = e.isAnchored(kmerOffset);
+		evidence[slot] = e;
+		offset[slot] = kmerOffset;
+		int i = size++;
+		int position = start[slot];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (start[heap[parent]] <= position) break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = slot;
+	}
+
+	/**
+	 * Start position of the head of the queue
+	 */
+	public int peekFirstStart() {
+		if (size == 0) throw new NoSuchElementException();
+		return start[heap[0]];
+	}
+
+	/**
+	 * Creates a support node for the head of the queue
+	 */
+	public KmerSupportNode peekNode() {
+		if (size == 0) return null;
+		return new KmerSupportNode(evidence[heap[0]], offset[heap[0]]);
+	}
+
+	/**
+	 * Removes the head of the queue, making it available through the current*() accessors
+	 */
+	public void poll() {
+		if (size == 0) throw new NoSuchElementException();
+		int slot = heap[0];
+		currentKmer = kmer[slot];
+		currentStart = start[slot];
+		currentEnd = end[slot];
+		currentWeight = weight[slot];
+		currentReference = reference[slot];
+		currentEvidence = evidence[slot];
+		currentOffset = offset[slot];
+		evidence[slot] = null;
+		freeSlots[freeCount++] = slot;
+		int last = heap[--size];
+		if (size > 0) {
+			siftDown(last);
+		}
+	}
+
+	private void siftDown(int slot) {
+		int position = start[slot];
+		int i = 0;
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < size && start[heap[right]] < start[heap[child]]) {
+				child = right;
+			}
+			if (position <= start[heap[child]]) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = slot;
+	}
+
+	public long currentKmer() {
+		return currentKmer;
+	}
+
+	public int currentStart() {
+		return currentStart;
+	}
+
+	public int currentEnd() {
+		return currentEnd;
+	}
+
+	public int currentWeight() {
+		return currentWeight;
+	}
+
+	public boolean currentIsReference() {
+		return currentReference;
+	}
+
+	public KmerEvidence currentEvidence() {
+		return currentEvidence;
+	}
+
+	public int currentOffset() {
+		return currentOffset;
+	}
+
+	/**
+	 * Creates a support node for the most recently polled support
+	 */
+	public KmerSupportNode currentNode() {
+		return new KmerSupportNode(currentEvidence, currentOffset);
+	}
+}
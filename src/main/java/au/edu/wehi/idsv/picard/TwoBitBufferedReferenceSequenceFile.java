@@ -1,27 +1,33 @@
 package au.edu.wehi.idsv.picard;
 
 import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
-import au.edu.wehi.idsv.debruijn.PackedSequence;
 import com.google.common.collect.ImmutableMap;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.util.Log;
 
 import java.io.*;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.time.OffsetTime;
-import java.util.BitSet;
-import java.util.stream.Stream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * 2bit encodes and buffers the entire reference to enable efficient random lookup of small subsequences
+ *
+ * When a cache file is supplied, the encoded reference is persisted to disk
+ * and memory mapped on subsequent use.
  * @author Daniel Cameron
  *
  */
 public class TwoBitBufferedReferenceSequenceFile implements ReferenceSequenceFile, ReferenceLookup {
 	private static final Log log = Log.getInstance(TwoBitBufferedReferenceSequenceFile.class);
+	private static final long CACHE_MAGIC = 0x4752494453533242L; // "GRIDSS2B"
+	private static final int CACHE_VERSION = 1;
 	private final ReferenceSequenceFile underlying;
 	private final PackedReferenceSequence[] referenceIndexLookup;
 	private File cacheFile;
@@ -45,83 +51,193 @@ public class TwoBitBufferedReferenceSequenceFile implements ReferenceSequenceFil
 		if (seq == null) {
 			seq = addToCache(underlying.getSequenceDictionary().getSequence(referenceIndex).getSequenceName());
 		}
-		if (seq.ambiguous.get(position - 1)) {
-			return 'N';
-		}
-		return seq.get(position - 1);
+		return seq.getBase(position - 1);
 	}
+	/**
+	 * Memory maps the given cache file.
+	 *
+	 * The cache is mapped read-only so the pages are shared through the OS
+	 * page cache by all processes using the same reference genome.
+	 */
 	public synchronized void load(File file) {
+		try {
+			install(mapCache(file));
+		} catch (Exception e) {
+			log.error("Error loading reference genome from cache " + file, e);
+		}
+	}
+	private void install(PackedReferenceSequence[] loaded) {
 		ImmutableMap.Builder<String, PackedReferenceSequence> builder = ImmutableMap.<String, PackedReferenceSequence>builder();
-		try(FileInputStream fis = new FileInputStream(file)) {
-			try(ObjectInputStream ois = new ObjectInputStream(fis)) {
-				for (int i =  0; i < referenceIndexLookup.length; i++) {
-					referenceIndexLookup[i] = (PackedReferenceSequence)ois.readObject();
-					builder.put(referenceIndexLookup[i].name, referenceIndexLookup[i]);
+		for (int i = 0; i < loaded.length; i++) {
+			referenceIndexLookup[i] = loaded[i];
+			builder.put(loaded[i].name, loaded[i]);
+		}
+		cache = builder.build();
+	}
+	private PackedReferenceSequence[] mapCache(File file) throws IOException {
+		SAMSequenceDictionary dict = underlying.getSequenceDictionary();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			DataInputStream header = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			if (header.readLong() != CACHE_MAGIC || header.readInt() != CACHE_VERSION) {
+				throw new IOException(file + " is not a 2bit reference genome cache file. Cache files created by earlier versions must be regenerated.");
+			}
+			int contigCount = header.readInt();
+			if (contigCount != dict.size()) {
+				throw new IOException(String.format("%s contains %d contigs. Expected %d", file, contigCount, dict.size()));
+			}
+			PackedReferenceSequence[] loaded = new PackedReferenceSequence[contigCount];
+			for (int i = 0; i < contigCount; i++) {
+				String name = header.readUTF();
+				int length = header.readInt();
+				long offset = header.readLong();
+				SAMSequenceRecord ssr = dict.getSequence(i);
+				if (!ssr.getSequenceName().equals(name) || ssr.getSequenceLength() != length) {
+					throw new IOException(String.format("Contig %s:%d in %s does not match reference genome contig %s:%d", name, length, file, ssr.getSequenceName(), ssr.getSequenceLength()));
 				}
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, PackedReferenceSequence.encodedSize(length));
+				loaded[i] = new PackedReferenceSequence(name, i, length, buffer);
 			}
-			cache = builder.build();
-		} catch (Exception e) {
-			log.error("Error loading reference genome from cache " + file, e);
+			return loaded;
 		}
 	}
 	public synchronized void save(File file) {
 		if (file.exists()) {
 			throw new IllegalArgumentException(file + " already exists");
 		}
-		// Ensure the lookup is fully populated
-		underlying.getSequenceDictionary()
-				.getSequences()
-				.stream()
-				.map(s -> s.getSequenceName())
-				.forEach(s -> cacheLoad(s));
-		try(FileOutputStream fos = new FileOutputStream(file)) {
-			try(ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-				for (int i =  0; i < referenceIndexLookup.length; i++) {
-					oos.writeObject(referenceIndexLookup[i]);
+		writeCache(file);
+	}
+	/**
+	 * Writes the cache file.
+	 *
+	 * Layout is a header containing the magic number, format version, contig count,
+	 * then the name, length and file offset of each contig. Each contig is stored as
+	 * 2bit packed bases (4 bases per byte, first base in the most significant bits)
+	 * followed by an ambiguous base bitmap (8 bases per byte, first base in the
+	 * least significant bit).
+	 *
+	 * The cache is written to a temporary file then moved into place so concurrent
+	 * processes never map a partially written cache.
+	 */
+	private void writeCache(File file) {
+		SAMSequenceDictionary dict = underlying.getSequenceDictionary();
+		File tmp = null;
+		try {
+			tmp = File.createTempFile("gridss.tmp.", "." + file.getName(), file.getAbsoluteFile().getParentFile());
+			ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+			// offsets are fixed width so the header size does not depend on their values
+			writeHeader(new DataOutputStream(headerBytes), dict, 0);
+			long dataOffset = headerBytes.size();
+			headerBytes.reset();
+			writeHeader(new DataOutputStream(headerBytes), dict, dataOffset);
+			try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+				headerBytes.writeTo(os);
+				for (SAMSequenceRecord ssr : dict.getSequences()) {
+					// Stream contigs through rather than holding the whole genome on heap
+					PackedReferenceSequence seq = cache.get(ssr.getSequenceName());
+					if (seq == null) {
+						seq = new PackedReferenceSequence(underlying.getSequence(ssr.getSequenceName()));
+					}
+					seq.writeTo(os);
 				}
 			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		} catch (Exception e) {
 			log.error("Error saving reference genome to cache file " + file, e);
 			try {
-				if (file.exists()) {
-					Files.delete(file.toPath());
+				if (tmp != null) {
+					Files.deleteIfExists(tmp.toPath());
 				}
 			} catch (IOException e1) {
 				// swallow recovery exception
 			}
 		}
 	}
-	private static class PackedReferenceSequence extends PackedSequence implements Serializable {
+	private static void writeHeader(DataOutputStream header, SAMSequenceDictionary dict, long dataOffset) throws IOException {
+		header.writeLong(CACHE_MAGIC);
+		header.writeInt(CACHE_VERSION);
+		header.writeInt(dict.size());
+		long offset = dataOffset;
+		for (SAMSequenceRecord ssr : dict.getSequences()) {
+			header.writeUTF(ssr.getSequenceName());
+			header.writeInt(ssr.getSequenceLength());
+			header.writeLong(offset);
+			offset += PackedReferenceSequence.encodedSize(ssr.getSequenceLength());
+		}
+		header.flush();
+	}
+	/**
+	 * 2bit encoded reference contig with a bitmap of ambiguous bases.
+	 * The backing buffer is either on heap or memory mapped from the cache file.
+	 */
+	private static class PackedReferenceSequence {
 		private final String name;
-	    private final int contigIndex;
-	    private final long length;
-	    private final BitSet ambiguous;
+		private final int contigIndex;
+		private final int length;
+		private final ByteBuffer buffer;
+		/**
+		 * Offset of the ambiguous base bitmap in the buffer
+		 */
+		private final int ambiguousOffset;
 		public PackedReferenceSequence(ReferenceSequence seq) {
-			super(seq.getBases(), false, false);
-			this.name = seq.getName();
-			this.contigIndex = seq.getContigIndex();
-			this.length = seq.length();
-			this.ambiguous = new BitSet(seq.length());
+			this(seq.getName(), seq.getContigIndex(), seq.length(), ByteBuffer.allocate(encodedSize(seq.length())));
 			byte[] seqBases = seq.getBases();
+			for (int i = 0; i < length; i += 4) {
+				int packed = 0;
+				for (int j = i; j < i + 4; j++) {
+					packed <<= 2;
+					if (j < length) {
+						packed |= KmerEncodingHelper.picardBaseToEncoded(seqBases[j]);
+					}
+				}
+				buffer.put(i >>> 2, (byte)packed);
+			}
 			for (int i = 0; i < length; i++) {
 				if (KmerEncodingHelper.isAmbiguous(seqBases[i])) {
-					ambiguous.set(i);
+					int index = ambiguousOffset + (i >>> 3);
+					buffer.put(index, (byte)(buffer.get(index) | (1 << (i & 7))));
 				}
 			}
 		}
+		public PackedReferenceSequence(String name, int contigIndex, int length, ByteBuffer buffer) {
+			this.name = name;
+			this.contigIndex = contigIndex;
+			this.length = length;
+			this.buffer = buffer;
+			this.ambiguousOffset = (length + 3) >>> 2;
+		}
+		public static int encodedSize(int length) {
+			return ((length + 3) >>> 2) + ((length + 7) >>> 3);
+		}
+		/**
+		 * @param offset 0-based offset
+		 */
+		public byte getBase(int offset) {
+			if ((buffer.get(ambiguousOffset + (offset >>> 3)) & (1 << (offset & 7))) != 0) {
+				return 'N';
+			}
+			int packed = buffer.get(offset >>> 2) >>> (2 * (3 - (offset & 3)));
+			return KmerEncodingHelper.encodedToPicardBase(packed);
+		}
+		public void writeTo(OutputStream os) throws IOException {
+			ByteBuffer bb = buffer.duplicate();
+			bb.clear();
+			byte[] chunk = new byte[Math.min(bb.remaining(), 1 << 16)];
+			while (bb.hasRemaining()) {
+				int n = Math.min(chunk.length, bb.remaining());
+				bb.get(chunk, 0, n);
+				os.write(chunk, 0, n);
+			}
+		}
 		public ReferenceSequence getSequence() {
 			return getSubsequenceAt(1, length);
 		}
 		public ReferenceSequence getSubsequenceAt(long start, long stop) {
 			int length = (int)(stop - start + 1);
-			ReferenceSequence seq = new ReferenceSequence(name, contigIndex, getBytes((int)(start - 1), length));
-			byte[] seqBases = seq.getBases();
+			byte[] seqBases = new byte[length];
 			for (int i = 0; i < length; i++) {
-				if (ambiguous.get((int)start - 1 + i)) {
-					seqBases[i] = 'N';
-				}
+				seqBases[i] = getBase((int)start - 1 + i);
 			}
-			return seq;
+			return new ReferenceSequence(name, contigIndex, seqBases);
 		}
 	}
 	@Override
@@ -146,17 +262,26 @@ public class TwoBitBufferedReferenceSequenceFile implements ReferenceSequenceFil
 	 */
 	private synchronized PackedReferenceSequence addToCache(String contig) {
 		if (cacheFile != null) {
+			boolean loaded = false;
 			if (cacheFile.exists()) {
 				log.info("Loading reference genome from cache " + cacheFile);
-				load(cacheFile);
-				log.info("Loading reference genome complete");
-			} else {
-				if (!cacheFile.getParentFile().canWrite()) {
+				try {
+					install(mapCache(cacheFile));
+					loaded = true;
+					log.info("Loading reference genome complete");
+				} catch (IOException e) {
+					log.warn("Unable to use reference genome cache " + cacheFile + ": " + e.getMessage());
+				}
+			}
+			if (!loaded) {
+				if (!cacheFile.getAbsoluteFile().getParentFile().canWrite()) {
 					log.warn("Cannot write to " + cacheFile + " not persisting 2bit compressed reference genome cache");
 				} else {
 					log.info("Saving reference genome cache to " + cacheFile);
-					save(cacheFile);
+					writeCache(cacheFile);
 					log.info("Saving reference genome cache complete");
+					// switch to the memory mapped cache so our heap copy can be released
+					load(cacheFile);
 				}
 			}
 			// Only attempt load/save once
@@ -0,0 +1,58 @@
+package au.edu.wehi.idsv.sam;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import htsjdk.samtools.SAMRecord;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Groups consecutive records with the same read name into templates,
+ * and templates into batches of approximately the given number of records.
+ *
+ * A template is never split across batches. Records without a read name
+ * are returned as single record templates.
+ */
+public class TemplateBatchIterator implements Iterator<List<List<SAMRecord>>> {
+	private final PeekingIterator<SAMRecord> it;
+	private final int batchSize;
+	/**
+	 * @param it records grouped by read name
+	 * @param batchSize minimum number of records in each batch. The final batch may be smaller.
+	 */
+	public TemplateBatchIterator(Iterator<SAMRecord> it, int batchSize) {
+		this.it = Iterators.peekingIterator(it);
+		this.batchSize = batchSize;
+	}
+	@Override
+	public boolean hasNext() {
+		return it.hasNext();
+	}
+	@Override
+	public List<List<SAMRecord>> next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		List<List<SAMRecord>> batch = new ArrayList<>();
+		int records = 0;
+		while (records < batchSize && it.hasNext()) {
+			List<SAMRecord> template = nextTemplate();
+			batch.add(template);
+			records += template.size();
+		}
+		return batch;
+	}
+	private List<SAMRecord> nextTemplate() {
+		List<SAMRecord> template = new ArrayList<>(2);
+		SAMRecord r = it.next();
+		template.add(r);
+		String readname = r.getReadName();
+		if (readname != null) {
+			while (it.hasNext() && readname.equals(it.peek().getReadName())) {
+				template.add(it.next());
+			}
+		}
+		return template;
+	}
+}
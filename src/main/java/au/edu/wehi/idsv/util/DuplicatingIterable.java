@@ -7,15 +7,22 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Duplicates the given iterator, feeding internal buffers from a background thread
- * 
+ *
+ * Records are written once to a ring buffer shared by all iterators. Each iterator
+ * tracks its own position in the buffer and the feeding thread only overwrites
+ * a slot once every iterator has consumed it. The last iterator to consume a
+ * record clears its slot so records are not retained once fully consumed. Waiting threads spin briefly
+ * before backing off to parking so no locks are taken on the record path.
+ *
  * This wrapper is thread-safe.
- * 
+ *
  * <b>Separate consumer threads are required as
  * iterator calls block the calling thread when sufficiently
  * far ahead of other iterators.
@@ -27,13 +34,38 @@ public class DuplicatingIterable<T> implements Iterable<T> {
 	private static final Log log = Log.getInstance(DuplicatingIterable.class);
 	private static final Object endofstream = new Object();
 	private static final AtomicInteger threadCount = new AtomicInteger(0);
+	/**
+	 * Maximum number of records written before they are made visible to the iterators
+	 */
+	private static final int MAX_PUBLISH_BATCH_SIZE = 16;
+	private static final int SPIN_ITERATIONS = 256;
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 	private final Iterator<T> it;
 	private final List<DuplicatingIterableIterator> iterators = new ArrayList<DuplicatingIterableIterator>();
-	private final List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>();
+	private final Object[] buffer;
+	/**
+	 * Number of iterators yet to consume the record in each buffer slot
+	 */
+	private final AtomicIntegerArray unconsumed;
+	private final int mask;
+	private final int capacity;
+	private final int publishBatchSize;
+	/**
+	 * Number of records visible to the iterators
+	 */
+	private volatile long published = 0;
+	/**
+	 * Set once all records have been published
+	 */
+	private volatile boolean finished = false;
+	/**
+	 * Set by iterators waiting on the feeding thread to publish records
+	 */
+	private volatile boolean consumerWaiting = false;
 	private int iteratorsRequested = 0;
 	private FeedingThread thread;
 	private volatile Exception error = null;
-	
+
 	/**
 	 * Duplicates an iterator
 	 * @param nIterators number of consuming iterators
@@ -45,9 +77,14 @@ public class DuplicatingIterable<T> implements Iterable<T> {
 		if (it == null) throw new IllegalArgumentException();
 		if (maxIteratorDifference <= 0) throw new IllegalArgumentException("buffer size must be greater than zero.");
 		this.it = it;
+		this.capacity = maxIteratorDifference;
+		int size = Integer.highestOneBit(Math.max(2, maxIteratorDifference) - 1) << 1;
+		this.buffer = new Object[size];
+		this.unconsumed = new AtomicIntegerArray(size);
+		this.mask = size - 1;
+		this.publishBatchSize = Math.max(1, Math.min(MAX_PUBLISH_BATCH_SIZE, maxIteratorDifference / 4));
 		for (int i = 0; i < nIterators; i++) {
-			queues.add(new ArrayBlockingQueue<Object>(maxIteratorDifference));
-			iterators.add(new DuplicatingIterableIterator(queues.get(i)));
+			iterators.add(new DuplicatingIterableIterator());
 		}
 		this.thread = new FeedingThread();
 		this.thread.setName(String.format("DuplicatingIterable-%d", threadCount.incrementAndGet()));
@@ -61,67 +98,132 @@ public class DuplicatingIterable<T> implements Iterable<T> {
 		if (iteratorsRequested >= iterators.size()) throw new IllegalStateException(String.format("Already created %d iterators", iterators.size()));
 		return iterators.get(iteratorsRequested++);
 	}
+	/**
+	 * Backs off the calling thread whilst waiting
+	 * @param iteration number of times the caller has already waited
+	 */
+	private static void backoff(int iteration) {
+		if (iteration < SPIN_ITERATIONS) {
+			return;
+		} else if (iteration < 2 * SPIN_ITERATIONS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1L << Math.min(20, iteration - 2 * SPIN_ITERATIONS)));
+		}
+	}
 	private class FeedingThread extends Thread {
+		/**
+		 * Number of records written to the buffer
+		 */
+		private long written = 0;
+		/**
+		 * Lower bound on the number of records consumed by every iterator
+		 */
+		private long consumedByAll = 0;
 		@Override
 		public void run() {
 			try {
 				while (it.hasNext()) {
 					T n = it.next();
-					for (BlockingQueue<Object> queue : queues) {
-						queue.put(n);
+					if (n == null) throw new NullPointerException("Null records cannot be duplicated");
+					awaitCapacity();
+					int slot = (int)(written & mask);
+					buffer[slot] = n;
+					// made visible to the iterators by the volatile write in publish()
+					unconsumed.lazySet(slot, iterators.size());
+					written++;
+					if (written - published >= publishBatchSize || consumerWaiting) {
+						publish();
 					}
 				}
-				eos();
 			} catch (InterruptedException e) {
 				log.warn("Interrupted waiting to feed next record - ending stream early");
-				for (BlockingQueue<Object> queue : queues) {
-					queue.clear();
-					try {
-						eos();
-					} catch (InterruptedException e1) {
-						log.error("Sanity check failure: end of stream writing should not have blocked.");
-					}
-				}
 			} catch (Exception e) {
 				log.error("Error traversing iterator", e);
 				error = e;
-				try {
-					eos();
-				} catch (InterruptedException e1) {
-					log.error("Interrupted when writing end of stream.");
-				}
+			} finally {
+				publish();
+				finished = true;
 			}
 		}
-		private void eos() throws InterruptedException {
-			for (BlockingQueue<Object> queue : queues) {
-				queue.put(endofstream);
+		private void publish() {
+			if (written != published) {
+				published = written;
 			}
+			consumerWaiting = false;
+		}
+		private void awaitCapacity() throws InterruptedException {
+			if (written - consumedByAll < capacity) return;
+			// iterators could be waiting for the records we have not yet published
+			publish();
+			for (int i = 0; ; i++) {
+				consumedByAll = minConsumed();
+				if (written - consumedByAll < capacity) return;
+				if (Thread.interrupted()) throw new InterruptedException();
+				backoff(i);
+			}
+		}
+		private long minConsumed() {
+			long min = written;
+			for (DuplicatingIterableIterator dii : iterators) {
+				min = Math.min(min, dii.consumed);
+			}
+			return min;
 		}
 	}
 	private class DuplicatingIterableIterator implements PeekingIterator<T> {
-		private final BlockingQueue<Object> queue;
 		/**
-		 * Since BlockingQueue does not allow nulls, we can use it as a
-		 * sentinal as to whether we have cached the next result 
+		 * Number of records taken from the buffer by this iterator
+		 */
+		private volatile long consumed = 0;
+		/**
+		 * Number of records known to be published
+		 */
+		private long available = 0;
+		/**
+		 * Since the buffer does not contain nulls, we can use it as a
+		 * sentinal as to whether we have cached the next result
 		 */
 		private Object nextRecord = null;
-		public DuplicatingIterableIterator(BlockingQueue<Object> queue) {
-			this.queue = queue;
-		}
 		private void ensureNext() {
 			if (nextRecord == endofstream) return;
 			if (nextRecord == null) {
-				try {
-					nextRecord = queue.take();
-				} catch (InterruptedException e) {
-					log.debug("Interrupted waiting for next record");
-					throw new RuntimeException(e);
-				}
+				nextRecord = take();
 			}
 			if (error != null) {
 				throw new RuntimeException(error);
 			}
 		}
+		private Object take() {
+			long position = consumed;
+			for (int i = 0; position >= available; i++) {
+				available = published;
+				if (position < available) break;
+				if (finished) {
+					// finished is set after the final publish
+					available = published;
+					if (position >= available) return endofstream;
+					break;
+				}
+				if (Thread.interrupted()) {
+					log.debug("Interrupted waiting for next record");
+					throw new RuntimeException(new InterruptedException());
+				}
+				if (i >= SPIN_ITERATIONS && !consumerWaiting) {
+					consumerWaiting = true;
+				}
+				backoff(i);
+			}
+			int slot = (int)(position & mask);
+			Object record = buffer[slot];
+			if (unconsumed.decrementAndGet(slot) == 0) {
+				// every iterator has moved past this record
+				buffer[slot] = null;
+			}
+			// slot can now be reused by the feeding thread
+			consumed = position + 1;
+			return record;
+		}
 		@Override
 		public boolean hasNext() {
 			ensureNext();
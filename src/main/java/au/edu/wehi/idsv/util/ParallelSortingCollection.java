@@ -0,0 +1,366 @@
+package au.edu.wehi.idsv.util;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.Defaults;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+import htsjdk.samtools.util.TempStreamFactory;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * External memory sort equivalent to htsjdk SortingCollection that makes use of multiple threads.
+ *
+ * Records are sorted in batches. Full batches are sorted and spilled to disk on background threads
+ * whilst the next batch is filled. Spilled batches are merged by a set of background threads each
+ * merging a subset of the spilled files, with the final merge of these subsets performed on the
+ * iterating thread. When there are more spilled files than can be opened at once, they are first
+ * merged into intermediate files.
+ *
+ * The sort is stable: records comparing equal are returned in the order they were added.
+ *
+ * This class is not thread-safe.
+ */
+public class ParallelSortingCollection<T> implements Iterable<T> {
+	private static final Log log = Log.getInstance(ParallelSortingCollection.class);
+	private static final TempStreamFactory tempStreamFactory = new TempStreamFactory();
+	/**
+	 * Default maximum number of spilled files open at any one time
+	 */
+	public static final int DEFAULT_MAX_OPEN_FILES = 256;
+	private final Class<T> componentType;
+	private final SortingCollection.Codec<T> codec;
+	private final Comparator<T> comparator;
+	private final Path tmpDir;
+	private final int batchSize;
+	private final int threads;
+	private final int maxOpenFiles;
+	private final ExecutorService threadpool;
+	private final List<Future<File>> spillTasks = new ArrayList<>();
+	private final List<File> spills = new ArrayList<>();
+	private T[] batch;
+	private int batchCount = 0;
+	private boolean doneAdding = false;
+	private boolean cleanedUp = false;
+	/**
+	 * @param componentType record class
+	 * @param codec record encoder/decoder used for spilling to disk
+	 * @param comparator sort order
+	 * @param maxRecordsInRam maximum number of records held in memory across all batches
+	 * @param tmpDir directory to spill batches to
+	 * @param threads number of batches to sort and spill concurrently
+	 */
+	public ParallelSortingCollection(Class<T> componentType, SortingCollection.Codec<T> codec, Comparator<T> comparator, int maxRecordsInRam, Path tmpDir, int threads) {
+		this(componentType, codec, comparator, maxRecordsInRam, tmpDir, threads, DEFAULT_MAX_OPEN_FILES);
+	}
+	/**
+	 * @param componentType record class
+	 * @param codec record encoder/decoder used for spilling to disk
+	 * @param comparator sort order
+	 * @param maxRecordsInRam maximum number of records held in memory across all batches
+	 * @param tmpDir directory to spill batches to
+	 * @param threads number of batches to sort and spill concurrently
+	 * @param maxOpenFiles maximum number of spilled files to read from at any one time
+	 */
+	public ParallelSortingCollection(Class<T> componentType, SortingCollection.Codec<T> codec, Comparator<T> comparator, int maxRecordsInRam, Path tmpDir, int threads, int maxOpenFiles) {
+		if (threads <= 0) throw new IllegalArgumentException("threads must be positive");
+		if (maxOpenFiles < 2) throw new IllegalArgumentException("maxOpenFiles must be at least 2");
+		this.componentType = componentType;
+		this.codec = codec;
+		this.comparator = comparator;
+		this.tmpDir = tmpDir;
+		this.threads = threads;
+		this.maxOpenFiles = maxOpenFiles;
+		// the batch being filled is in memory at the same time as every batch being spilled
+		this.batchSize = Math.max(1, maxRecordsInRam / (threads + 1));
+		this.threadpool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ParallelSortingCollection-%d").build());
+		this.batch = newArray(batchSize);
+	}
+	@SuppressWarnings("unchecked")
+	private T[] newArray(int size) {
+		return (T[])Array.newInstance(componentType, size);
+	}
+	public void add(T record) {
+		if (doneAdding) throw new IllegalStateException("Cannot add after calling doneAdding()");
+		batch[batchCount++] = record;
+		if (batchCount == batchSize) {
+			spill();
+		}
+	}
+	private void spill() {
+		// wait for the oldest spill to complete so we don't exceed our memory limit
+		int outstanding = spillTasks.size() - spills.size();
+		if (outstanding >= threads) {
+			spills.add(waitFor(spillTasks.get(spills.size())));
+		}
+		final T[] toSpill = batch;
+		final int count = batchCount;
+		spillTasks.add(threadpool.submit(() -> sortAndSpill(toSpill, count)));
+		batch = newArray(batchSize);
+		batchCount = 0;
+	}
+	private File sortAndSpill(T[] records, int count) throws IOException {
+		Arrays.sort(records, 0, count, comparator);
+		File file = Files.createTempFile(tmpDir, "gridss.sortingcollection.", ".tmp").toFile();
+		SortingCollection.Codec<T> c = codec.clone();
+		try (OutputStream os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(file), Defaults.BUFFER_SIZE)) {
+			c.setOutputStream(os);
+			for (int i = 0; i < count; i++) {
+				c.encode(records[i]);
+				records[i] = null;
+			}
+			os.flush();
+		}
+		return file;
+	}
+	/**
+	 * Merges the given spilled files into a single file, deleting the inputs
+	 */
+	private File mergeAndSpill(List<File> files) throws IOException {
+		File file = Files.createTempFile(tmpDir, "gridss.sortingcollection.", ".tmp").toFile();
+		SortingCollection.Codec<T> c = codec.clone();
+		try (MergingIterator it = new MergingIterator(openSpills(files))) {
+			try (OutputStream os = tempStreamFactory.wrapTempOutputStream(new FileOutputStream(file), Defaults.BUFFER_SIZE)) {
+				c.setOutputStream(os);
+				while (it.hasNext()) {
+					c.encode(it.next());
+				}
+				os.flush();
+			}
+		}
+		for (File f : files) {
+			f.delete();
+		}
+		return file;
+	}
+	/**
+	 * Merges spilled files until there are few enough that all can be opened at once.
+	 */
+	private void mergeSpills() {
+		// each concurrent merge gets an equal share of the open file limit
+		int fanIn = Math.max(2, maxOpenFiles / threads);
+		while (spills.size() > maxOpenFiles) {
+			List<Future<File>> mergeTasks = new ArrayList<>();
+			for (int i = 0; i < spills.size(); i += fanIn) {
+				// contiguous subsets retain stability
+				final List<File> subset = new ArrayList<>(spills.subList(i, Math.min(spills.size(), i + fanIn)));
+				mergeTasks.add(threadpool.submit(() -> subset.size() == 1 ? subset.get(0) : mergeAndSpill(subset)));
+			}
+			log.debug(String.format("Merging %d spilled files into %d", spills.size(), mergeTasks.size()));
+			// merged files replace their inputs as soon as they are written so cleanup() can find them
+			for (int i = 0; i < mergeTasks.size(); i++) {
+				File merged = waitFor(mergeTasks.get(i));
+				int end = Math.min(spills.size(), i + fanIn);
+				spills.subList(i, end).clear();
+				spills.add(i, merged);
+			}
+		}
+	}
+	private List<CloseableIterator<T>> openSpills(List<File> files) {
+		List<CloseableIterator<T>> result = new ArrayList<>(files.size());
+		try {
+			for (File f : files) {
+				result.add(new FileRecordIterator(f));
+			}
+		} catch (RuntimeException e) {
+			for (CloseableIterator<T> it : result) {
+				CloserUtil.close(it);
+			}
+			throw e;
+		}
+		return result;
+	}
+	private static File waitFor(Future<File> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw new RuntimeIOException(e.getCause());
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	/**
+	 * Indicates that all records have been added.
+	 */
+	public void doneAdding() {
+		if (doneAdding) return;
+		doneAdding = true;
+		try {
+			if (spillTasks.isEmpty()) {
+				// everything fits in memory
+				Arrays.parallelSort(batch, 0, batchCount, comparator);
+			} else {
+				if (batchCount > 0) {
+					spill();
+				}
+				batch = null;
+				while (spills.size() < spillTasks.size()) {
+					spills.add(waitFor(spillTasks.get(spills.size())));
+				}
+				log.debug(String.format("Sorted %d batches", spills.size()));
+				mergeSpills();
+			}
+		} finally {
+			threadpool.shutdown();
+		}
+	}
+	@Override
+	public CloseableIterator<T> iterator() {
+		if (!doneAdding) throw new IllegalStateException("Cannot iterate before calling doneAdding()");
+		if (cleanedUp) throw new IllegalStateException("Cannot iterate after calling cleanup()");
+		if (spills.isEmpty()) {
+			return new InMemoryIterator();
+		}
+		int groups = Math.min(threads, spills.size());
+		List<CloseableIterator<T>> merged = new ArrayList<>(groups);
+		for (int i = 0; i < groups; i++) {
+			// contiguous subsets retain stability
+			List<File> subset = spills.subList(i * spills.size() / groups, (i + 1) * spills.size() / groups);
+			CloseableIterator<T> it = new MergingIterator(openSpills(subset));
+			if (groups > 1) {
+				it = new AsyncBufferedIterator<>(it, "ParallelSortingCollection-merge" + i);
+			}
+			merged.add(it);
+		}
+		return groups == 1 ? merged.get(0) : new MergingIterator(merged);
+	}
+	/**
+	 * Deletes all spilled files
+	 */
+	public void cleanup() {
+		cleanedUp = true;
+		threadpool.shutdownNow();
+		for (Future<File> task : spillTasks) {
+			try {
+				File f = task.get();
+				if (f.exists()) f.delete();
+			} catch (InterruptedException | ExecutionException e) {
+				// nothing to clean up
+			}
+		}
+		for (File f : spills) {
+			if (f.exists()) f.delete();
+		}
+		batch = null;
+	}
+	private class InMemoryIterator implements CloseableIterator<T> {
+		private int offset = 0;
+		@Override
+		public boolean hasNext() {
+			return offset < batchCount;
+		}
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return batch[offset++];
+		}
+		@Override
+		public void close() {
+		}
+	}
+	private class FileRecordIterator implements CloseableIterator<T> {
+		private final File file;
+		private final InputStream is;
+		private final SortingCollection.Codec<T> c;
+		private T next;
+		public FileRecordIterator(File file) {
+			this.file = file;
+			try {
+				this.is = tempStreamFactory.wrapTempInputStream(new FileInputStream(file), Defaults.BUFFER_SIZE);
+			} catch (FileNotFoundException e) {
+				throw new RuntimeIOException(file.toString(), e);
+			}
+			this.c = codec.clone();
+			this.c.setInputStream(is);
+			advance();
+		}
+		private void advance() {
+			next = c.decode();
+			if (next == null) {
+				close();
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			T result = next;
+			advance();
+			return result;
+		}
+		@Override
+		public void close() {
+			CloserUtil.close(is);
+		}
+		@Override
+		public String toString() {
+			return file.toString();
+		}
+	}
+	/**
+	 * Merges sorted iterators. Ties are broken by iterator order.
+	 */
+	private class MergingIterator implements CloseableIterator<T> {
+		private final List<CloseableIterator<T>> iterators;
+		private final PriorityQueue<Integer> queue;
+		private final List<PeekingIterator<T>> peeking;
+		public MergingIterator(List<CloseableIterator<T>> iterators) {
+			this.iterators = iterators;
+			this.peeking = new ArrayList<>(iterators.size());
+			for (CloseableIterator<T> it : iterators) {
+				peeking.add(Iterators.peekingIterator(it));
+			}
+			this.queue = new PriorityQueue<>(Math.max(1, iterators.size()), (a, b) -> {
+				int cmp = comparator.compare(peeking.get(a).peek(), peeking.get(b).peek());
+				if (cmp == 0) cmp = Integer.compare(a, b);
+				return cmp;
+			});
+			for (int i = 0; i < peeking.size(); i++) {
+				if (peeking.get(i).hasNext()) {
+					queue.add(i);
+				}
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			int index = queue.poll();
+			PeekingIterator<T> it = peeking.get(index);
+			T result = it.next();
+			if (it.hasNext()) {
+				queue.add(index);
+			}
+			return result;
+		}
+		@Override
+		public void close() {
+			for (CloseableIterator<T> it : iterators) {
+				CloserUtil.close(it);
+			}
+		}
+	}
+}
@@ -22,12 +22,17 @@ import java.util.function.Function;
  */
 public class ParallelTransformIterator<T, U> implements Iterator<U> {
 	private static class TransformResult<U> {
-		public TransformResult(final long ordinal, final U result) {
+		public TransformResult(final long ordinal, final U result, final Throwable error) {
 			this.ordinal = ordinal;
 			this.result = result;
+			this.error = error;
 		}
 		public final long ordinal;
 		public final U result;
+		/**
+		 * Exception or error thrown by the transform
+		 */
+		public final Throwable error;
 		@SuppressWarnings("rawtypes")
 		public static Ordering<TransformResult> byOrdinal = Ordering.natural().onResultOf((TransformResult tr) -> tr.ordinal);
 	}
@@ -88,11 +93,18 @@ public class ParallelTransformIterator<T, U> implements Iterator<U> {
 			}
 			results.add(record);
 		}
-		U result = results.poll().result;
+		TransformResult<U> result = results.poll();
 		dispatched--;
 		lastOrdinal++;
+		if (result.error instanceof RuntimeException) {
+			throw (RuntimeException)result.error;
+		} else if (result.error instanceof Error) {
+			throw (Error)result.error;
+		} else if (result.error != null) {
+			throw new RuntimeException(result.error);
+		}
 		dispatch();
-		return result;
+		return result.result;
 	}
 	/**
 	 * Dispatches records until we have lookahead records.
@@ -106,7 +118,12 @@ public class ParallelTransformIterator<T, U> implements Iterator<U> {
 	}
 	private void dispatch(final long ordinal, final T record) {
 		threadpool.execute(() -> {
-			completed.add(new TransformResult<U>(ordinal, f.apply(record)));
+			try {
+				completed.add(new TransformResult<U>(ordinal, f.apply(record), null));
+			} catch (Throwable e) {
+				// rethrow on the consuming thread instead of blocking it forever
+				completed.add(new TransformResult<U>(ordinal, null, e));
+			}
 		});
 	}
 }
@@ -1,66 +1,92 @@
 package au.edu.wehi.idsv.util;
 
 import au.edu.wehi.idsv.visualisation.TrackedBuffer;
-import com.google.common.base.Function;
-import com.google.common.collect.*;
-import com.google.common.primitives.Longs;
-import htsjdk.samtools.util.Log;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
 
 /**
  * Sorts a mostly-sorted input sequence.
- * 
+ *
  * As SAM/BAM input is sorted by alignment start position, sorting on evidence
  * position does not require a full sort as the difference between breakend
  * start position and the alignment start position is bounded by the fragment size
  * for read pair evidence, and the read length for soft clip evidence.
- * 
+ *
+ * Records are buffered in a ring of fixed-width coordinate buckets spanning the
+ * sorting window. Only the bucket at the start of the window is sorted.
+ *
  * @author Daniel Cameron
  *
  * @param <T>
  */
 public class WindowedSortingIterator<T> extends AbstractIterator<T> implements TrackedBuffer {
-	private static final Log log = Log.getInstance(WindowedSortingIterator.class);
-	private final PriorityQueue<T> calls; 
+	/**
+	 * Number of buckets spanning the sorting window
+	 */
+	private static final int WINDOW_BUCKETS = 256;
 	private final long windowSize;
 	private final PeekingIterator<T> it;
-	private final Function<T, Long> toCoordinate;
-	private long lastPosition = Long.MIN_VALUE;
+	private final ToLongFunction<T> toCoordinate;
 	private final Comparator<T> sortOrder;
+	private final long bucketWidth;
+	private Bucket<T>[] buckets;
+	/**
+	 * Bucket containing the start of the window. All preceding buckets are empty.
+	 */
+	private long head;
+	private int size = 0;
+	private long nextPosition;
+	private boolean nextPositionValid = false;
 	private T lastEmitted = null;
 	/**
 	 * Creates a new sorted iterator from a mostly-sorted sequence
 	 * @param it mostly-sorted sequence. Records cannot be out of order by more than windowSize
 	 * @param transform Coordinate transform for position of record.
-	 * @param windowSize Maximum coordinate-space length that records can deviate from a sorted sequence 
+	 * @param windowSize Maximum coordinate-space length that records can deviate from a sorted sequence
 	 */
-	public WindowedSortingIterator(final Iterator<T> it, final Function<T, Long> transform, final long windowSize) {
-		this(it, transform, windowSize, new Ordering<T>() {
-			public int compare(T arg0, T arg1) {
-				return Longs.compare(transform.apply(arg0), transform.apply(arg1));
-			  }
-		});
+	public WindowedSortingIterator(final Iterator<T> it, final ToLongFunction<T> transform, final long windowSize) {
+		this(it, transform, windowSize, Comparator.comparingLong(transform));
 	}
-	public WindowedSortingIterator(final Iterator<T> it, final Function<T, Long> transform, final long windowSize, final Comparator<T> sortOrder) {
+	/**
+	 * Creates a new sorted iterator from a mostly-sorted sequence
+	 * @param it mostly-sorted sequence. Records cannot be out of order by more than windowSize
+	 * @param transform Coordinate transform for position of record.
+	 * @param windowSize Maximum coordinate-space length that records can deviate from a sorted sequence
+	 * @param sortOrder output order. Must be consistent with the coordinate transform.
+	 */
+	public WindowedSortingIterator(final Iterator<T> it, final ToLongFunction<T> transform, final long windowSize, final Comparator<T> sortOrder) {
 		this.windowSize = windowSize;
 		this.it = Iterators.peekingIterator(it);
 		this.toCoordinate = transform;
-		this.calls = new PriorityQueue<T>(32, sortOrder);
 		this.sortOrder = sortOrder;
+		this.bucketWidth = Math.max(1, (windowSize + WINDOW_BUCKETS) / WINDOW_BUCKETS);
+		this.buckets = newBuckets(WINDOW_BUCKETS + 2);
+	}
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T> Bucket<T>[] newBuckets(int minSize) {
+		Bucket<T>[] array = new Bucket[Math.max(2, Integer.highestOneBit(minSize - 1) << 1)];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = new Bucket<>();
+		}
+		return array;
+	}
+	private Bucket<T> getBucket(long bucket) {
+		return buckets[(int)(bucket & (buckets.length - 1))];
 	}
 	@Override
 	protected T computeNext() {
 		advanceUnderlying();
-		if (calls.isEmpty()) return endOfData();
-		T next = calls.poll();
-		long nextPos = toCoordinate.apply(next);
-		if (nextPos < lastPosition) {
-			log.error("Sanity check failure: sorting window size too small: evidence out of order at linear coordinate" + nextPos);
-		}
+		if (size == 0) return endOfData();
+		T next = headBucket().poll(sortOrder);
+		size--;
 		if (lastEmitted != null && sortOrder.compare(lastEmitted, next) > 0) {
 			throw new IllegalStateException(String.format("Unable to sort output with window size of %d. %s emitted before %s", windowSize, lastEmitted, next));
 		}
@@ -68,15 +94,106 @@ public class WindowedSortingIterator<T> extends AbstractIterator<T> implements T
 		return next;
 	}
 	private void advanceUnderlying() {
-		while (it.hasNext() && (calls.isEmpty() || nextRecordCouldBeAtStartOfWindow())) {
-			T next = it.next();
-			calls.add(next);
+		while (it.hasNext()) {
+			if (!nextPositionValid) {
+				nextPosition = toCoordinate.applyAsLong(it.peek());
+				nextPositionValid = true;
+			}
+			if (size > 0 && nextPosition > headBucket().peekPosition() + windowSize) {
+				// next record cannot be at the start of the window
+				break;
+			}
+			add(it.next(), nextPosition);
+			nextPositionValid = false;
 		}
 	}
-	private boolean nextRecordCouldBeAtStartOfWindow() {
-		long bufferPosition = toCoordinate.apply(calls.peek());
-		long nextPosition = toCoordinate.apply(it.peek());
-		return nextPosition <= bufferPosition + windowSize;
+	private void add(T record, long position) {
+		long bucket = Math.floorDiv(position, bucketWidth);
+		if (size == 0) {
+			head = bucket;
+		} else if (bucket < head) {
+			// out of order record: place in the bucket at the start of the window
+			bucket = head;
+		}
+		if (bucket - head >= buckets.length) {
+			grow(bucket - head + 1);
+		}
+		getBucket(bucket).add(record, position, sortOrder);
+		size++;
+	}
+	private void grow(long minSize) {
+		if (minSize > Integer.MAX_VALUE / 2) {
+			throw new IllegalStateException(String.format("Unable to sort output with window size of %d: records span too large a region", windowSize));
+		}
+		Bucket<T>[] newBuckets = newBuckets((int)minSize);
+		for (long i = head; i < head + buckets.length; i++) {
+			newBuckets[(int)(i & (newBuckets.length - 1))] = getBucket(i);
+		}
+		buckets = newBuckets;
+	}
+	private Bucket<T> headBucket() {
+		Bucket<T> b = getBucket(head);
+		while (b.isEmpty()) {
+			head++;
+			b = getBucket(head);
+		}
+		return b;
+	}
+	/**
+	 * Records in a coordinate bucket. Records are sorted only when the bucket
+	 * is at the start of the window and records are removed from the bucket.
+	 */
+	private static class Bucket<T> {
+		private Object[] records = new Object[0];
+		private long[] positions = new long[0];
+		private int offset = 0;
+		private int count = 0;
+		private boolean sorted = true;
+		private long minPosition;
+		public boolean isEmpty() {
+			return offset == count;
+		}
+		public void add(T record, long position, Comparator<T> sortOrder) {
+			if (isEmpty()) {
+				offset = 0;
+				count = 0;
+				sorted = true;
+				minPosition = position;
+			} else {
+				if (sorted) {
+					minPosition = positions[offset];
+					sorted = position >= positions[count - 1] && sortOrder.compare(get(count - 1), record) <= 0;
+				}
+				minPosition = Math.min(minPosition, position);
+			}
+			if (count == records.length) {
+				int newSize = Math.max(4, records.length * 2);
+				records = Arrays.copyOf(records, newSize);
+				positions = Arrays.copyOf(positions, newSize);
+			}
+			records[count] = record;
+			positions[count] = position;
+			count++;
+		}
+		public long peekPosition() {
+			return sorted ? positions[offset] : minPosition;
+		}
+		@SuppressWarnings("unchecked")
+		public T poll(Comparator<T> sortOrder) {
+			if (!sorted) {
+				Arrays.sort((T[])records, offset, count, sortOrder);
+				// positions are consistent with the sort order
+				Arrays.sort(positions, offset, count);
+				sorted = true;
+			}
+			T record = get(offset);
+			records[offset++] = null;
+			return record;
+		}
+		@SuppressWarnings("unchecked")
+		private T get(int i) {
+			return (T)records[i];
+		}
 	}
 	private String trackedBufferName_calls = "windowedSort";
 	@Override
@@ -86,7 +203,7 @@ public class WindowedSortingIterator<T> extends AbstractIterator<T> implements T
 	@Override
 	public List<NamedTrackedBuffer> currentTrackedBufferSizes() {
 		return ImmutableList.of(
-				new NamedTrackedBuffer(trackedBufferName_calls, calls.size())
+				new NamedTrackedBuffer(trackedBufferName_calls, size)
 				);
 	}
 }
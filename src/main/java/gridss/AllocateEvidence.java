@@ -6,22 +6,40 @@ import au.edu.wehi.idsv.SequentialEvidenceAllocator.VariantEvidenceSupport;
 import au.edu.wehi.idsv.configuration.VariantCallingConfiguration;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
+import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.ParallelTransformIterator;
 import au.edu.wehi.idsv.validation.OrderAssertingIterator;
 import au.edu.wehi.idsv.validation.PairedEvidenceTracker;
+import au.edu.wehi.idsv.vcf.VcfFileUtil;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import gridss.cmdline.VcfTransformCommandLineProgram;
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 @CommandLineProgramProperties(
         summary = "Evidence reallocation is required to ensure that any given read/read pair/assembly "
@@ -35,6 +53,10 @@ import java.util.concurrent.ExecutorService;
 )
 public class AllocateEvidence extends VcfTransformCommandLineProgram {
 	private static final Log log = Log.getInstance(AllocateEvidence.class);
+	/**
+	 * Index of the raw assembly file written to the working directory, or null if the raw assemblies are read using their own index
+	 */
+	private File rawAssemblyIndex = null;
 	@Argument(doc="Evidence allocation strategy used to uniquely assign evidence.")
 	public EvidenceAllocationStrategy ALLOCATION_STRATEGY = EvidenceAllocationStrategy.GREEDY;
 	@Argument(doc="Indicates whether supporting assemblies should be allocated.")
@@ -57,17 +79,64 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 		}
 		return evidenceIt;
 	}
-	public CloseableIterator<DirectedEvidence> getAssemblyIterator() {
+	/**
+	 * Gets the reads with a breakend overlapping the given intervals
+	 */
+	public CloseableIterator<DirectedEvidence> getReadIterator(QueryInterval[] intervals) {
 		CloseableIterator<DirectedEvidence> evidenceIt;
-		evidenceIt = getAssemblySource().iterator(SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
+		List<SAMEvidenceSource> sources = getSamEvidenceSources();
+		sources.stream().forEach(ses -> ses.assertPreprocessingComplete());
+		evidenceIt = SAMEvidenceSource.mergedIterator(ImmutableList.<SAMEvidenceSource>builder().addAll(sources).build(), intervals, SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
 		if (Defaults.SANITY_CHECK_ITERATORS) {
 			evidenceIt = new AutoClosingIterator<>(
-					new PairedEvidenceTracker<>("Assemblies",
-							new OrderAssertingIterator<>(evidenceIt, DirectedEvidenceOrder.ByNatural)),
+					new OrderAssertingIterator<>(evidenceIt, DirectedEvidenceOrder.ByNatural),
 					evidenceIt);
 		}
 		return evidenceIt;
 	}
+	public CloseableIterator<DirectedEvidence> getAssemblyIterator() {
+		return getAssemblyIterator(null);
+	}
+	/**
+	 * Gets the assemblies with a breakend overlapping the given intervals
+	 * @param intervals intervals to return assemblies for. Use null to return all assemblies.
+	 */
+	public CloseableIterator<DirectedEvidence> getAssemblyIterator(QueryInterval[] intervals) {
+		CloseableIterator<DirectedEvidence> evidenceIt;
+		if (intervals == null) {
+			evidenceIt = getAssemblySource().iterator(SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
+		} else {
+			evidenceIt = getAssemblySource().iterator(intervals, SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
+		}
+		if (Defaults.SANITY_CHECK_ITERATORS) {
+			if (intervals == null) {
+				evidenceIt = new AutoClosingIterator<>(
+						new PairedEvidenceTracker<>("Assemblies",
+								new OrderAssertingIterator<>(evidenceIt, DirectedEvidenceOrder.ByNatural)),
+						evidenceIt);
+			} else {
+				// both sides of a breakpoint are only guaranteed to be present when traversing the whole genome
+				evidenceIt = new AutoClosingIterator<>(
+						new OrderAssertingIterator<>(evidenceIt, DirectedEvidenceOrder.ByNatural),
+						evidenceIt);
+			}
+		}
+		return evidenceIt;
+	}
+	@Override
+	protected CloseableIterator<VariantContextDirectedEvidence> transformBreakends(ExecutorService threadpool) {
+		if (threadpool != null) {
+			List<QueryInterval[]> chunks = getContext().getReference().getIntervals(getContext().getConfig().chunkSize, getContext().getConfig().chunkSequenceChangePenalty);
+			if (chunks.size() > 1 && ensureRawAssemblyIndexed()) {
+				File inputIndex = ensureInputIndex();
+				if (inputIndex != null) {
+					log.info(String.format("Allocating evidence in %d chunks", chunks.size()));
+					return allocateByChunk(chunks, inputIndex, threadpool);
+				}
+			}
+		}
+		return super.transformBreakends(threadpool);
+	}
 	@Override
 	public CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, ExecutorService threadpool) {
 		log.info("Allocating evidence"); 
@@ -76,11 +145,188 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 		CloseableIterator<DirectedEvidence> assemblies = new AsyncBufferedIterator<>(getAssemblyIterator(), "assembly-allocation");
 		Iterator<VariantEvidenceSupport> annotator = new SequentialEvidenceAllocator(getContext(), calls, reads, assemblies, SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), true);
 		CloseableIterator<VariantEvidenceSupport> bufferedAnnotator = new AsyncBufferedIterator<>(annotator, "annotator", 2, 8);
-		Iterator<VariantContextDirectedEvidence> it = Iterators.transform(bufferedAnnotator, bp -> annotate(bp));
+		Iterator<VariantContextDirectedEvidence> it;
+		if (threadpool == null) {
+			it = Iterators.transform(bufferedAnnotator, bp -> annotate(bp));
+		} else {
+			// call construction is independent for each call so can be performed in parallel
+			it = new ParallelTransformIterator<>(bufferedAnnotator, bp -> annotate(bp), WORKER_THREADS + 1, threadpool);
+		}
 		it = Iterators.filter(it, v -> v != null);
 		return new AutoClosingIterator<>(it, calls, rawReads, reads, assemblies, bufferedAnnotator);
 	}
+	/**
+	 * Number of bases each chunk is padded by when allocating evidence by chunk.
+	 *
+	 * The allocator buffers calls up to three window sizes ahead of the evidence being allocated.
+	 * Padding by an additional window ensures that evidence supporting calls owned by a chunk
+	 * sees the same set of candidate calls as a traversal of the whole genome would.
+	 */
+	private static int getChunkPadding(int windowSize) {
+		return 4 * (windowSize + 1);
+	}
+	/**
+	 * Allocates evidence independently for each chunk of the genome.
+	 *
+	 * Each chunk allocates all calls and evidence in the padded chunk interval
+	 * but only writes the calls with a VCF position inside the chunk itself.
+	 * Evidence near a chunk boundary is allocated by both chunks, but since
+	 * allocation is deterministic and both see the same candidate calls,
+	 * the evidence is allocated to the same call, which only the chunk
+	 * owning that call writes.
+	 */
+	private CloseableIterator<VariantContextDirectedEvidence> allocateByChunk(List<QueryInterval[]> chunks, File inputIndex, ExecutorService threadpool) {
+		int windowSize = SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource());
+		VCFHeader header = getOutputHeader();
+		List<File> chunkVcfs = new ArrayList<>();
+		List<Future<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < chunks.size(); i++) {
+			QueryInterval[] chunk = chunks.get(i);
+			File f = getContext().getFileSystemContext().getAllocateEvidenceChunkVcf(OUTPUT_VCF, i);
+			int chunkNumber = i;
+			chunkVcfs.add(f);
+			tasks.add(threadpool.submit(() -> { allocateChunk(f, chunkNumber, chunk, inputIndex, windowSize, new VCFHeader(header)); return null; }));
+		}
+		runTasks(tasks);
+		File merged = FileSystemContext.getWorkingFileFor(OUTPUT_VCF, "gridss.tmp.allocated.");
+		try {
+			VcfFileUtil.concat(getContext().getDictionary(), chunkVcfs, merged);
+			if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
+				for (File f : chunkVcfs) {
+					FileHelper.delete(f, true);
+				}
+				if (inputIndex.equals(getContext().getFileSystemContext().getAllocateEvidenceInputIndex(OUTPUT_VCF))) {
+					FileHelper.delete(inputIndex, true);
+				}
+				if (rawAssemblyIndex != null) {
+					FileHelper.delete(rawAssemblyIndex, true);
+					rawAssemblyIndex = null;
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		VCFFileReader vcfReader = new VCFFileReader(merged, false);
+		CloseableIterator<VariantContext> it = vcfReader.iterator();
+		Iterator<IdsvVariantContext> idsvIt = Iterators.transform(it, variant -> IdsvVariantContext.create(getContext(), null, variant));
+		Iterator<VariantContextDirectedEvidence> beit = Iterators.filter(idsvIt, VariantContextDirectedEvidence.class);
+		return new AutoClosingIterator<>(beit, it, vcfReader, () -> FileHelper.delete(merged, true));
+	}
+	private void allocateChunk(File output, int chunkNumber, QueryInterval[] chunk, File inputIndex, int windowSize, VCFHeader header) throws IOException {
+		String chunkMsg = String.format("chunk %d (%s:%d-%s:%d)", chunkNumber,
+				getContext().getDictionary().getSequence(chunk[0].referenceIndex).getSequenceName(), chunk[0].start,
+				getContext().getDictionary().getSequence(chunk[chunk.length-1].referenceIndex).getSequenceName(), chunk[chunk.length-1].end);
+		log.debug("Allocating evidence in ", chunkMsg);
+		QueryInterval[] padded = QueryIntervalUtil.padIntervals(getContext().getDictionary(), chunk, getChunkPadding(windowSize));
+		File tmp = FileSystemContext.getWorkingFileFor(output);
+		try (CloseableIterator<VariantContextDirectedEvidence> calls = getBreakends(INPUT_VCF, inputIndex, padded);
+				CloseableIterator<DirectedEvidence> reads = annotateAssembly(getReadIterator(padded), padded);
+				CloseableIterator<DirectedEvidence> assemblies = getAssemblyIterator(padded);
+				VariantContextWriter writer = getContext().getVariantContextWriter(tmp, header, false)) {
+			Iterator<VariantEvidenceSupport> annotator = new SequentialEvidenceAllocator(getContext(), calls, reads, assemblies, windowSize, true);
+			while (annotator.hasNext()) {
+				VariantEvidenceSupport ves = annotator.next();
+				// calls in the padding are written by the chunk containing them
+				if (QueryIntervalUtil.overlaps(chunk, ves.variant.getBreakendSummary().referenceIndex, ves.variant.getStart())) {
+					VariantContextDirectedEvidence v = annotate(ves);
+					if (v != null) {
+						writer.add(v);
+					}
+				}
+			}
+		}
+		FileHelper.move(tmp, output, true);
+	}
+	private void runTasks(List<Future<Void>> tasks) {
+		// Run as many tasks as we can before dying
+		Exception firstException = null;
+		for (Future<Void> f : tasks) {
+			try {
+				f.get();
+			} catch (Exception e) {
+				if (firstException == null) {
+					firstException = e;
+				}
+			}
+		}
+		if (firstException != null) {
+			log.error(firstException, "Fatal error during evidence allocation");
+			throw new RuntimeException(firstException);
+		}
+	}
+	/**
+	 * Chunked allocation requires random access to the raw assemblies.
+	 * The raw assembly file is not indexed by the assembly step so we index it into the working directory.
+	 * @return true if the raw assemblies can be queried by interval
+	 */
+	private boolean ensureRawAssemblyIndexed() {
+		File assemblyFile = getAssemblySource().getFile();
+		if (assemblyFile == null || !assemblyFile.exists()) {
+			// nothing to associate
+			return true;
+		}
+		SamReader reader = getContext().getSamReader(assemblyFile);
+		try {
+			if (reader.hasIndex()) {
+				return true;
+			}
+		} finally {
+			CloserUtil.close(reader);
+		}
+		File svFile = getAssemblySource().getSVFile();
+		if (svFile == null || !svFile.exists()) {
+			log.warn("Missing " + svFile + ". Allocating evidence on a single thread.");
+			return false;
+		}
+		File index = getContext().getFileSystemContext().getAllocateEvidenceAssemblyIndex(OUTPUT_VCF);
+		log.info("Indexing " + assemblyFile);
+		reader = getContext().getSamReaderFactory().enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).open(assemblyFile);
+		try {
+			BAMIndexer.createIndex(reader, index);
+		} catch (Exception e) {
+			log.warn("Unable to index " + assemblyFile + ". Allocating evidence on a single thread: " + e.getMessage());
+			return false;
+		} finally {
+			CloserUtil.close(reader);
+		}
+		rawAssemblyIndex = index;
+		return true;
+	}
+	private SamReader getRawAssemblyReader(File assemblyFile) {
+		if (rawAssemblyIndex == null) {
+			return getContext().getSamReader(assemblyFile);
+		}
+		return getContext().getSamReaderFactory().open(SamInputResource.of(assemblyFile).index(rawAssemblyIndex));
+	}
+	/**
+	 * Gets an index of the input VCF, creating one if required.
+	 * @return index file, or null if the input VCF could not be indexed
+	 */
+	private File ensureInputIndex() {
+		File index = Tribble.indexFile(INPUT_VCF);
+		if (index.exists()) {
+			return index;
+		}
+		index = Tribble.tabixIndexFile(INPUT_VCF);
+		if (index.exists()) {
+			return index;
+		}
+		index = getContext().getFileSystemContext().getAllocateEvidenceInputIndex(OUTPUT_VCF);
+		try {
+			IndexFactory.createLinearIndex(INPUT_VCF, new VCFCodec()).write(index);
+		} catch (Exception e) {
+			log.warn("Unable to index " + INPUT_VCF + ". Allocating evidence on a single thread: " + e.getMessage());
+			return null;
+		}
+		return index;
+	}
 	private CloseableIterator<DirectedEvidence> annotateAssembly(CloseableIterator<DirectedEvidence> it) {
+		return annotateAssembly(it, null);
+	}
+	/**
+	 * @param intervals intervals of the evidence to be annotated. Use null if annotating the whole genome.
+	 */
+	private CloseableIterator<DirectedEvidence> annotateAssembly(CloseableIterator<DirectedEvidence> it, QueryInterval[] intervals) {
 		AssemblyEvidenceSource aes = getAssemblySource();
 		// need to use the raw breakend assembly file (prior to realignment) so we annotate correctly
 		File assemblyFile = aes.getFile();
@@ -91,8 +337,8 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 		int windowSize = aes.getMaxAssemblyLength() + 2 * aes.getMaxConcordantFragmentSize();
 		// defensive over-eager loading
 		windowSize *= 2;
-		SamReader reader = getContext().getSamReader(assemblyFile);
-		SAMRecordIterator assit = reader.iterator();
+		SamReader reader = getRawAssemblyReader(assemblyFile);
+		SAMRecordIterator assit = intervals == null ? reader.iterator() : reader.queryOverlapping(QueryIntervalUtil.padIntervals(getContext().getDictionary(), intervals, windowSize));
 		return new AutoClosingIterator<>(new AssemblyAssociator(it, assit, windowSize), assit, reader);
 	}
 	private VariantContextDirectedEvidence annotate(VariantEvidenceSupport ves) {
@@ -2,12 +2,14 @@ package gridss;
 
 import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
-import au.edu.wehi.idsv.sam.NmTagIterator;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
-import au.edu.wehi.idsv.sam.TemplateTagsIterator;
+import au.edu.wehi.idsv.sam.TemplateBatchIterator;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.ParallelTransformIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import gridss.cmdline.ReferenceCommandLineProgram;
 import htsjdk.samtools.*;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
@@ -21,9 +23,14 @@ import picard.cmdline.StandardOptionDefinitions;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CommandLineProgramProperties(
 		summary = "Populates computed SAM tags. "
@@ -37,6 +44,10 @@ import java.util.Set;
 )
 public class ComputeSamTags extends ReferenceCommandLineProgram {
 	private static final Log log = Log.getInstance(ComputeSamTags.class);
+	/**
+	 * Minimum number of records in each batch of templates dispatched to a worker thread
+	 */
+	private static final int BATCH_SIZE = 256;
 	@Argument(shortName=StandardOptionDefinitions.INPUT_SHORT_NAME, doc="Input BAM file grouped by read name.")
     public File INPUT;
 	@Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Annotated BAM file.")
@@ -54,6 +65,8 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 	public boolean FIX_DUPLICATE_FLAG = true;
 	@Argument(doc="Recalculates the supplementary flag based on the SA tag. The supplementary flag should be set on all split read alignments except one.", optional=true)
 	public boolean RECALCULATE_SA_SUPPLEMENTARY = true;
+	@Argument(doc="Number of worker threads to spawn. Defaults to number of cores available.", shortName="THREADS")
+	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
 	@Argument(shortName="T", doc="Tags to calculate")
 	public Set<String> TAGS = Sets.newHashSet(
 			SAMTag.NM.name(),
@@ -69,6 +82,7 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
     	validateParameters();
     	SamReaderFactory readerFactory = SamReaderFactory.makeDefault().referenceSequence(REFERENCE_SEQUENCE);
     	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
+    	ExecutorService threadpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Worker-%d").build());
     	try {
     		try (SamReader reader = readerFactory.open(INPUT)) {
     			SAMFileHeader header = reader.getFileHeader();
@@ -87,7 +101,7 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
     			try (SAMRecordIterator it = reader.iterator()) {
     				File tmpoutput = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(OUTPUT, "gridss.tmp.ComputeSamTags.") : OUTPUT;
     				try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpoutput)) {
-    					compute(it, writer, getReference(), TAGS, SOFTEN_HARD_CLIPS, FIX_MATE_INFORMATION, FIX_DUPLICATE_FLAG, RECALCULATE_SA_SUPPLEMENTARY, INPUT.getName() + "-");
+    					compute(it, writer, getReference(), TAGS, SOFTEN_HARD_CLIPS, FIX_MATE_INFORMATION, FIX_DUPLICATE_FLAG, RECALCULATE_SA_SUPPLEMENTARY, INPUT.getName() + "-", threadpool, WORKER_THREADS);
     				}
     				if (tmpoutput != OUTPUT) {
     					FileHelper.move(tmpoutput, OUTPUT, true);
@@ -97,26 +111,32 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 		} catch (IOException e) {
 			log.error(e);
 			return -1;
+		} finally {
+			threadpool.shutdown();
 		}
     	return 0;
 	}
+	/**
+	 * Computes tags for the given records.
+	 * 
+	 * Records are grouped into batches of complete templates which are processed in parallel.
+	 * Output record order is unchanged.
+	 */
 	public static void compute(Iterator<SAMRecord> rawit, SAMFileWriter writer, ReferenceLookup reference, Set<String> tags,
 			boolean softenHardClips,
 			boolean fixMates,
 			boolean fixDuplicates,
 			boolean recalculateSupplementary,
-			String threadprefix) throws IOException {
+			String threadprefix,
+			Executor threadpool,
+			int workerThreads) throws IOException {
 		ProgressLogger progress = new ProgressLogger(log);
 		try (CloseableIterator<SAMRecord> aysncit = new AsyncBufferedIterator<SAMRecord>(rawit, threadprefix + "raw")) {
-			Iterator<SAMRecord> it = aysncit;
-			if (tags.contains(SAMTag.NM.name()) || tags.contains(SAMTag.SA.name())) {
-				it = new AsyncBufferedIterator<SAMRecord>(it, threadprefix + "nm");
-				it = new NmTagIterator(it, reference);
-			}
-			if (!Sets.intersection(tags, SAMRecordUtil.TEMPLATE_TAGS).isEmpty() || softenHardClips) {
-				it = new TemplateTagsIterator(it, softenHardClips, fixMates, fixDuplicates, recalculateSupplementary, tags);
-				it = new AsyncBufferedIterator<SAMRecord>(it, threadprefix + "tags");
-			}
+			Iterator<List<List<SAMRecord>>> batchit = new TemplateBatchIterator(aysncit, BATCH_SIZE);
+			Iterator<List<SAMRecord>> computedit = new ParallelTransformIterator<>(batchit,
+					batch -> compute(batch, reference, tags, softenHardClips, fixMates, fixDuplicates, recalculateSupplementary),
+					2 * workerThreads, threadpool);
+			Iterator<SAMRecord> it = Iterators.concat(Iterators.transform(computedit, List::iterator));
 			while (it.hasNext()) {
 				SAMRecord r = it.next();
 				writer.addAlignment(r);
@@ -124,6 +144,37 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 			}
 		}
 	}
+	private static List<SAMRecord> compute(List<List<SAMRecord>> batch, ReferenceLookup reference, Set<String> tags,
+			boolean softenHardClips,
+			boolean fixMates,
+			boolean fixDuplicates,
+			boolean recalculateSupplementary) {
+		List<SAMRecord> out = new ArrayList<>();
+		for (List<SAMRecord> template : batch) {
+			computeTemplate(template, reference, tags, softenHardClips, fixMates, fixDuplicates, recalculateSupplementary);
+			out.addAll(template);
+		}
+		return out;
+	}
+	/**
+	 * Computes tags for all records of a single template.
+	 * @param template all records with the same read name. Records without a read name should be passed individually.
+	 */
+	public static void computeTemplate(List<SAMRecord> template, ReferenceLookup reference, Set<String> tags,
+			boolean softenHardClips,
+			boolean fixMates,
+			boolean fixDuplicates,
+			boolean recalculateSupplementary) {
+		if (template.isEmpty()) return;
+		if (tags.contains(SAMTag.NM.name()) || tags.contains(SAMTag.SA.name())) {
+			for (SAMRecord r : template) {
+				SAMRecordUtil.ensureNmTag(reference, r);
+			}
+		}
+		if ((!Sets.intersection(tags, SAMRecordUtil.TEMPLATE_TAGS).isEmpty() || softenHardClips) && template.get(0).getReadName() != null) {
+			SAMRecordUtil.calculateTemplateTags(template, tags, softenHardClips, fixMates, fixDuplicates, recalculateSupplementary);
+		}
+	}
 	private boolean isReferenceRequired() {
 		return TAGS.contains(SAMTag.NM.name()) ||
 				TAGS.contains(SAMTag.SA.name()); // SA requires NM
@@ -6,6 +6,7 @@ import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.util.FileHelper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import gridss.analysis.CollectStructuralVariantReadMetrics;
 import gridss.cmdline.ProcessStructuralVariantReadsCommandLineProgram;
 import gridss.filter.*;
@@ -13,7 +14,9 @@ import htsjdk.samtools.*;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.filter.AlignedFilter;
 import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.SortingCollection;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 
@@ -22,6 +25,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CommandLineProgramProperties(
 		summary = "Extracts reads and read pairs supporting putative structural variations. "
@@ -35,9 +40,22 @@ public class ExtractSVReads extends ProcessStructuralVariantReadsCommandLineProg
 	private static final Log log = Log.getInstance(ExtractSVReads.class);
     @Argument(shortName="MO", doc="Output file containing SV metrics", optional=true)
     public File METRICS_OUTPUT;
+    @Argument(doc="Populates the computed SAM tags of the extracted reads as per ComputeSamTags. "
+    		+ "Output is queryname sorted. This avoids writing, sorting, then rereading the extracted reads before running ComputeSamTags.", optional=true)
+    public boolean COMPUTE_SAM_TAGS = false;
+    @Argument(doc="Number of worker threads to spawn when computing SAM tags. Defaults to number of cores available.", shortName="THREADS", optional=true)
+    public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
     private CollectStructuralVariantReadMetrics metricsCollector;
     private File tmpoutput;
     private SAMFileWriter writer;
+    /**
+     * ComputeSamTags options used when computing SAM tags
+     */
+    private final ComputeSamTags tagger = new ComputeSamTags();
+    /**
+     * Extracted reads awaiting queryname sorting before SAM tags can be computed
+     */
+    private SortingCollection<SAMRecord> querynameSorter;
     private SamRecordFilter readfilter;
     private SamRecordFilter pairfilter;
     private int count;
@@ -51,6 +69,18 @@ public class ExtractSVReads extends ProcessStructuralVariantReadsCommandLineProg
     	}
     	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
     	tmpoutput = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(OUTPUT, "gridss.tmp.ExtractSVReads.") : OUTPUT;
+    	querynameSorter = null;
+    	if (COMPUTE_SAM_TAGS && header.getSortOrder() != SortOrder.queryname) {
+    		// template tag calculation requires all records with the same read name to be together
+    		header = header.clone();
+    		header.setSortOrder(SortOrder.queryname);
+    		querynameSorter = SortingCollection.newInstance(
+    				SAMRecord.class,
+    				new BAMRecordCodec(header),
+    				SortOrder.queryname.getComparatorInstance(),
+    				getFileSystemContext().getMaxBufferedRecordsPerFile(),
+    				getFileSystemContext().getTemporaryDirectory().toPath());
+    	}
     	writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpoutput);
     	
     	IndelReadFilter indelFilter = new IndelReadFilter(INDELS ? MIN_INDEL_SIZE : Integer.MAX_VALUE);
@@ -161,6 +191,13 @@ public class ExtractSVReads extends ProcessStructuralVariantReadsCommandLineProg
 		}
 		return r;
 	}
+	@Override
+	public String[] customCommandLineValidation() {
+		if (COMPUTE_SAM_TAGS && REFERENCE_SEQUENCE == null) {
+			return new String[] { "REFERENCE_SEQUENCE is required to compute SAM tags" };
+		}
+		return super.customCommandLineValidation();
+	}
 	public static void main(String[] argv) {
         System.exit(new ExtractSVReads().instanceMain(argv));
     }
@@ -180,23 +217,48 @@ public class ExtractSVReads extends ProcessStructuralVariantReadsCommandLineProg
 	@Override
 	protected void acceptFragment(List<SAMRecord> records, ReferenceLookup lookup) {
 		boolean[] extract = shouldExtract(records, lookup);
+		List<SAMRecord> extracted = new ArrayList<>(records.size());
 		for (int i = 0; i < records.size(); i++) {
 			SAMRecord r = records.get(i);
 			if (extract[i]) {
-				writer.addAlignment(r);
+				extracted.add(r);
 				count++;
 			} else {
 				// ignore remaining reads
 			}
 		}
 		if (metricsCollector != null) {
+			// metrics are calculated before SAM tags are computed
 			metricsCollector.acceptFragment(records, lookup);
 		}
+		if (querynameSorter != null) {
+			for (SAMRecord r : extracted) {
+				querynameSorter.add(r);
+			}
+		} else {
+			if (COMPUTE_SAM_TAGS) {
+				// input is queryname sorted so records is the full template
+				ComputeSamTags.computeTemplate(extracted, lookup, tagger.TAGS, tagger.SOFTEN_HARD_CLIPS, tagger.FIX_MATE_INFORMATION, tagger.FIX_DUPLICATE_FLAG, tagger.RECALCULATE_SA_SUPPLEMENTARY);
+			}
+			for (SAMRecord r : extracted) {
+				writer.addAlignment(r);
+			}
+		}
 	}
 	@Override
 	protected void finish() {
-		writer.close();
 		try {
+			if (querynameSorter != null) {
+				querynameSorter.doneAdding();
+				ExecutorService threadpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Worker-%d").build());
+				try (CloseableIterator<SAMRecord> it = querynameSorter.iterator()) {
+					ComputeSamTags.compute(it, writer, getReference(), tagger.TAGS, tagger.SOFTEN_HARD_CLIPS, tagger.FIX_MATE_INFORMATION, tagger.FIX_DUPLICATE_FLAG, tagger.RECALCULATE_SA_SUPPLEMENTARY, INPUT.getName() + "-", threadpool, WORKER_THREADS);
+				} finally {
+					threadpool.shutdown();
+					querynameSorter.cleanup();
+				}
+			}
+			writer.close();
 			if (tmpoutput != OUTPUT) {
 				FileHelper.move(tmpoutput, OUTPUT, true);
 			}
@@ -7,10 +7,14 @@ import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.vcf.VcfFormatAttributes;
 import au.edu.wehi.idsv.vcf.VcfSvConstants;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
+import htsjdk.tribble.Tribble;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
@@ -21,15 +25,23 @@ import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -55,8 +67,14 @@ public class GeneratePonBedpe extends CommandLineProgram {
 	@Argument(doc="Include imprecise calls in the panel of normals.", optional=true)
 	public boolean INCLUDE_IMPRECISE_CALLS = false;
 	private int MAX_BREAKPOINT_HOMOLOGY_LENGTH = 2000;
-	@Argument(doc="Number of worker threads to spawn. Defaults to number of cores available with a maximum of one 1 per input file.", shortName="THREADS")
+	@Argument(doc="Number of worker threads to spawn. Defaults to number of cores available. "
+			+ "If all input VCFs are indexed, batches of chromosomes are processed independently. Otherwise, input VCFs are read in parallel with a maximum of one thread per input file.", shortName="THREADS")
 	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+	@Argument(doc="Maximum number of input VCFs open at any one time when processing chromosomes independently. "
+			+ "Each batch of chromosomes opens every input VCF so this limits the number of batches processed in parallel. "
+			+ "If only one batch can be processed at a time, all chromosomes are processed together.", optional=true)
+	public int MAX_OPEN_INPUT_FILES = 512;
+	private static final int CHROMOSOME_BATCHES_PER_THREAD = 4;
 	@Override
 	protected boolean requiresReference() {
 		return true;
@@ -78,11 +96,27 @@ public class GeneratePonBedpe extends CommandLineProgram {
 			}
 			GenomicProcessingContext pc = new GenomicProcessingContext(new FileSystemContext(TMP_DIR.get(0), TMP_DIR.get(0), MAX_RECORDS_IN_RAM), REFERENCE_SEQUENCE, null);
 			pc.setCommandLineProgram(this);
-			Iterator<BreakendSummary> mergedIt = filteredMerge(pc, INPUT);
-			BedpeMergingCounter pe = new BedpeMergingCounter();
-			BedMergingCounter se = new BedMergingCounter(true);
-			BedpeWriter writer = new BedpeWriter(pc.getDictionary(), OUTPUT);
-			BufferedWriter sewriter = Files.newBufferedWriter(SINGLE_BREAKEND_OUTPUT.toPath(), StandardCharsets.US_ASCII);
+			if (WORKER_THREADS > 1 && INPUT.stream().allMatch(f -> isIndexed(f))) {
+				generateByChromosome(pc);
+			} else {
+				if (WORKER_THREADS > 1) {
+					log.info("Not all input VCFs are indexed. Processing all chromosomes together.");
+				}
+				generate(pc, filteredMerge(pc, INPUT), OUTPUT, SINGLE_BREAKEND_OUTPUT);
+			}
+		} catch (IOException e) {
+			log.error(e);
+			return 1;
+		} catch (InterruptedException e) {
+		}
+		log.error("Imprecise call inclusion not recommended due to overly aggressive PON matching.");
+		return 0;
+ 	}
+	private void generate(GenomicProcessingContext pc, Iterator<BreakendSummary> mergedIt, File bedpe, File bed) throws IOException {
+		BedpeMergingCounter pe = new BedpeMergingCounter();
+		BedMergingCounter se = new BedMergingCounter(true);
+		try (BedpeWriter writer = new BedpeWriter(pc.getDictionary(), bedpe);
+				BufferedWriter sewriter = Files.newBufferedWriter(bed.toPath(), StandardCharsets.US_ASCII)) {
 			while(mergedIt.hasNext()) {
 				BreakendSummary bs = mergedIt.next();
 				if (bs instanceof BreakpointSummary) {
@@ -93,16 +127,99 @@ public class GeneratePonBedpe extends CommandLineProgram {
 			}
 			writeBedpe(pe.finish(), writer);
 			writeBed(pc.getReference().getSequenceDictionary(), sewriter, se.finish());
-			writer.close();
-			sewriter.close();
-		} catch (IOException e) {
-			log.error(e);
-			return 1;
-		} catch (InterruptedException e) {
 		}
-		log.error("Imprecise call inclusion not recommended due to overly aggressive PON matching.");
-		return 0;
- 	}
+	}
+	/**
+	 * Generates the PON independently for batches of chromosomes.
+	 *
+	 * Breakends are only merged with other breakends on the same chromosome
+	 * so concatenating the per-batch output in dictionary order results
+	 * in the same output as processing all chromosomes together.
+	 */
+	private void generateByChromosome(GenomicProcessingContext pc) throws IOException {
+		// every batch opens all input VCFs
+		int threads = Math.min(WORKER_THREADS, MAX_OPEN_INPUT_FILES / Math.max(1, INPUT.size()));
+		if (threads <= 1) {
+			log.info(String.format("%d input VCFs exceeds open file limit for parallel chromosome processing. Processing all chromosomes together.", INPUT.size()));
+			generate(pc, filteredMerge(pc, INPUT), OUTPUT, SINGLE_BREAKEND_OUTPUT);
+			return;
+		}
+		List<List<SAMSequenceRecord>> batches = batchChromosomes(pc.getDictionary().getSequences(), threads * CHROMOSOME_BATCHES_PER_THREAD);
+		// split the reader threads across the concurrently processed batches
+		int readerThreadsPerBatch = Math.max(1, WORKER_THREADS / threads);
+		log.info(String.format("Generating PON for %d chromosome batches using %d threads", batches.size(), threads));
+		List<File> bedpeParts = new ArrayList<>();
+		List<File> bedParts = new ArrayList<>();
+		List<Future<Void>> tasks = new ArrayList<>();
+		ExecutorService threadpool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(false).setNameFormat("Worker-%d").build());
+		try {
+			for (List<SAMSequenceRecord> batch : batches) {
+				File bedpe = FileSystemContext.getWorkingFileFor(OUTPUT, String.format("gridss.tmp.%d.", batch.get(0).getSequenceIndex()));
+				File bed = FileSystemContext.getWorkingFileFor(SINGLE_BREAKEND_OUTPUT, String.format("gridss.tmp.%d.", batch.get(0).getSequenceIndex()));
+				bedpeParts.add(bedpe);
+				bedParts.add(bed);
+				tasks.add(threadpool.submit(() -> {
+					try (CloseableIterator<BreakendSummary> it = filteredMerge(pc, INPUT, batch, readerThreadsPerBatch)) {
+						generate(pc, it, bedpe, bed);
+					}
+					return null;
+				}));
+			}
+			for (Future<Void> f : tasks) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException)e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			threadpool.shutdownNow();
+		}
+		concat(bedpeParts, OUTPUT);
+		concat(bedParts, SINGLE_BREAKEND_OUTPUT);
+	}
+	/**
+	 * Groups consecutive chromosomes into batches of approximately equal total length
+	 * so small contigs do not each require every input VCF to be reopened.
+	 */
+	private static List<List<SAMSequenceRecord>> batchChromosomes(List<SAMSequenceRecord> chromosomes, int targetBatchCount) {
+		long genomeLength = chromosomes.stream().mapToLong(SAMSequenceRecord::getSequenceLength).sum();
+		long targetBatchLength = Math.max(1, genomeLength / Math.max(1, targetBatchCount));
+		List<List<SAMSequenceRecord>> batches = new ArrayList<>();
+		List<SAMSequenceRecord> current = new ArrayList<>();
+		long currentLength = 0;
+		for (SAMSequenceRecord chr : chromosomes) {
+			current.add(chr);
+			currentLength += chr.getSequenceLength();
+			if (currentLength >= targetBatchLength) {
+				batches.add(current);
+				current = new ArrayList<>();
+				currentLength = 0;
+			}
+		}
+		if (!current.isEmpty()) {
+			batches.add(current);
+		}
+		return batches;
+	}
+	private static void concat(List<File> parts, File output) throws IOException {
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(output))) {
+			for (File f : parts) {
+				Files.copy(f.toPath(), os);
+			}
+		}
+		for (File f : parts) {
+			Files.delete(f.toPath());
+		}
+	}
+	private static boolean isIndexed(File vcf) {
+		return Tribble.indexFile(vcf).exists() || Tribble.tabixIndexFile(vcf).exists();
+	}
 	private void writeBed(SAMSequenceDictionary dict, BufferedWriter writer, List<Pair<BreakendSummary, Integer>> list) throws IOException {
 		for (Pair<BreakendSummary, Integer> pair : list) {
 			writeBed(dict, writer, pair.getFirst(), pair.getSecond());
@@ -122,14 +239,21 @@ public class GeneratePonBedpe extends CommandLineProgram {
 	}
 
 	private Iterator<BreakendSummary> filteredMerge(GenomicProcessingContext pc, List<File> file) {
-    	List<CloseableIterator<BreakendSummary>> fileIt = new ArrayList<>();
-    	for (File f : file) {
-    		fileIt.add(getFilteredIterator(pc, f));
+		return filteredMerge(pc, file, null, WORKER_THREADS);
+	}
+	/**
+	 * @param chrs chromosomes to return breakends for. All breakends are returned if null
+	 * @param readerThreads number of threads to allocate the VCF files to
+	 */
+	private CloseableIterator<BreakendSummary> filteredMerge(GenomicProcessingContext pc, List<File> file, List<SAMSequenceRecord> chrs, int readerThreads) {
+		List<CloseableIterator<BreakendSummary>> fileIt = new ArrayList<>();
+		for (File f : file) {
+			fileIt.add(getFilteredIterator(pc, f, chrs));
 		}
 		// allocate VCF files to worker threads
 		final AtomicInteger counter = new AtomicInteger(0);
-		final int size = WORKER_THREADS;
-		final List<Iterator<BreakendSummary>> partitioned = fileIt.stream()
+		final int size = readerThreads;
+		final List<AsyncBufferedIterator<BreakendSummary>> partitioned = fileIt.stream()
 				.collect(Collectors.groupingBy(it -> counter.getAndIncrement() % size))
 				.values()
 				.stream()
@@ -137,31 +261,66 @@ public class GeneratePonBedpe extends CommandLineProgram {
 				.map(it -> new AsyncBufferedIterator<>(it,"AsyncVCF"))
 				.collect(Collectors.toList());
 		Iterator<BreakendSummary> mergedIt = new AsyncBufferedIterator<>(Iterators.mergeSorted(partitioned, BreakendSummary.ByStartEnd), "Merged VCF reader");
-		return mergedIt;
+		List<Closeable> alsoClose = new ArrayList<>(partitioned);
+		alsoClose.addAll(fileIt);
+		return new AutoClosingIterator<>(mergedIt, alsoClose.toArray(new Closeable[0]));
 	}
-	private CloseableIterator<BreakendSummary> getFilteredIterator(GenomicProcessingContext pc, File file) {
-		VCFFileReader vcfReader = new VCFFileReader(file, false);
-		CloseableIterator<VariantContext> it = vcfReader.iterator();
+	/**
+	 * @param chrs chromosomes to return breakends for. All breakends are returned if null
+	 */
+	private CloseableIterator<BreakendSummary> getFilteredIterator(GenomicProcessingContext pc, File file, List<SAMSequenceRecord> chrs) {
+		VCFFileReader vcfReader = new VCFFileReader(file, chrs != null);
+		CloseableIterator<VariantContext> it = chrs == null ? vcfReader.iterator() : new ChromosomeQueryIterator(vcfReader, chrs);
 		Iterator<BreakendSummary> idsvIt = Iterators.transform(it, variant -> getBreakendSummary(pc, variant));
 		Iterator<BreakendSummary> nonnullIt = Iterators.filter(idsvIt, variant -> variant != null);
 		Iterator<BreakendSummary> bpit = new BreakendSummaryWindowedSortingIterator<>(pc, MAX_BREAKPOINT_HOMOLOGY_LENGTH, nonnullIt);
 		return new AutoClosingIterator<>(bpit, vcfReader, it);
 	}
-	private BreakendSummary getBreakendSummary(GenomicProcessingContext pc, VariantContext variant) {
-		IdsvVariantContext vc = IdsvVariantContext.create(pc, null, variant);
+	/**
+	 * Queries each chromosome in turn from a single open VCF reader
+	 */
+	private static class ChromosomeQueryIterator extends AbstractIterator<VariantContext> implements CloseableIterator<VariantContext> {
+		private final VCFFileReader reader;
+		private final Iterator<SAMSequenceRecord> chrs;
+		private CloseableIterator<VariantContext> current = null;
+		public ChromosomeQueryIterator(VCFFileReader reader, List<SAMSequenceRecord> chrs) {
+			this.reader = reader;
+			this.chrs = chrs.iterator();
+		}
+		@Override
+		protected VariantContext computeNext() {
+			while (current == null || !current.hasNext()) {
+				close();
+				if (!chrs.hasNext()) {
+					return endOfData();
+				}
+				SAMSequenceRecord chr = chrs.next();
+				current = reader.query(chr.getSequenceName(), 1, chr.getSequenceLength());
+			}
+			return current.next();
+		}
+		@Override
+		public void close() {
+			if (current != null) {
+				current.close();
+				current = null;
+			}
+		}
+	}
+	/**
+	 * Parses only the breakend location and normal quality fields required for the PON
+	 */
+	private BreakendSummary getBreakendSummary(GenomicProcessingContext pc, VariantContext vc) {
 		if (!INCLUDE_IMPRECISE_CALLS && vc.hasAttribute(VcfSvConstants.IMPRECISE_KEY)) {
 			return null;
 		}
 		if (!passesNormalFilter(vc)) {
 			return null;
 		}
-		if (!(vc instanceof DirectedEvidence)) {
-			return null;
-		}
-		return ((DirectedEvidence)vc).getBreakendSummary();
+		return new VcfBreakendSummary(pc, vc).location;
 	}
 
-	private boolean passesNormalFilter(IdsvVariantContext vc) {
+	private boolean passesNormalFilter(VariantContext vc) {
 		Genotype geno = vc.getGenotype(NORMAL_ORDINAL);
 		if (geno == null) {
 			throw new RuntimeException(String.format("Missing normal ordinal for ", vc.getID()));
@@ -4,6 +4,8 @@ import au.edu.wehi.idsv.GenomicProcessingContext;
 import au.edu.wehi.idsv.SplitReadRealigner;
 import au.edu.wehi.idsv.alignment.ExternalProcessFastqAligner;
 import au.edu.wehi.idsv.alignment.ExternalProcessStreamingAligner;
+import au.edu.wehi.idsv.alignment.ShardedStreamingAligner;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import gridss.cmdline.ReferenceCommandLineProgram;
@@ -62,6 +64,12 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
 			+ " The aligner must support using \"-\" as the input filename when reading from stdin."
 			+ " The sort order of the input file will not be retained.", optional=true)
 	public boolean ALIGNER_STREAMING = false;
+    @Argument(doc="Number of records to send to the aligner at once when ALIGNER_STREAMING is true.", optional=true)
+    public int ALIGNER_BATCH_SIZE = ExternalProcessStreamingAligner.DEFAULT_BATCH_SIZE;
+    @Argument(doc="Maximum time in milliseconds a record is held before being sent to the aligner when ALIGNER_STREAMING is true.", optional=true)
+    public int ALIGNER_BATCH_LATENCY = ExternalProcessStreamingAligner.DEFAULT_BATCH_LATENCY;
+    @Argument(doc="Number of aligner processes to run when ALIGNER_STREAMING is true. WORKER_THREADS are divided evenly between the aligner processes.", optional=true)
+    public int ALIGNER_PROCESSES = 1;
     @Argument(doc="Command line arguments to run external aligner. Aligner output should be written to stdout and the records MUST match the input fastq order."
     		+ "Java argument formatting is used with %1$s being the fastq file to align, "
     		+ "%2$s the reference genome, and %3$d the number of threads to use.", optional=true)
@@ -88,7 +96,12 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
         	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
         	
         	if (ALIGNER_STREAMING) {
-        		ExternalProcessStreamingAligner aligner = new ExternalProcessStreamingAligner(readerFactory, ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS);
+        		StreamingAligner aligner;
+        		if (ALIGNER_PROCESSES > 1) {
+        			aligner = new ShardedStreamingAligner(readerFactory, ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS, ALIGNER_PROCESSES, ALIGNER_BATCH_SIZE, ALIGNER_BATCH_LATENCY);
+        		} else {
+        			aligner = new ExternalProcessStreamingAligner(readerFactory, ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS, ALIGNER_BATCH_SIZE, ALIGNER_BATCH_LATENCY);
+        		}
         		realigner.createSupplementaryAlignments(aligner, INPUT, OUTPUT, OUTPUT_UNORDERED_RECORDS, WRITE_OA, MAX_RECORDS_IN_RAM);
         	} else {
         		ExternalProcessFastqAligner aligner = new ExternalProcessFastqAligner(readerFactory, writerFactory, ALIGNER_COMMAND_LINE);
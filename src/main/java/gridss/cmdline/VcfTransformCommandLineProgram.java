@@ -3,8 +3,10 @@ package gridss.cmdline;
 import au.edu.wehi.idsv.*;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
@@ -18,7 +20,11 @@ import picard.cmdline.StandardOptionDefinitions;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 
@@ -37,6 +43,11 @@ public abstract class VcfTransformCommandLineProgram extends FullEvidenceCommand
     public File OUTPUT_VCF;
 	public abstract CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, ExecutorService threadpool);
 	private VCFHeader inputHeader = null;
+	/**
+	 * Non-breakend records of INPUT_VCF encountered whilst reading the breakend calls.
+	 * Null if the breakend calls were not read directly from INPUT_VCF.
+	 */
+	private Queue<IdsvVariantContext> passthroughCalls = null;
 	@Override
 	public int doWork(ExecutorService threadpool) throws IOException, InterruptedException, ExecutionException {
 		IOUtil.assertFileIsReadable(ASSEMBLY);
@@ -47,21 +58,76 @@ public abstract class VcfTransformCommandLineProgram extends FullEvidenceCommand
 			return 1;
 		}
 		log.info("Annotating variants in " + INPUT_VCF);
-		try (CloseableIterator<VariantContextDirectedEvidence> it = iterator(getBreakends(INPUT_VCF), threadpool)) {
-			saveVcf(OUTPUT_VCF, getAllCalls(INPUT_VCF, it));
+		passthroughCalls = null;
+		try (CloseableIterator<VariantContextDirectedEvidence> it = transformBreakends(threadpool)) {
+			if (passthroughCalls != null) {
+				saveVcf(OUTPUT_VCF, getAllCalls(it, passthroughCalls));
+			} else {
+				saveVcf(OUTPUT_VCF, getAllCalls(INPUT_VCF, it));
+			}
 		}
 		log.info("Annotated variants written to " + OUTPUT_VCF);
 		return 0;
 	}
+	/**
+	 * Transforms the breakend calls in INPUT_VCF
+	 * @return transformed breakend calls ordered by breakend start position
+	 */
+	protected CloseableIterator<VariantContextDirectedEvidence> transformBreakends(ExecutorService threadpool) {
+		// INPUT_VCF is only parsed once: non-breakend records are set aside as they are read
+		passthroughCalls = new ConcurrentLinkedQueue<>();
+		return iterator(getBreakends(INPUT_VCF, passthroughCalls), threadpool);
+	}
 	public CloseableIterator<VariantContextDirectedEvidence> getBreakends(File file) {
+		return getBreakends(file, null);
+	}
+	/**
+	 * Gets the breakend calls in the given VCF
+	 * @param passthrough queue to add the non-breakend records to in file order. Use null to discard non-breakend records.
+	 */
+	private CloseableIterator<VariantContextDirectedEvidence> getBreakends(File file, Queue<IdsvVariantContext> passthrough) {
 		VCFFileReader vcfReader = new VCFFileReader(file, false);
 		CloseableIterator<VariantContext> it = vcfReader.iterator();
 		Iterator<IdsvVariantContext> idsvIt = Iterators.transform(it, variant -> IdsvVariantContext.create(getContext(), null, variant));
+		if (passthrough != null) {
+			idsvIt = Iterators.filter(idsvIt, variant -> {
+				if (variant instanceof VariantContextDirectedEvidence) return true;
+				passthrough.add(variant);
+				return false;
+			});
+		}
 		Iterator<VariantContextDirectedEvidence> beit = Iterators.filter(idsvIt, VariantContextDirectedEvidence.class);
 		// resort by evidence start
 		beit = new DirectEvidenceWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), beit);
 		return new AutoClosingIterator<VariantContextDirectedEvidence>(beit, it, vcfReader);
 	}
+	/**
+	 * Gets the breakend calls with a VCF position in the given intervals.
+	 * @param file coordinate sorted VCF
+	 * @param index VCF index
+	 * @param intervals intervals to load
+	 */
+	public CloseableIterator<VariantContextDirectedEvidence> getBreakends(File file, File index, QueryInterval[] intervals) {
+		List<VariantContext> calls = new ArrayList<>();
+		try (VCFFileReader vcfReader = new VCFFileReader(file, index, true)) {
+			for (QueryInterval qi : intervals) {
+				try (CloseableIterator<VariantContext> it = vcfReader.query(getContext().getDictionary().getSequence(qi.referenceIndex).getSequenceName(), qi.start, qi.end)) {
+					while (it.hasNext()) {
+						VariantContext variant = it.next();
+						// records overlapping multiple intervals are returned by multiple queries
+						if (variant.getStart() >= qi.start) {
+							calls.add(variant);
+						}
+					}
+				}
+			}
+		}
+		Iterator<IdsvVariantContext> idsvIt = Iterators.transform(calls.iterator(), variant -> IdsvVariantContext.create(getContext(), null, variant));
+		Iterator<VariantContextDirectedEvidence> beit = Iterators.filter(idsvIt, VariantContextDirectedEvidence.class);
+		// resort by evidence start
+		beit = new DirectEvidenceWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), beit);
+		return new AutoClosingIterator<VariantContextDirectedEvidence>(beit);
+	}
 	public Iterator<IdsvVariantContext> getAllCalls(File file, CloseableIterator<VariantContextDirectedEvidence> breakendCalls) {
 		VCFFileReader vcfReader = new VCFFileReader(file, false);
 		if (inputHeader != null) {
@@ -75,6 +141,44 @@ public abstract class VcfTransformCommandLineProgram extends FullEvidenceCommand
 		Iterator<IdsvVariantContext> mergedIt = Iterators.mergeSorted(ImmutableList.of(bpit, nonbeIt), IdsvVariantContext.ByLocationStart); 
 		return new AutoClosingIterator<>(mergedIt, vcfReader, it);
 	}
+	/**
+	 * Merges the transformed breakend calls with the non-breakend records set aside whilst reading them.
+	 *
+	 * Since INPUT_VCF is coordinate sorted, every non-breakend record positioned before a
+	 * breakend call has already been read by the time that call is returned. The passthrough
+	 * queue thus only holds the non-breakend records within the read-ahead of the transform.
+	 * @param breakendCalls transformed breakend calls
+	 * @param passthrough non-breakend records in file order
+	 */
+	private Iterator<IdsvVariantContext> getAllCalls(CloseableIterator<VariantContextDirectedEvidence> breakendCalls, Queue<IdsvVariantContext> passthrough) {
+		// sort back to nominal VCF position
+		Iterator<VariantContextDirectedEvidence> bpit = new VariantContextWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), breakendCalls);
+		return new AbstractIterator<IdsvVariantContext>() {
+			private VariantContextDirectedEvidence nextBreakend = null;
+			@Override
+			protected IdsvVariantContext computeNext() {
+				if (nextBreakend == null && bpit.hasNext()) {
+					nextBreakend = bpit.next();
+				}
+				IdsvVariantContext nextPassthrough = passthrough.peek();
+				// once the breakend calls are exhausted, the entire input has been read
+				// breakend calls are written before non-breakend records at the same position
+				if (nextPassthrough != null && (nextBreakend == null || isBefore(nextPassthrough, nextBreakend))) {
+					return passthrough.poll();
+				}
+				if (nextBreakend != null) {
+					IdsvVariantContext result = nextBreakend;
+					nextBreakend = null;
+					return result;
+				}
+				return endOfData();
+			}
+		};
+	}
+	private static boolean isBefore(IdsvVariantContext a, IdsvVariantContext b) {
+		if (a.getReferenceIndex() != b.getReferenceIndex()) return a.getReferenceIndex() < b.getReferenceIndex();
+		return a.getStart() < b.getStart();
+	}
 	protected void saveVcf(File file, Iterator<IdsvVariantContext> calls) throws IOException {
 		File tmp = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(file) : file;
 		final ProgressLogger writeProgress = new ProgressLogger(log);
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -19,6 +20,8 @@ import org.junit.Test;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
+import au.edu.wehi.idsv.bed.IntervalBed;
+import au.edu.wehi.idsv.debruijn.positional.PositionalAssembler;
 import au.edu.wehi.idsv.picard.InMemoryReferenceSequenceFile;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.util.FileHelper;
@@ -27,6 +30,7 @@ import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloseableIterator;
 
 public class AssemblyEvidenceSourceTest extends IntermediateFilesTest {
 	private File assemblyFile;
@@ -300,6 +304,46 @@ public class AssemblyEvidenceSourceTest extends IntermediateFilesTest {
 		List<DirectedEvidence> list = Lists.newArrayList(aes.iterator(SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition));
 		assertEquals(100, list.size());
 	}
+	private static List<String> toContigLocations(List<SAMRecord> assemblies) {
+		return assemblies.stream()
+				.map(r -> String.format("%d:%d %s %s", r.getReferenceIndex(), r.getAlignmentStart(), r.getCigarString(), S(r.getReadBases())))
+				.sorted()
+				.collect(Collectors.toList());
+	}
+	@Test
+	public void assembling_both_directions_together_should_match_sequential_assembly_of_each_direction() throws IOException {
+		String seq = "AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGAT";
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			in.add(withSequence(seq.substring(0, 90 + i), Read(0, 100 + i, "41M" + (49 + i) + "S"))[0]);
+			in.add(withSequence(seq.substring(10 - i), Read(0, 500 + i, (49 + i) + "S41M"))[0]);
+			in.add(withSequence(seq.substring(0, 90 + i), Read(1, 1000 - i, "41M" + (49 + i) + "S"))[0]);
+			in.add(withSequence(seq.substring(10 - i), Read(1, 1000 + i, (49 + i) + "S41M"))[0]);
+		}
+		createInput(in);
+		ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().getAssembly().minReads = 1;
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		FileHelper.copy(ses.getFile(), ses.getSVFile(), true);
+		AssemblyEvidenceSource aes = new AssemblyEvidenceSource(pc, ImmutableList.of(ses), assemblyFile);
+		aes.assembleBreakends(null);
+		List<SAMRecord> expected = new ArrayList<>();
+		for (BreakendDirection direction : BreakendDirection.values()) {
+			try (CloseableIterator<DirectedEvidence> it = SAMEvidenceSource.mergedIterator(ImmutableList.of(ses), false, SAMEvidenceSource.EvidenceSortOrder.SAMRecordStartPosition)) {
+				PositionalAssembler assembler = new PositionalAssembler(pc, aes, new SequentialIdGenerator("asm"), it, direction, new IntervalBed(pc.getLinear()), new IntervalBed(pc.getLinear()));
+				while (assembler.hasNext()) {
+					SAMRecord asm = aes.transformAssembly(assembler.next());
+					if (!aes.shouldFilterAssembly(asm)) {
+						expected.add(asm);
+					}
+				}
+			}
+		}
+		List<DirectedEvidence> contigs = Lists.newArrayList(aes.iterator(SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition));
+		assertTrue(contigs.stream().anyMatch(e -> e.getBreakendSummary().direction == FWD));
+		assertTrue(contigs.stream().anyMatch(e -> e.getBreakendSummary().direction == BWD));
+		assertEquals(toContigLocations(expected), toContigLocations(getRecords(assemblyFile)));
+	}
 	@Test
 	public void bounds_check_should_apply_to_final_assembly_SAMRecord() throws IOException {
 		// TODO: how do we check
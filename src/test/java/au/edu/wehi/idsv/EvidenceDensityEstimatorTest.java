@@ -0,0 +1,85 @@
+package au.edu.wehi.idsv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+
+public class EvidenceDensityEstimatorTest extends IntermediateFilesTest {
+	@Test
+	public void should_use_interval_width_when_no_index() {
+		EvidenceDensityEstimator ede = new EvidenceDensityEstimator(getContext().getDictionary(), ImmutableList.of(), 100);
+		assertFalse(ede.isIndexed());
+		assertEquals(100, ede.getEstimate(new QueryInterval[] { new QueryInterval(0, 1, 100) }));
+		assertEquals(150, ede.getEstimate(new QueryInterval[] { new QueryInterval(0, 1, 100), new QueryInterval(1, 51, 100) }));
+	}
+	@Test
+	public void should_estimate_density_from_bam_index() {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 1; i <= 2000; i++) {
+			in.add(Read(1, i, "50M50S"));
+		}
+		in.add(Read(2, 1000, "50M50S"));
+		createInput(in);
+		SAMEvidenceSource ses = new SAMEvidenceSource(getCommandlineContext(), input, null, 0);
+		EvidenceDensityEstimator ede = new EvidenceDensityEstimator(getContext().getDictionary(), ImmutableList.of(ses), 1000);
+		assertTrue(ede.isIndexed());
+		assertTrue(ede.getEstimate(new QueryInterval[] { new QueryInterval(1, 1, 2000) }) > ede.getEstimate(new QueryInterval[] { new QueryInterval(2, 1, 2000) }));
+	}
+	@Test
+	public void split_should_partition_intervals() {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 1; i <= 1000; i++) {
+			in.add(Read(0, 9001 + i % 1000, "50M50S"));
+			in.add(Read(1, i, "50M50S"));
+			in.add(Read(2, i, "50M50S"));
+		}
+		createInput(in);
+		SAMEvidenceSource ses = new SAMEvidenceSource(getCommandlineContext(), input, null, 0);
+		EvidenceDensityEstimator ede = new EvidenceDensityEstimator(getContext().getDictionary(), ImmutableList.of(ses), 1000);
+		QueryInterval[] chunk = new QueryInterval[] { new QueryInterval(0, 9001, 10000), new QueryInterval(1, 1, 10000), new QueryInterval(2, 1, 10000) };
+		List<QueryInterval[]> split = ede.split(chunk, 4);
+		assertTrue(split.size() > 1);
+		assertTrue(split.size() <= 4);
+		List<QueryInterval> flattened = new ArrayList<>();
+		for (QueryInterval[] qi : split) {
+			flattened.addAll(ImmutableList.copyOf(qi));
+		}
+		assertEquals(new QueryInterval(0, 9001, 10000), flattened.get(0));
+		for (int i = 1; i < flattened.size(); i++) {
+			QueryInterval prev = flattened.get(i - 1);
+			QueryInterval cur = flattened.get(i);
+			if (prev.referenceIndex == cur.referenceIndex) {
+				assertEquals(prev.end + 1, cur.start);
+			} else {
+				assertEquals(1, cur.start);
+			}
+		}
+		assertEquals(10000, flattened.get(flattened.size() - 1).end);
+	}
+	@Test
+	public void splitDense_should_only_split_chunks_denser_than_multiple_of_mean() {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 1; i <= 2000; i++) {
+			in.add(Read(1, i, "50M50S"));
+		}
+		createInput(in);
+		SAMEvidenceSource ses = new SAMEvidenceSource(getCommandlineContext(), input, null, 0);
+		EvidenceDensityEstimator ede = new EvidenceDensityEstimator(getContext().getDictionary(), ImmutableList.of(ses), 1000);
+		QueryInterval[] chunk = new QueryInterval[] { new QueryInterval(1, 1, 10000) };
+		long estimate = ede.getEstimate(chunk);
+		assertEquals(1, ede.splitDense(chunk, estimate, 2).size());
+		assertEquals(1, ede.splitDense(chunk, estimate / 4.0, 0).size());
+		assertTrue(ede.splitDense(chunk, estimate / 4.0, 2).size() > 1);
+	}
+}
+
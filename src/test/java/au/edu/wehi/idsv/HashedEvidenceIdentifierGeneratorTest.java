@@ -30,4 +30,20 @@ public class HashedEvidenceIdentifierGeneratorTest extends EvidenceIdentifierGen
 			Assert.assertTrue(Pattern.matches("^[0-9a-zA-Z_-]{32}$", hash));
 		}
 	}
+	/**
+	 * Identifiers are written to intermediate files so must not change between versions
+	 */
+	@Test
+	public void should_match_previously_generated_identifiers() {
+		HashedEvidenceIdentifierGenerator gen = new HashedEvidenceIdentifierGenerator();
+		SAMRecord sc = withName("sc", Read(0, 100, "10M10S"))[0];
+		SAMRecord[] dp = withName("dp", DP(0, 1, "5M1D1M4S", true, 1, 1, "10M", false));
+		SAMRecord sr = withName("sr", Read(0, 100, "10M10S"))[0];
+		sr.setAttribute("SA", "polyA,200,+,10S10M,20,0");
+		Assert.assertEquals("5eydu5Qa-3G2p36qgN_C", gen.getSegmentUniqueName(sc));
+		Assert.assertEquals("5eydu5Qa-3G2p36qgN_ChGW9v1", gen.getAlignmentUniqueName(sc));
+		Assert.assertEquals("5eydu5Qa-3G2p36qgN_ChGW9v1n-vG8U", gen.getEvidenceID(SCE(FWD, sc)));
+		Assert.assertEquals("tZmaK3OfqQVo-fFUEjb4UsFIUZ1hkvVe", gen.getEvidenceID(NRRP(dp)));
+		Assert.assertEquals("6ckKljwxh6aptNPjosEyQmdOoh6_oq36", gen.getEvidenceID(SplitReadEvidence.create(SES(), sr).get(0)));
+	}
 }
@@ -0,0 +1,64 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.bed.IntervalBed;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedReadExtractorTest extends IntermediateFilesTest {
+    private static LinearGenomicCoordinate lgc = new PaddedLinearGenomicCoordinate(getSequenceDictionary(), LCCB);
+    @Test
+    public void shard_should_cover_all_intervals() {
+        QueryInterval[] intervals = new QueryInterval[] {
+                new QueryInterval(0, 1, 100),
+                new QueryInterval(0, 201, 210),
+                new QueryInterval(1, 1, 1000),
+        };
+        for (int shardCount = 1; shardCount <= 8; shardCount++) {
+            List<QueryInterval[]> shards = IndexedReadExtractor.shard(intervals, shardCount);
+            assertTrue(shards.size() <= shardCount);
+            IntervalBed expected = new IntervalBed(lgc, intervals);
+            IntervalBed actual = new IntervalBed(lgc);
+            int bases = 0;
+            for (QueryInterval[] shard : shards) {
+                for (QueryInterval qi : shard) {
+                    actual.addInterval(qi);
+                    bases += qi.end - qi.start + 1;
+                }
+            }
+            assertEquals(1110, bases);
+            assertEquals(expected.asRangeSet(), actual.asRangeSet());
+        }
+        assertEquals(1, IndexedReadExtractor.shard(new QueryInterval[0], 4).size());
+    }
+    @Test
+    public void should_not_depend_on_worker_thread_count() throws IOException {
+        createInput(randomTemplates(new Random(0), 2000, 5000));
+        IntervalBed bed = new IntervalBed(lgc);
+        bed.addInterval(0, 100, 200);
+        bed.addInterval(0, 250, 2000);
+        bed.addInterval(1, 1000, 1001);
+        bed.addInterval(1, 3000, 3500);
+        bed.addInterval(2, 1, 4000);
+        assertWorkerThreadCountIndependent(workerThreads -> {
+            File out = new File(testFolder.getRoot(), String.format("out%d.bam", workerThreads));
+            new IndexedReadExtractor(lgc, bed, true, true).extract(input, out, workerThreads);
+            List<String> actual = new ArrayList<>();
+            for (SAMRecord r : getRecords(out)) {
+                actual.add(r.getSAMString());
+            }
+            Collections.sort(actual);
+            return actual;
+        }, 1, 2, 7);
+    }
+}
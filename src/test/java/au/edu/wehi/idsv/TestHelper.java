@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -1155,7 +1156,7 @@ public class TestHelper {
 	}
 	public static KmerPathNode KPN(int k, String seq, int start, int end, boolean reference, int[] weight) {
 		PackedKmerList kmers = new PackedKmerList(k, B(seq), new byte[seq.length()], false, false);
-		KmerPathNode pn = new KmerPathNode(kmers.kmer(0), start, end, reference, weight[0]);
+		KmerPathNode pn = new KmerPathNode(k, kmers.kmer(0), start, end, reference, weight[0]);
 		for (int i = 1; i < kmers.length(); i++) {
 			pn.append(new ImmutableKmerNode(kmers.kmer(i), start + i, end + i, reference, weight[i]));
 		}
@@ -1217,6 +1218,68 @@ public class TestHelper {
 			}
 		}).max().orElse(0);
 	}
+	/**
+	 * Random read templates on the first three contigs: soft clipped and unclipped reads,
+	 * discordant pairs, one-ended anchored pairs, split reads and indels.
+	 * @param random random number generator
+	 * @param count number of templates to generate
+	 * @param maxPosition maximum alignment start position
+	 * @return template records in template order
+	 */
+	public static List<SAMRecord> randomTemplates(Random random, int count, int maxPosition) {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			int referenceIndex = random.nextInt(3);
+			int position = 1 + random.nextInt(maxPosition);
+			switch (random.nextInt(5)) {
+				case 0:
+					String[] cigars = new String[] { "100M", "50M50S", "50S50M" };
+					in.add(withName(String.format("r%d", i), Read(referenceIndex, position, cigars[random.nextInt(cigars.length)]))[0]);
+					break;
+				case 1:
+					Collections.addAll(in, withName(String.format("dp%d", i), DP(referenceIndex, position, "50M", random.nextBoolean(), random.nextInt(3), 1 + random.nextInt(maxPosition), "50M", random.nextBoolean())));
+					break;
+				case 2:
+					Collections.addAll(in, withName(String.format("oea%d", i), OEA(referenceIndex, position, "50M", random.nextBoolean())));
+					break;
+				case 3:
+					SAMRecord primary = withName(String.format("sr%d", i), Read(referenceIndex, position, "50M50S"))[0];
+					SAMRecord supp = withName(String.format("sr%d", i), Read(random.nextInt(3), 1 + random.nextInt(maxPosition), "50H50M"))[0];
+					supp.setSupplementaryAlignmentFlag(true);
+					primary.setAttribute(SAMTag.SA.name(), String.format("%s,%d,+,50S50M,%d,0", supp.getReferenceName(), supp.getAlignmentStart(), supp.getMappingQuality()));
+					supp.setAttribute(SAMTag.SA.name(), String.format("%s,%d,+,50M50S,%d,0", primary.getReferenceName(), primary.getAlignmentStart(), primary.getMappingQuality()));
+					in.add(primary);
+					in.add(supp);
+					break;
+				case 4:
+					in.add(withName(String.format("indel%d", i), Read(referenceIndex, position, "20M10D20M"))[0]);
+					break;
+			}
+		}
+		return in;
+	}
+	/**
+	 * Output of a run using the given number of worker threads
+	 */
+	public interface WorkerThreadRun {
+		List<String> run(int workerThreads) throws IOException;
+	}
+	/**
+	 * Asserts that the output is not empty and does not depend on the number of worker threads
+	 * @param run runs the program being tested with the given number of worker threads
+	 * @param workerThreads worker thread counts to compare
+	 */
+	public static void assertWorkerThreadCountIndependent(WorkerThreadRun run, int... workerThreads) throws IOException {
+		List<String> expected = null;
+		for (int threads : workerThreads) {
+			List<String> actual = run.run(threads);
+			if (expected == null) {
+				expected = actual;
+				assertTrue(expected.size() > 0);
+			}
+			assertEquals(expected, actual);
+		}
+	}
 	public static class RandomSoftClipIterator implements Iterator<DirectedEvidence> {
 		public int readLength = 100;
 		public int stopAfter = 1000000;
@@ -161,4 +161,16 @@ public class BreakpointHomologyTest extends TestHelper {
 		assertEquals(0, bh.getLocalHomologyLength());
 		assertEquals(20, bh.getRemoteHomologyLength());
 	}
+	@Test
+	public void should_not_depend_on_previous_calculations() {
+		InMemoryReferenceSequenceFile ref = new InMemoryReferenceSequenceFile(
+				new String[] { "0", "1", },
+				new byte[][] { B("CCCAATGGGCCC"),
+							   B("TTTAATGGGAAA"), });
+		BreakpointHomology bh = BreakpointHomology.calculate(ref, new BreakpointSummary(0, FWD, 6, 1, BWD, 7), "", 100, 0);
+		BreakpointHomology.calculate(ref, new BreakpointSummary(0, FWD, 6, 1, BWD, 7), "GGGGG", 3, 2);
+		BreakpointHomology bh2 = BreakpointHomology.calculate(ref, new BreakpointSummary(0, FWD, 6, 1, BWD, 7), "", 100, 0);
+		assertEquals(bh.getLocalHomologyLength(), bh2.getLocalHomologyLength());
+		assertEquals(bh.getRemoteHomologyLength(), bh2.getRemoteHomologyLength());
+	}
 }
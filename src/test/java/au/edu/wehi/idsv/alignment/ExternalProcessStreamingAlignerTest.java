@@ -1,17 +1,67 @@
 package au.edu.wehi.idsv.alignment;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import com.google.common.collect.ImmutableList;
+
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.fastq.FastqRecord;
 
 public class ExternalProcessStreamingAlignerTest {
+	/**
+	 * Stub aligner that reports every read as unmapped as soon as it is received
+	 */
+	static final List<String> UNMAPPED_ALIGNER = ImmutableList.of("perl", "-e",
+			"$| = 1; print \"\\@HD\\tVN:1.4\\n\"; "
+			+ "while (defined(my $name = <STDIN>)) { my $seq = <STDIN>; <STDIN>; <STDIN>; chomp $name; chomp $seq; "
+			+ "print substr($name, 1) . \"\\t4\\t*\\t0\\t0\\t*\\t*\\t0\\t0\\t$seq\\t*\\n\"; }");
+	private static FastqRecord fq(int i) {
+		return new FastqRecord(Integer.toString(i), "ACGT", "", "ABCD");
+	}
+	@Test(timeout = 30000)
+	public void should_flush_batch_when_waiting_for_alignment() throws IOException {
+		ExternalProcessStreamingAligner aligner = new ExternalProcessStreamingAligner(SamReaderFactory.makeDefault(), UNMAPPED_ALIGNER, new File("unused"), 1, 1000, 1000000);
+		// SAM parsing reads ahead a record so keep an extra record in flight
+		aligner.asyncAlign(fq(0));
+		for (int i = 0; i < 3; i++) {
+			aligner.asyncAlign(fq(i + 1));
+			assertEquals(Integer.toString(i), aligner.next().getReadName());
+		}
+		aligner.close();
+	}
+	@Test(timeout = 30000)
+	public void should_flush_batch_after_latency() throws IOException, InterruptedException {
+		ExternalProcessStreamingAligner aligner = new ExternalProcessStreamingAligner(SamReaderFactory.makeDefault(), UNMAPPED_ALIGNER, new File("unused"), 1, 1000, 10);
+		aligner.asyncAlign(fq(0));
+		aligner.asyncAlign(fq(1));
+		while (!aligner.hasAlignmentRecord()) {
+			Thread.sleep(10);
+		}
+		assertEquals("0", aligner.getAlignment().getReadName());
+		aligner.close();
+	}
+	@Test(timeout = 30000)
+	public void should_return_all_batched_records() throws IOException {
+		int COUNT = 2500;
+		ExternalProcessStreamingAligner aligner = new ExternalProcessStreamingAligner(SamReaderFactory.makeDefault(), UNMAPPED_ALIGNER, new File("unused"), 1, 1000, 1000000);
+		for (int i = 0; i < COUNT; i++) {
+			aligner.asyncAlign(fq(i));
+		}
+		aligner.close();
+		assertTrue(aligner.hasAlignmentRecord());
+		for (int i = 0; i < COUNT; i++) {
+			assertEquals(Integer.toString(i), aligner.getAlignment().getReadName());
+		}
+	}
 	@Test
 	@Category(ExternalAlignerTests.class)
 	public void basic_pipes_test() throws IOException, InterruptedException {
@@ -0,0 +1,48 @@
+package au.edu.wehi.idsv.alignment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.fastq.FastqRecord;
+
+public class ShardedStreamingAlignerTest {
+	@Test(timeout = 60000)
+	public void should_return_alignments_from_all_processes() throws IOException {
+		int COUNT = 1000;
+		ShardedStreamingAligner aligner = new ShardedStreamingAligner(SamReaderFactory.makeDefault(), ExternalProcessStreamingAlignerTest.UNMAPPED_ALIGNER, new File("unused"), 4, 3, 16, 10);
+		for (int i = 0; i < COUNT; i++) {
+			aligner.asyncAlign(new FastqRecord(Integer.toString(i), "ACGT", "", "ABCD"));
+		}
+		aligner.flush();
+		assertEquals(0, aligner.outstandingAlignmentRecord());
+		assertEquals(COUNT, aligner.processedAlignmentRecords());
+		Set<String> names = new HashSet<>();
+		while (aligner.hasAlignmentRecord()) {
+			assertTrue(names.add(aligner.getAlignment().getReadName()));
+		}
+		assertEquals(COUNT, names.size());
+		assertEquals(0, aligner.processedAlignmentRecords());
+		aligner.close();
+	}
+	@Test(timeout = 60000)
+	public void should_allow_alignment_after_flush() throws IOException {
+		ShardedStreamingAligner aligner = new ShardedStreamingAligner(SamReaderFactory.makeDefault(), ExternalProcessStreamingAlignerTest.UNMAPPED_ALIGNER, new File("unused"), 2, 2, 16, 10);
+		for (int i = 0; i < 4; i++) {
+			aligner.asyncAlign(new FastqRecord(Integer.toString(i), "ACGT", "", "ABCD"));
+			aligner.flush();
+			assertTrue(aligner.hasAlignmentRecord());
+			assertEquals(Integer.toString(i), aligner.getAlignment().getReadName());
+			assertFalse(aligner.hasAlignmentRecord());
+		}
+		aligner.close();
+	}
+}
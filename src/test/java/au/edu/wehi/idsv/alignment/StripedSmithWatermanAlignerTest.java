@@ -0,0 +1,119 @@
+package au.edu.wehi.idsv.alignment;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import au.edu.wehi.idsv.TestHelper;
+
+
+public class StripedSmithWatermanAlignerTest extends TestHelper {
+	private static final Aligner aligner = new StripedSmithWatermanAligner(1, -4, -4, 6, 1);
+	private static void assertAlignment(int expectedStart, String expectedCigar, String seq, String ref) {
+		Alignment alignment = aligner.align_smith_waterman(B(seq), B(ref));
+		assertEquals(expectedCigar, alignment.getCigar());
+		assertEquals(expectedStart, alignment.getStartPosition());
+	}
+	/**
+	 * @return native SSW aligner with the same scoring parameters, skipping the test if the sswjni library is not available
+	 */
+	private static Aligner getSswJniAligner() {
+		Aligner ssw = AlignerFactory.create(1, -4, -4, 6, 1);
+		Assume.assumeTrue("sswjni library not available", ssw instanceof SswJniAligner);
+		return ssw;
+	}
+	private static void assertMatchesSsw(Aligner ssw, String seq, String ref) {
+		Alignment expected = ssw.align_smith_waterman(B(seq), B(ref));
+		Alignment actual = aligner.align_smith_waterman(B(seq), B(ref));
+		assertEquals(seq + " " + ref, expected.getCigar(), actual.getCigar());
+		assertEquals(seq + " " + ref, expected.getStartPosition(), actual.getStartPosition());
+	}
+	private static String randomBases(Random r, int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append("ACGT".charAt(r.nextInt(4)));
+		}
+		return sb.toString();
+	}
+	/**
+	 * Derives a read from the reference with random substitutions, indels, ambiguous bases and unaligned flanks
+	 */
+	private static String mutate(Random r, String ref) {
+		int start = r.nextInt(ref.length());
+		int end = start + r.nextInt(ref.length() - start) + 1;
+		StringBuilder sb = new StringBuilder(randomBases(r, r.nextInt(3) == 0 ? r.nextInt(20) : 0));
+		for (int i = start; i < end; i++) {
+			switch (r.nextInt(50)) {
+				case 0:
+					sb.append("ACGT".charAt(r.nextInt(4)));
+					break;
+				case 1:
+					sb.append(randomBases(r, 1 + r.nextInt(5)));
+					sb.append(ref.charAt(i));
+					break;
+				case 2:
+					i += r.nextInt(5);
+					break;
+				case 3:
+					sb.append('N');
+					break;
+				default:
+					sb.append(ref.charAt(i));
+					break;
+			}
+		}
+		sb.append(randomBases(r, r.nextInt(3) == 0 ? r.nextInt(20) : 0));
+		return sb.length() == 0 ? "A" : sb.toString();
+	}
+	@Test
+	public void should_align_exact_match() {
+		assertAlignment(4, "8M", "ACGTACGT", "TTTTACGTACGTTTTT");
+	}
+	@Test
+	public void should_soft_clip_unaligned_bases() {
+		assertAlignment(4, "10M6S", "GGGGCATCATTTTCCC", "AAAAGGGGCATCATCCCCGGCCCAAAA");
+		assertAlignment(0, "14M14S", "AAAAGGGGCATCATGGTTTACCCGGCCC", "AAAAGGGGCATCATCCCGGCCCAAAA");
+		assertAlignment(4, "10S14M6S", "TTTTTTTTTTGGGGCATCATCCCCTTTTTT", "AAAAGGGGCATCATCCCCGGCCCAAAA");
+	}
+	@Test
+	public void should_align_indels() {
+		assertAlignment(4, "22M2I18M", "ACGTTGCAAGCTTAGGCTAACGTTTGCAGGAATCCGATTGCA", "CCCCACGTTGCAAGCTTAGGCTAACGTGCAGGAATCCGATTGCACCCC");
+		assertAlignment(4, "22M3D18M", "ACGTTGCAAGCTTAGGCTAACGTGCAGGAATCCGATTGCA", "CCCCACGTTGCAAGCTTAGGCTAACGTTTTGCAGGAATCCGATTGCACCCC");
+	}
+	@Test
+	public void should_ignore_case_and_treat_unknown_bases_as_ambiguous() {
+		assertAlignment(4, "14M", "ggggcatNatcccc", "AAAAGGGGCATCATCCCCGGCCCAAAA");
+	}
+	@Test
+	public void should_match_ssw_when_no_bases_align() {
+		assertAlignment(-1, "1M1S", "AA", "TGCGGGCC");
+		assertMatchesSsw(getSswJniAligner(), "AA", "TGCGGGCC");
+	}
+	@Test
+	public void should_match_ssw_for_random_sequences() {
+		Aligner ssw = getSswJniAligner();
+		Random r = new Random(0);
+		for (int i = 0; i < 2000; i++) {
+			// include sequences long enough to exceed the 8-bit score range
+			String ref = randomBases(r, 1 + r.nextInt(i % 10 == 0 ? 1000 : 100));
+			String seq = r.nextInt(10) == 0 ? randomBases(r, 1 + r.nextInt(50)) : mutate(r, ref);
+			if (r.nextBoolean()) {
+				seq = seq.toLowerCase();
+			}
+			assertMatchesSsw(ssw, seq, ref);
+		}
+	}
+	@Test
+	public void should_use_wider_lanes_when_score_exceeds_byte_range() {
+		Random r = new Random(0);
+		StringBuilder ref = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			ref.append("ACGT".charAt(r.nextInt(4)));
+		}
+		String seq = ref.substring(100, 500) + "A" + ref.substring(520, 900);
+		assertAlignment(100, "401M19D380M", seq, ref.toString());
+	}
+}
@@ -0,0 +1,116 @@
+package au.edu.wehi.idsv.debruijn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import au.edu.wehi.idsv.TestHelper;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+
+public class PackedKmerPathTest extends TestHelper {
+	private static PackedKmerPath path(int k, long[] kmers) {
+		PackedKmerPath path = new PackedKmerPath(k, kmers[0]);
+		for (int i = 1; i < kmers.length; i++) {
+			path.add(kmers[i]);
+		}
+		return path;
+	}
+	private static void assertPath(long[] expected, PackedKmerPath path) {
+		assertEquals(expected.length, path.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], path.get(i));
+		}
+		assertEquals(expected[0], path.firstKmer());
+		assertEquals(expected[expected.length - 1], path.lastKmer());
+		assertEquals(LongArrayList.wrap(expected), path.toLongArrayList());
+	}
+	private static long[] kmers(int k, String seq) {
+		PackedKmerList list = new PackedKmerList(k, B(seq), null, false, false);
+		long[] kmers = new long[list.length()];
+		for (int i = 0; i < kmers.length; i++) {
+			kmers[i] = list.kmer(i);
+		}
+		return kmers;
+	}
+	@Test
+	public void should_store_sequence_kmers() {
+		for (int k = 1; k <= 32; k++) {
+			long[] kmers = kmers(k, S(RANDOM).substring(0, 100));
+			assertPath(kmers, path(k, kmers));
+		}
+	}
+	@Test
+	public void should_store_arbitrary_kmers() {
+		long[] kmers = new long[] { 0, 1, 2, 3, 7, 7, 4 };
+		assertPath(kmers, path(0, kmers));
+		assertPath(kmers, path(4, kmers));
+	}
+	@Test
+	public void should_store_kmers_of_different_size() {
+		long[] kmers = kmers(5, "ACGTTGCATTTACGACCGTAAACGGGTTGCTAG");
+		assertPath(kmers, path(4, kmers));
+		assertPath(kmers, path(8, kmers));
+	}
+	@Test
+	public void should_store_non_adjacent_kmers() {
+		long[] kmers = kmers(4, "ACGTTGCATTTAC");
+		kmers[5] = KmerEncodingHelper.picardBaseToEncoded(4, B("AAAA"));
+		kmers[9] = KmerEncodingHelper.picardBaseToEncoded(4, B("TTTT"));
+		assertPath(kmers, path(4, kmers));
+	}
+	@Test
+	public void truncate_should_remove_end() {
+		long[] kmers = kmers(4, "ACGTTGCATTTACGACCGTAAACGGGTTGCTAGACGTTGCATTTACGACCGTAAACGGGTTGCTAG");
+		kmers[20] = 0;
+		kmers[40] = 0;
+		for (int i = 1; i <= kmers.length; i++) {
+			PackedKmerPath path = path(4, kmers);
+			path.truncate(i);
+			long[] expected = new long[i];
+			System.arraycopy(kmers, 0, expected, 0, i);
+			assertPath(expected, path);
+			path.add(kmers[0]);
+			assertEquals(kmers[0], path.lastKmer());
+		}
+	}
+	@Test
+	public void removeFirst_should_remove_start() {
+		long[] kmers = kmers(4, "ACGTTGCATTTACGACCGTAAACGGGTTGCTAG");
+		kmers[3] = 0;
+		PackedKmerPath path = path(4, kmers);
+		for (int i = 1; i < kmers.length; i++) {
+			path.removeFirst();
+			long[] expected = new long[kmers.length - i];
+			System.arraycopy(kmers, i, expected, 0, expected.length);
+			assertPath(expected, path);
+		}
+	}
+	@Test
+	public void subpath_addAll_should_round_trip() {
+		long[] kmers = kmers(7, S(RANDOM).substring(0, 200));
+		kmers[50] = 1;
+		PackedKmerPath path = path(7, kmers);
+		Random rng = new Random(0);
+		for (int i = 0; i < 100; i++) {
+			int split = 1 + rng.nextInt(kmers.length - 1);
+			PackedKmerPath first = new PackedKmerPath(path, 0, split);
+			first.addAll(new PackedKmerPath(path, split, kmers.length - split));
+			assertPath(kmers, first);
+			assertEquals(path, first);
+			assertEquals(path.hashCode(), first.hashCode());
+		}
+	}
+	@Test
+	public void equals_should_compare_kmers() {
+		long[] kmers = kmers(4, "ACGTTGCATTTACG");
+		assertEquals(path(4, kmers), path(0, kmers));
+		PackedKmerPath other = path(4, kmers);
+		other.truncate(kmers.length - 1);
+		other.add(0);
+		assertFalse(path(4, kmers).equals(other));
+	}
+}
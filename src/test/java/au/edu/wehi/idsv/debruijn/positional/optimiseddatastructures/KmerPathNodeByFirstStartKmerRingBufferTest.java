@@ -0,0 +1,59 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.debruijn.positional.KmerNodeUtil;
+import au.edu.wehi.idsv.debruijn.positional.KmerPathNode;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class KmerPathNodeByFirstStartKmerRingBufferTest extends TestHelper {
+	@Test
+	public void should_match_tree_set() {
+		Random r = new Random(0);
+		TreeSet<KmerPathNode> ns = new TreeSet<>(KmerNodeUtil.ByFirstStartKmer);
+		KmerPathNodeByFirstStartKmerRingBuffer set = new KmerPathNodeByFirstStartKmerRingBuffer(4);
+		int windowStart = -50;
+		for (int i = 0 ; i < 16384; i++) {
+			windowStart += r.nextInt(3);
+			int start = windowStart + r.nextInt(i % 1000 < 500 ? 16 : 200);
+			KmerPathNode kpn = new KmerPathNode(r.nextInt(4), start, start + r.nextInt(10), false, 1);
+			assertEquals(ns.contains(kpn), set.contains(kpn));
+			if (r.nextInt(5) < 2 && !ns.isEmpty()) {
+				if (r.nextBoolean()) {
+					kpn = ns.first();
+				}
+				assertEquals(ns.remove(kpn), set.remove(kpn));
+			} else {
+				assertEquals(ns.add(kpn), set.add(kpn));
+			}
+			assertEquals(ns.size(), set.size());
+			assertTrue(set.sanityCheck());
+			if (!ns.isEmpty()) {
+				assertSame(ns.first(), set.first());
+				assertSame(ns.last(), set.last());
+			}
+			if (i % 128 == 0) {
+				assertEquals(Lists.newArrayList(ns), Lists.newArrayList(set.iterator()));
+				assertEquals(Lists.newArrayList(ns.descendingIterator()), Lists.newArrayList(set.descendingIterator()));
+			}
+		}
+	}
+	@Test
+	public void should_handle_empty_set() {
+		KmerPathNodeByFirstStartKmerRingBuffer set = new KmerPathNodeByFirstStartKmerRingBuffer();
+		assertTrue(set.isEmpty());
+		assertFalse(set.iterator().hasNext());
+		assertFalse(set.descendingIterator().hasNext());
+		KmerPathNode kpn = new KmerPathNode(0, 100000, 100000, false, 1);
+		assertFalse(set.remove(kpn));
+		assertTrue(set.add(kpn));
+		assertTrue(set.remove(kpn));
+		assertTrue(set.add(new KmerPathNode(0, 1, 1, false, 1)));
+		assertEquals(1, set.first().firstStart());
+	}
+}
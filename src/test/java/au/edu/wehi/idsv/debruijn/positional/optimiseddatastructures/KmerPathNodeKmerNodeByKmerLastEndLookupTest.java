@@ -0,0 +1,53 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.debruijn.positional.KmerPathNode;
+import au.edu.wehi.idsv.debruijn.positional.KmerPathNodeKmerNode;
+import au.edu.wehi.idsv.util.IntervalUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class KmerPathNodeKmerNodeByKmerLastEndLookupTest extends TestHelper {
+	private static Set<KmerPathNodeKmerNode> overlapping(KmerPathNodeKmerNodeByKmerLastEndLookup lookup, long kmer, int start, int end) {
+		Set<KmerPathNodeKmerNode> set = Collections.newSetFromMap(new IdentityHashMap<>());
+		lookup.forEachOverlapping(kmer, start, end, set::add);
+		return set;
+	}
+	@Test
+	public void should_match_brute_force_overlap() {
+		Random r = new Random(0);
+		KmerPathNodeKmerNodeByKmerLastEndLookup lookup = new KmerPathNodeKmerNodeByKmerLastEndLookup();
+		List<KmerPathNodeKmerNode> all = new ArrayList<>();
+		for (int i = 0 ; i < 4096; i++) {
+			if (r.nextInt(3) == 0 && !all.isEmpty()) {
+				KmerPathNodeKmerNode n = all.remove(r.nextInt(all.size()));
+				assertTrue(lookup.remove(n));
+				assertFalse(lookup.remove(n));
+			} else {
+				int start = r.nextInt(1000);
+				KmerPathNode pn = new KmerPathNode(r.nextInt(4), start, start + r.nextInt(r.nextBoolean() ? 5 : 100), false, 1);
+				KmerPathNodeKmerNode n = new KmerPathNodeKmerNode(pn, 0);
+				all.add(n);
+				lookup.add(n);
+			}
+			assertEquals(all.size(), lookup.size());
+			long kmer = r.nextInt(4);
+			int start = r.nextInt(1000);
+			int end = start + r.nextInt(20);
+			Set<KmerPathNodeKmerNode> expected = all.stream()
+					.filter(n -> n.firstKmer() == kmer && IntervalUtil.overlapsClosed(start, end, n.lastStart(), n.lastEnd()))
+					.collect(Collectors.toSet());
+			assertEquals(expected, overlapping(lookup, kmer, start, end));
+		}
+		assertEquals(all.size(), lookup.stream().count());
+	}
+}
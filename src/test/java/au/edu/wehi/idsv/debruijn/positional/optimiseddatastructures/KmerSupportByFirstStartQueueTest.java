@@ -0,0 +1,73 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.debruijn.positional.KmerSupportNode;
+import au.edu.wehi.idsv.debruijn.positional.SupportNodeIterator;
+import au.edu.wehi.idsv.debruijn.positional.SupportNodeIteratorTest;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class KmerSupportByFirstStartQueueTest extends TestHelper {
+	@Test
+	public void should_return_support_in_start_order() {
+		List<KmerSupportNode> nodes = Lists.newArrayList(new SupportNodeIterator(4, SupportNodeIteratorTest.scrp(4, "ACGTTATACCG", 30, 60).iterator(), 60, null, false, 0));
+		Collections.shuffle(nodes, new Random(0));
+		KmerSupportByFirstStartQueue queue = new KmerSupportByFirstStartQueue(2);
+		Set<KmerSupportNode> expected = new HashSet<>(nodes);
+		for (KmerSupportNode n : nodes) {
+			queue.add(n.evidence(), n.offset());
+		}
+		assertEquals(nodes.size(), queue.size());
+		Set<KmerSupportNode> actual = new HashSet<>();
+		int lastStart = Integer.MIN_VALUE;
+		while (!queue.isEmpty()) {
+			int start = queue.peekFirstStart();
+			KmerSupportNode head = queue.peekNode();
+			queue.poll();
+			KmerSupportNode n = queue.currentNode();
+			assertEquals(head, n);
+			assertEquals(start, queue.currentStart());
+			assertTrue(start >= lastStart);
+			assertEquals(n.lastKmer(), queue.currentKmer());
+			assertEquals(n.lastStart(), queue.currentStart());
+			assertEquals(n.lastEnd(), queue.currentEnd());
+			assertEquals(n.weight(), queue.currentWeight());
+			assertEquals(n.isReference(), queue.currentIsReference());
+			actual.add(n);
+			lastStart = start;
+		}
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void should_reuse_slots_when_interleaving_add_and_poll() {
+		List<KmerSupportNode> nodes = Lists.newArrayList(new SupportNodeIterator(4, SupportNodeIteratorTest.scrp(4, "ACGTTATACCG", 30, 60).iterator(), 60, null, false, 0));
+		KmerSupportByFirstStartQueue queue = new KmerSupportByFirstStartQueue(2);
+		int count = 0;
+		int lastStart = Integer.MIN_VALUE;
+		for (KmerSupportNode n : nodes) {
+			queue.add(n.evidence(), n.offset());
+			if (queue.size() > 16) {
+				queue.poll();
+				assertTrue(queue.currentStart() >= lastStart);
+				lastStart = queue.currentStart();
+				count++;
+			}
+		}
+		while (!queue.isEmpty()) {
+			queue.poll();
+			assertTrue(queue.currentStart() >= lastStart);
+			lastStart = queue.currentStart();
+			count++;
+		}
+		assertEquals(nodes.size(), count);
+	}
+}
@@ -6,6 +6,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.SAMSequenceRecord;
@@ -83,4 +84,36 @@ public class TwoBitBufferedReferenceSequenceFileTest extends TestHelper {
 		file.delete();
 		testFolder.delete();
 	}
+	@Test
+	public void should_round_trip_ambiguous_bases_through_cache() throws IOException {
+		TemporaryFolder testFolder = new TemporaryFolder();
+		testFolder.create();
+		File file = new File(testFolder.getRoot(), "TwoBitBufferedReferenceSequenceFileTest.gridsscache");
+		InMemoryReferenceSequenceFile ref = new InMemoryReferenceSequenceFile(new String[] { "test", "test2" }, new byte[][] { B("ACGTNACGTRACGTAAC"), B("nGTa") });
+		new TwoBitBufferedReferenceSequenceFile(ref, file).getBase(0, 1);
+		TwoBitBufferedReferenceSequenceFile b = new TwoBitBufferedReferenceSequenceFile(ref, file);
+		assertEquals("ACGTNACGTNACGTAAC", S(b.getSequence("test").getBases()));
+		assertEquals("NGTA", S(b.getSequence("test2").getBases()));
+		assertEquals('N', b.getBase(0, 10));
+		assertEquals('C', b.getBase(0, 17));
+		assertEquals("GT", S(b.getSubsequenceAt("test2", 2, 3).getBases()));
+		testFolder.delete();
+	}
+	@Test
+	public void should_regenerate_invalid_cache() throws IOException {
+		TemporaryFolder testFolder = new TemporaryFolder();
+		testFolder.create();
+		File file = new File(testFolder.getRoot(), "TwoBitBufferedReferenceSequenceFileTest.gridsscache");
+		Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+		TwoBitBufferedReferenceSequenceFile a = new TwoBitBufferedReferenceSequenceFile(SMALL_FA, file);
+		a.getBase(0, 1);
+		assertTrue(file.length() > 3);
+		TwoBitBufferedReferenceSequenceFile b = new TwoBitBufferedReferenceSequenceFile(SMALL_FA, file);
+		for (SAMSequenceRecord s : SMALL_FA.getSequenceDictionary().getSequences()) {
+			assertEquals(
+					S(SMALL_FA.getSequence(s.getSequenceName()).getBases()).toUpperCase(),
+					S(b.getSequence(s.getSequenceName()).getBases()));
+		}
+		testFolder.delete();
+	}
 }
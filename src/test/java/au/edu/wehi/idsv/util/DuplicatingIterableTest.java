@@ -136,4 +136,26 @@ public class DuplicatingIterableTest {
 		}
 		assertEquals(n, exceptionsFound);
 	}
-}
\ No newline at end of file
+	@Test
+	public void should_return_all_records_in_order_to_every_iterator() throws InterruptedException {
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < 100000; i++) {
+			list.add(i);
+		}
+		int threads = 6;
+		DuplicatingIterable<Integer> dib = new DuplicatingIterable<Integer>(threads, list.iterator(), 256);
+		List<List<Integer>> results = new ArrayList<>();
+		Thread[] consumers = new Thread[threads];
+		for (int i = 0; i < consumers.length; i++) {
+			List<Integer> result = new ArrayList<>();
+			results.add(result);
+			Iterator<Integer> it = dib.iterator();
+			consumers[i] = new Thread(() -> it.forEachRemaining(result::add));
+			consumers[i].start();
+		}
+		for (int i = 0; i < consumers.length; i++) {
+			consumers[i].join();
+			assertEquals(list, results.get(i));
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package au.edu.wehi.idsv.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.SortingCollection;
+
+public class ParallelSortingCollectionTest {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	/**
+	 * Encodes each record as a single long
+	 */
+	private static class LongCodec implements SortingCollection.Codec<Long> {
+		private DataOutputStream os;
+		private DataInputStream is;
+		@Override
+		public void setOutputStream(OutputStream os) {
+			this.os = new DataOutputStream(os);
+		}
+		@Override
+		public void setInputStream(InputStream is) {
+			this.is = new DataInputStream(is);
+		}
+		@Override
+		public void encode(Long val) {
+			try {
+				os.writeLong(val);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		@Override
+		public Long decode() {
+			try {
+				return is.readLong();
+			} catch (EOFException e) {
+				return null;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		@Override
+		public LongCodec clone() {
+			return new LongCodec();
+		}
+	}
+	// only sort on the upper bits so we can check stability
+	private static final Comparator<Long> byKey = Comparator.comparing(x -> x >> 32);
+	private List<Long> sort(List<Long> input, int maxRecordsInRam, int threads) {
+		return sort(input, maxRecordsInRam, threads, ParallelSortingCollection.DEFAULT_MAX_OPEN_FILES);
+	}
+	private List<Long> sort(List<Long> input, int maxRecordsInRam, int threads, int maxOpenFiles) {
+		ParallelSortingCollection<Long> collection = new ParallelSortingCollection<>(Long.class, new LongCodec(), byKey, maxRecordsInRam, testFolder.getRoot().toPath(), threads, maxOpenFiles);
+		for (Long x : input) {
+			collection.add(x);
+		}
+		collection.doneAdding();
+		assertTrue(testFolder.getRoot().listFiles().length <= maxOpenFiles);
+		List<Long> result;
+		try (CloseableIterator<Long> it = collection.iterator()) {
+			result = Lists.newArrayList(it);
+		}
+		collection.cleanup();
+		return result;
+	}
+	@Test
+	public void should_stable_sort() {
+		Random random = new Random(0);
+		List<Long> input = new ArrayList<>();
+		for (long i = 0; i < 10000; i++) {
+			input.add(((long)random.nextInt(1000) << 32) | i);
+		}
+		List<Long> expected = new ArrayList<>(input);
+		expected.sort(byKey);
+		for (int threads = 1; threads <= 4; threads++) {
+			for (int maxRecordsInRam : new int[] { 100, 1000, 100000 }) {
+				assertEquals(expected, sort(input, maxRecordsInRam, threads));
+			}
+		}
+	}
+	@Test
+	public void should_merge_spilled_files_when_exceeding_open_file_limit() {
+		Random random = new Random(0);
+		List<Long> input = new ArrayList<>();
+		for (long i = 0; i < 10000; i++) {
+			input.add(((long)random.nextInt(1000) << 32) | i);
+		}
+		List<Long> expected = new ArrayList<>(input);
+		expected.sort(byKey);
+		for (int threads = 1; threads <= 4; threads++) {
+			for (int maxOpenFiles : new int[] { 2, 3, 7, 64 }) {
+				assertEquals(expected, sort(input, 50, threads, maxOpenFiles));
+				assertEquals(0, testFolder.getRoot().listFiles().length);
+			}
+		}
+	}
+	@Test
+	public void should_delete_spilled_files() {
+		List<Long> input = new ArrayList<>();
+		for (long i = 0; i < 1000; i++) {
+			input.add(i);
+		}
+		sort(input, 10, 4);
+		assertEquals(0, testFolder.getRoot().listFiles().length);
+	}
+	@Test
+	public void should_handle_empty_input() {
+		assertEquals(0, sort(new ArrayList<>(), 1, 1).size());
+		assertEquals(0, sort(new ArrayList<>(), 10, 4).size());
+	}
+}
@@ -56,4 +56,30 @@ public class ParallelTransformIteratorTest {
 		for (int i = 32; i > 0; i--) assertEquals(i, (int)it.next());
 		threadpool.shutdown();
 	}
+	@Test(expected=IllegalStateException.class)
+	public void should_rethrow_transform_exception() {
+		ExecutorService threadpool = Executors.newFixedThreadPool(4);
+		try {
+			ParallelTransformIterator<Integer, Integer> it = new ParallelTransformIterator<Integer, Integer>(new CIT(32), n -> {
+				if (n == 16) throw new IllegalStateException();
+				return n;
+			}, 4, threadpool);
+			while (it.hasNext()) it.next();
+		} finally {
+			threadpool.shutdown();
+		}
+	}
+	@Test(expected=AssertionError.class, timeout=10000)
+	public void should_rethrow_transform_error() {
+		ExecutorService threadpool = Executors.newFixedThreadPool(4);
+		try {
+			ParallelTransformIterator<Integer, Integer> it = new ParallelTransformIterator<Integer, Integer>(new CIT(32), n -> {
+				if (n == 16) throw new AssertionError();
+				return n;
+			}, 4, threadpool);
+			while (it.hasNext()) it.next();
+		} finally {
+			threadpool.shutdown();
+		}
+	}
 }
@@ -0,0 +1,65 @@
+package au.edu.wehi.idsv.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class WindowedSortingIteratorTest {
+	// coordinate is the upper bits, with the lower bits used to break ties
+	private static final Comparator<Long> order = Comparator.naturalOrder();
+	private static List<Long> input(Random random, int size, long start, int maxStep, int windowSize) {
+		List<Long> list = new ArrayList<>();
+		long position = start;
+		for (int i = 0; i < size; i++) {
+			position += random.nextInt(maxStep + 1);
+			// records are out of order by at most windowSize
+			long jittered = position + random.nextInt(windowSize + 1);
+			list.add((jittered << 16) | random.nextInt(1 << 16));
+		}
+		return list;
+	}
+	private static List<Long> sort(List<Long> list, int windowSize) {
+		return Lists.newArrayList(new WindowedSortingIterator<Long>(list.iterator(), x -> x >> 16, windowSize, order));
+	}
+	@Test
+	public void should_sort_within_window() {
+		Random random = new Random(0);
+		for (int windowSize : new int[] { 0, 1, 5, 100, 1000, 100000 }) {
+			for (int maxStep : new int[] { 0, 1, 10, 1000 }) {
+				List<Long> list = input(random, 5000, 0, maxStep, windowSize);
+				List<Long> expected = new ArrayList<>(list);
+				expected.sort(order);
+				assertEquals(expected, sort(list, windowSize));
+			}
+		}
+	}
+	@Test
+	public void should_sort_negative_coordinates() {
+		Random random = new Random(1);
+		List<Long> list = input(random, 1000, -10000, 20, 50);
+		List<Long> expected = new ArrayList<>(list);
+		expected.sort(order);
+		assertEquals(expected, sort(list, 50));
+	}
+	@Test
+	public void should_use_coordinate_order_by_default() {
+		List<Long> list = Lists.newArrayList(5L, 3L, 4L, 10L, 8L, 9L, 100L, 99L);
+		assertEquals(Lists.newArrayList(3L, 4L, 5L, 8L, 9L, 10L, 99L, 100L),
+				Lists.newArrayList(new WindowedSortingIterator<Long>(list.iterator(), x -> x, 2)));
+	}
+	@Test
+	public void should_handle_empty_input() {
+		assertEquals(0, sort(new ArrayList<>(), 10).size());
+	}
+	@Test(expected=IllegalStateException.class)
+	public void should_not_be_able_to_sort_unordered_outside_of_window() {
+		Lists.newArrayList(new WindowedSortingIterator<Long>(Lists.newArrayList(10L, 20L, 30L, 50L, 60L, 40L).iterator(), x -> x, 5));
+	}
+}
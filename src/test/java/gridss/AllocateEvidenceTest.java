@@ -1,11 +1,13 @@
 package gridss;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -37,10 +39,50 @@ import au.edu.wehi.idsv.VariantContextDirectedBreakpoint;
 import au.edu.wehi.idsv.VariantContextDirectedEvidence;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import htsjdk.samtools.BAMIndex;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
 
 public class AllocateEvidenceTest extends IntermediateFilesTest {
+	private SAMEvidenceSource readEvidence;
+	private AssemblyEvidenceSource assemblyEvidence;
+	/**
+	 * Calls variants from the given read evidence without assembly
+	 * @param evidence read evidence supporting the calls
+	 * @return processing context used to make the calls
+	 */
+	private ProcessingContext callFromReadEvidence(List<SAMRecord> evidence) throws IOException {
+		// calls are made from the read evidence alone
+		return callFromEvidence(evidence, Integer.MAX_VALUE);
+	}
+	/**
+	 * Calls variants from the given read evidence and the breakends assembled from it
+	 * @param evidence read evidence supporting the calls
+	 * @param assemblyMinReads minimum number of reads supporting an assembly
+	 * @return processing context used to make the calls
+	 */
+	private ProcessingContext callFromEvidence(List<SAMRecord> evidence, int assemblyMinReads) throws IOException {
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().minScore = 0;
+		pc.getVariantCallingParameters().minSize = 0;
+		pc.getVariantCallingParameters().minReads = 0;
+		pc.getAssemblyParameters().minReads = assemblyMinReads;
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 1; i < 20; i++) {
+			in.addAll(Lists.newArrayList(RP(0, 10 * i, 10 * i + 200, 50)));
+		}
+		in.addAll(evidence);
+		createInput(in);
+		readEvidence = new SAMEvidenceSource(getContext(), input, null, 0);
+		readEvidence.ensureMetrics();
+		FileHelper.copy(readEvidence.getFile(), readEvidence.getSVFile(), true);
+		assemblyEvidence = new AssemblyEvidenceSource(pc, ImmutableList.of(readEvidence), new File(testFolder.getRoot(), "assembly.bam"));
+		assemblyEvidence.assembleBreakends(null);
+		assemblyEvidence.ensureExtracted();
+		VariantCaller caller = new VariantCaller(pc, ImmutableList.of(readEvidence), assemblyEvidence);
+		caller.callBreakends(output, MoreExecutors.newDirectExecutorService());
+		return pc;
+	}
 	private void assertSymmetricalCalls(List<VariantContextDirectedEvidence> calls) {
 		UnmodifiableIterator<VariantContextDirectedBreakpoint> it = Iterators.filter(calls.iterator(), VariantContextDirectedBreakpoint.class);
 		assertSymmetrical(Lists.newArrayList(it));
@@ -266,4 +308,87 @@ public class AllocateEvidenceTest extends IntermediateFilesTest {
 		List<VariantContextDirectedEvidence> results = Lists.newArrayList(cmd.iterator(new AutoClosingIterator<>(vcfs.iterator()), MoreExecutors.newDirectExecutorService()));
 		assertEquals(0, results.size());
 	}
+	@Test
+	public void chunked_allocation_should_match_whole_genome_allocation() throws IOException, InterruptedException, ExecutionException {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 1; i < 40; i++) {
+			for (int j = 0; j < i % 4 + 1; j++) {
+				in.addAll(Lists.newArrayList(withReadName(String.format("dp-%d-%d", i, j), DP(2, 200 * i + j, "50M", true, 4, 200 * i + 10 * j, "50M", false))));
+			}
+			in.add(withReadName(String.format("sc-%d", i), Read(2, 200 * i, "50M50S"))[0]);
+		}
+		final ProcessingContext pc = callFromReadEvidence(in);
+		assertChunkedAllocationMatchesWholeGenomeAllocation(pc);
+	}
+	@Test
+	public void chunked_allocation_should_match_whole_genome_allocation_for_assemblies_spanning_chunk_boundary() throws IOException, InterruptedException, ExecutionException {
+		List<SAMRecord> in = new ArrayList<>();
+		// soft clipped reads anchored on both sides of the chunk boundary at position 1000 with a common breakend at 1010
+		for (int i = 0; i < 8; i++) {
+			int anchorLength = 30 + 5 * i;
+			int start = 1010 - anchorLength + 1;
+			String seq = S(Arrays.copyOfRange(RANDOM, start - 1, 1010)) + S(Arrays.copyOfRange(RANDOM, 5000, 5000 + 100 - anchorLength));
+			in.add(withReadName(String.format("sc-%d", i), withSequence(seq, Read(2, start, String.format("%dM%dS", anchorLength, 100 - anchorLength))))[0]);
+		}
+		final ProcessingContext pc = callFromEvidence(in, 3);
+		assertTrue(getRecords(assemblyEvidence.getFile()).size() > 0);
+		assertChunkedAllocationMatchesWholeGenomeAllocation(pc);
+	}
+	private void assertChunkedAllocationMatchesWholeGenomeAllocation(ProcessingContext pc) throws IOException, InterruptedException, ExecutionException {
+		pc.getConfig().chunkSize = 1000;
+		pc.getConfig().chunkSequenceChangePenalty = 0;
+		List<List<IdsvVariantContext>> results = new ArrayList<>();
+		for (ExecutorService threadpool : new ExecutorService[] { null, Executors.newFixedThreadPool(4) }) {
+			AllocateEvidence cmd = new AllocateEvidence();
+			cmd.INPUT_VCF = output;
+			cmd.setContext(pc);
+			cmd.setAssemblySource(assemblyEvidence);
+			cmd.setSamEvidenceSources(ImmutableList.of(readEvidence));
+			cmd.ASSEMBLY = assemblyEvidence.getFile();
+			cmd.OUTPUT_VCF = new File(testFolder.getRoot(), "annotated" + results.size() + ".vcf");
+			cmd.doWork(threadpool);
+			if (threadpool != null) {
+				threadpool.shutdown();
+			}
+			results.add(getVcf(cmd.OUTPUT_VCF, null));
+			// the raw assemblies are indexed in the working directory, not alongside the assembly file
+			assertFalse(new File(cmd.ASSEMBLY.getPath() + BAMIndex.BAMIndexSuffix).exists());
+		}
+		assertTrue(results.get(0).size() > 0);
+		assertEquals(results.get(0).size(), results.get(1).size());
+		for (int i = 0; i < results.get(0).size(); i++) {
+			IdsvVariantContext expected = results.get(0).get(i);
+			IdsvVariantContext actual = results.get(1).get(i);
+			assertEquals(expected.getID(), actual.getID());
+			assertEquals(expected.getAttributes(), actual.getAttributes());
+		}
+	}
+	@Test
+	public void parallel_annotation_should_retain_call_order() throws IOException {
+		List<SAMRecord> in = new ArrayList<>();
+		for (int i = 1; i < 40; i++) {
+			in.addAll(Lists.newArrayList(withReadName(String.format("dp-%d", i), DP(2, 200 * i, "50M", true, 4, 200 * i, "50M", false))));
+		}
+		final ProcessingContext pc = callFromReadEvidence(in);
+		List<VariantContextDirectedEvidence> vcfs = Lists.newArrayList(Iterables.filter(getVcf(output, null), VariantContextDirectedEvidence.class));
+		List<List<VariantContextDirectedEvidence>> results = new ArrayList<>();
+		for (ExecutorService threadpool : new ExecutorService[] { null, Executors.newFixedThreadPool(4) }) {
+			AllocateEvidence cmd = new AllocateEvidence();
+			cmd.INPUT_VCF = output;
+			cmd.setContext(pc);
+			cmd.setAssemblySource(assemblyEvidence);
+			cmd.setSamEvidenceSources(ImmutableList.of(readEvidence));
+			cmd.OUTPUT_VCF = new File(testFolder.getRoot(), "annotated.vcf");
+			results.add(Lists.newArrayList(cmd.iterator(new AutoClosingIterator<>(vcfs.iterator()), threadpool)));
+			if (threadpool != null) {
+				threadpool.shutdown();
+			}
+		}
+		assertTrue(results.get(0).size() > 1);
+		assertEquals(results.get(0).size(), results.get(1).size());
+		for (int i = 0; i < results.get(0).size(); i++) {
+			assertEquals(results.get(0).get(i).getID(), results.get(1).get(i).getID());
+			assertEquals(results.get(0).get(i).getAttributes(), results.get(1).get(i).getAttributes());
+		}
+	}
 }
@@ -0,0 +1,49 @@
+package gridss;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import au.edu.wehi.idsv.sam.NmTagIterator;
+import au.edu.wehi.idsv.sam.TemplateTagsIterator;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordQueryNameComparator;
+import htsjdk.samtools.SAMTag;
+
+public class ComputeSamTagsTest extends IntermediateFilesTest {
+	@Test
+	public void should_match_serial_tag_computation() {
+		List<SAMRecord> in = randomTemplates(new Random(0), 2000, 5000);
+		in.sort(new SAMRecordQueryNameComparator());
+		createBAM(input, SortOrder.queryname, in);
+		File bam = new File(testFolder.getRoot(), "tagged.bam");
+		Assert.assertEquals(0, new ComputeSamTags().instanceMain(new String[] {
+				"REFERENCE_SEQUENCE=" + SMALL_FA_FILE.getAbsolutePath(),
+				"INPUT=" + input.getAbsolutePath(),
+				"OUTPUT=" + bam.getAbsolutePath(),
+				"WORKER_THREADS=4",
+		}));
+		List<SAMRecord> expectedRecords = getRecords(input);
+		Iterator<SAMRecord> it = new NmTagIterator(expectedRecords.iterator(), SMALL_FA);
+		it = new TemplateTagsIterator(it, true, true, true, true, Sets.newHashSet(SAMTag.NM.name(), SAMTag.SA.name(), SAMTag.R2.name(), SAMTag.MC.name(), SAMTag.MQ.name()));
+		List<String> expected = new ArrayList<>();
+		while (it.hasNext()) {
+			expected.add(it.next().getSAMString());
+		}
+		List<String> actual = new ArrayList<>();
+		for (SAMRecord r : getRecords(bam)) {
+			actual.add(r.getSAMString());
+		}
+		Assert.assertEquals(expected.size(), in.size());
+		Assert.assertEquals(expected, actual);
+	}
+}
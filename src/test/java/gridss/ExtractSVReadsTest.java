@@ -8,6 +8,7 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import org.junit.Assert;
@@ -27,8 +28,11 @@ import au.edu.wehi.idsv.ReadPairConcordanceMethod;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.picard.SynchronousReferenceLookupAdapter;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
+import au.edu.wehi.idsv.sam.SAMFileUtil;
 import gridss.analysis.StructuralVariantReadMetrics;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordQueryNameComparator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.metrics.MetricsFile;
@@ -245,4 +249,42 @@ public class ExtractSVReadsTest extends IntermediateFilesTest {
 		});
 		assertTrue(output.exists());
 	}
+	private List<String> extractAndComputeTags(boolean fused) throws IOException {
+		File out = new File(testFolder.getRoot(), fused ? "fused.bam" : "tagged.bam");
+		File extracted = new File(testFolder.getRoot(), "extracted.bam");
+		File querysorted = new File(testFolder.getRoot(), "querysorted.bam");
+		String[] args = new String[] {
+				"REFERENCE_SEQUENCE=" + SMALL_FA_FILE.getAbsolutePath(),
+				"INPUT=" + input.getAbsolutePath(),
+				"OUTPUT=" + (fused ? out : extracted).getAbsolutePath(),
+				"INCLUDE_DUPLICATES=true",
+				"COMPUTE_SAM_TAGS=" + fused,
+		};
+		assertEquals(0, new ExtractSVReads().instanceMain(args));
+		if (!fused) {
+			SAMFileUtil.sort(getFSContext(), extracted, querysorted, SortOrder.queryname);
+			assertEquals(0, new ComputeSamTags().instanceMain(new String[] {
+					"REFERENCE_SEQUENCE=" + SMALL_FA_FILE.getAbsolutePath(),
+					"INPUT=" + querysorted.getAbsolutePath(),
+					"OUTPUT=" + out.getAbsolutePath(),
+			}));
+		}
+		return getRecords(out).stream().map(r -> r.getSAMString()).collect(Collectors.toList());
+	}
+	@Test
+	public void compute_sam_tags_should_match_ComputeSamTags_on_coordinate_sorted_input() throws IOException {
+		createInput(randomTemplates(new Random(0), 1000, 5000));
+		List<String> expected = extractAndComputeTags(false);
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, extractAndComputeTags(true));
+	}
+	@Test
+	public void compute_sam_tags_should_match_ComputeSamTags_on_queryname_sorted_input() throws IOException {
+		List<SAMRecord> in = randomTemplates(new Random(0), 1000, 5000);
+		in.sort(new SAMRecordQueryNameComparator());
+		createBAM(input, SortOrder.queryname, in);
+		List<String> expected = extractAndComputeTags(false);
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, extractAndComputeTags(true));
+	}
 }
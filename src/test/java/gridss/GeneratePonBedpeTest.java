@@ -0,0 +1,90 @@
+package gridss;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.variant.vcf.VCFCodec;
+
+public class GeneratePonBedpeTest extends IntermediateFilesTest {
+	private static final String[] CONTIGS = { "polyA", "polyACGT", "random" };
+	private File createVcf(String name, Random random) throws IOException {
+		File vcf = new File(testFolder.getRoot(), name);
+		try (PrintWriter pw = new PrintWriter(vcf)) {
+			pw.println("##fileformat=VCFv4.2");
+			pw.println("##INFO=<ID=IMPRECISE,Number=0,Type=Flag,Description=\"Imprecise\">");
+			pw.println("##FORMAT=<ID=QUAL,Number=1,Type=Float,Description=\"Breakpoint quality\">");
+			pw.println("##FORMAT=<ID=BQ,Number=1,Type=Float,Description=\"Breakend quality\">");
+			for (SAMSequenceRecord seq : SMALL_FA.getSequenceDictionary().getSequences()) {
+				pw.println(String.format("##contig=<ID=%s,length=%d>", seq.getSequenceName(), seq.getSequenceLength()));
+			}
+			pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ttumour\tnormal");
+			for (int contig = 0; contig < CONTIGS.length; contig++) {
+				for (int pos = 1 + random.nextInt(50); pos < 10000; pos += 1 + random.nextInt(100)) {
+					String alt;
+					switch (random.nextInt(3)) {
+						case 0:
+							alt = "N.";
+							break;
+						case 1:
+							alt = ".N";
+							break;
+						default:
+							alt = String.format("N[%s:%d[", CONTIGS[random.nextInt(CONTIGS.length)], 1 + random.nextInt(9999));
+							break;
+					}
+					String info = random.nextInt(10) == 0 ? "IMPRECISE" : ".";
+					pw.println(String.format("%s\t%d\tv%d_%d\tN\t%s\t.\tPASS\t%s\tQUAL:BQ\t0:0\t%d:%d",
+							CONTIGS[contig], pos, contig, pos, alt, info, random.nextInt(150), random.nextInt(800)));
+				}
+			}
+		}
+		IndexFactory.createLinearIndex(vcf, new VCFCodec()).write(Tribble.indexFile(vcf));
+		return vcf;
+	}
+	private List<String> run(List<File> vcfs, int threads, String name) throws IOException {
+		return run(vcfs, threads, 512, name);
+	}
+	private List<String> run(List<File> vcfs, int threads, int maxOpenFiles, String name) throws IOException {
+		File bedpe = new File(testFolder.getRoot(), name + ".bedpe");
+		File bed = new File(testFolder.getRoot(), name + ".bed");
+		GeneratePonBedpe cmd = new GeneratePonBedpe();
+		String[] args = new String[] {
+				"R=" + SMALL_FA_FILE.getAbsolutePath(),
+				"O=" + bedpe.getAbsolutePath(),
+				"SBO=" + bed.getAbsolutePath(),
+				"THREADS=" + threads,
+				"MAX_OPEN_INPUT_FILES=" + maxOpenFiles,
+				"I=" + vcfs.get(0).getAbsolutePath(),
+				"I=" + vcfs.get(1).getAbsolutePath(),
+		};
+		Assert.assertEquals(0, cmd.instanceMain(args));
+		List<String> lines = Files.readAllLines(bedpe.toPath());
+		lines.addAll(Files.readAllLines(bed.toPath()));
+		return lines;
+	}
+	@Test
+	public void should_not_depend_on_worker_thread_count() throws IOException {
+		Random random = new Random(0);
+		List<File> vcfs = Lists.newArrayList(createVcf("a.vcf", random), createVcf("b.vcf", random));
+		assertWorkerThreadCountIndependent(threads -> run(vcfs, threads, String.format("threads%d", threads)), 1, 4);
+	}
+	@Test
+	public void should_process_all_chromosomes_together_when_open_file_limit_allows_one_batch() throws IOException {
+		Random random = new Random(0);
+		List<File> vcfs = Lists.newArrayList(createVcf("a.vcf", random), createVcf("b.vcf", random));
+		Assert.assertEquals(run(vcfs, 1, "single"), run(vcfs, 4, 3, "limited"));
+	}
+}
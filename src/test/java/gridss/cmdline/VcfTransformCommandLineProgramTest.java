@@ -0,0 +1,89 @@
+package gridss.cmdline;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.IdsvVariantContext;
+import au.edu.wehi.idsv.IdsvVariantContextBuilder;
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import au.edu.wehi.idsv.ProcessingContext;
+import au.edu.wehi.idsv.VariantContextDirectedEvidence;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+
+public class VcfTransformCommandLineProgramTest extends IntermediateFilesTest {
+	private static class PassthroughTransform extends VcfTransformCommandLineProgram {
+		@Override
+		public CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, ExecutorService threadpool) {
+			return calls;
+		}
+	}
+	private static VariantContext snv(String contig, int position) {
+		return new VariantContextBuilder("snv", contig, position, position, ImmutableList.of(Allele.create("A", true), Allele.create("C"))).make();
+	}
+	private static VariantContext breakend(ProcessingContext pc, int referenceIndex, BreakendDirection direction, int position) {
+		return new IdsvVariantContextBuilder(pc).breakend(new BreakendSummary(referenceIndex, direction, position), "").make();
+	}
+	private static List<String> toLocations(List<? extends VariantContext> calls) {
+		return calls.stream()
+				.map(vc -> String.format("%s:%d %s", vc.getContig(), vc.getStart(), vc.getAlternateAllele(0).getDisplayString()))
+				.collect(Collectors.toList());
+	}
+	private List<IdsvVariantContext> transform(ProcessingContext pc, List<VariantContext> calls) throws IOException, InterruptedException, ExecutionException {
+		File vcf = new File(testFolder.getRoot(), "input.vcf");
+		createVCF(pc, vcf, calls.toArray(new VariantContext[0]));
+		createInput();
+		PassthroughTransform cmd = new PassthroughTransform();
+		cmd.setContext(pc);
+		cmd.setSamEvidenceSources(ImmutableList.of());
+		cmd.setAssemblySource(new StubAssemblyEvidenceSource(pc));
+		cmd.ASSEMBLY = input;
+		cmd.INPUT_VCF = vcf;
+		cmd.OUTPUT_VCF = output;
+		cmd.doWork(null);
+		return getVcf(output, null);
+	}
+	@Test
+	public void should_write_non_breakend_records_in_position_order() throws IOException, InterruptedException, ExecutionException {
+		ProcessingContext pc = getCommandlineContext();
+		List<VariantContext> calls = ImmutableList.of(
+				snv("polyA", 1),
+				breakend(pc, 0, BreakendDirection.Forward, 100),
+				snv("polyA", 100),
+				snv("polyA", 200),
+				breakend(pc, 0, BreakendDirection.Backward, 300),
+				breakend(pc, 0, BreakendDirection.Forward, 310),
+				snv("polyA", 400),
+				snv("polyACGT", 10),
+				breakend(pc, 2, BreakendDirection.Forward, 50),
+				snv("random", 50),
+				snv("random", 1000),
+				breakend(pc, 2, BreakendDirection.Backward, 2000),
+				snv("random", 5000));
+		assertEquals(toLocations(calls), toLocations(transform(pc, calls)));
+	}
+	@Test
+	public void should_write_breakend_calls_before_non_breakend_records_at_the_same_position() throws IOException, InterruptedException, ExecutionException {
+		ProcessingContext pc = getCommandlineContext();
+		List<VariantContext> calls = ImmutableList.of(
+				snv("polyA", 100),
+				breakend(pc, 0, BreakendDirection.Forward, 100),
+				snv("polyA", 200));
+		List<VariantContext> expected = ImmutableList.of(calls.get(1), calls.get(0), calls.get(2));
+		assertEquals(toLocations(expected), toLocations(transform(pc, calls)));
+	}
+}
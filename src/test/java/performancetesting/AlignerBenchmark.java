@@ -0,0 +1,63 @@
+package performancetesting;
+
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.alignment.Aligner;
+import au.edu.wehi.idsv.alignment.AlignerFactory;
+import au.edu.wehi.idsv.alignment.JAlignerAligner;
+import au.edu.wehi.idsv.alignment.StripedSmithWatermanAligner;
+import au.edu.wehi.idsv.alignment.SswJniAligner;
+import htsjdk.samtools.util.Log;
+
+/**
+ * Compares aligner throughput on BreakpointHomology-sized inputs:
+ * a 600bp breakend sequence aligned against 620bp of reference.
+ */
+public class AlignerBenchmark extends TestHelper {
+	private static final Log log = Log.getInstance(AlignerBenchmark.class);
+	private static final int BREAKEND_LENGTH = 300;
+	private static final int MARGIN = 10;
+	private static final int WARMUP_ITERATIONS = 200;
+	private static final int ITERATIONS = 1000;
+	@Ignore("Benchmark")
+	@Test
+	public void breakpointHomology() {
+		AlignerFactory.create(); // ensure sswjni is loaded if available
+		Random random = new Random(0);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			sb.append("ACGT".charAt(random.nextInt(4)));
+		}
+		String genome = sb.toString();
+		byte[][] breakend = new byte[ITERATIONS][];
+		byte[][] ref = new byte[ITERATIONS][];
+		for (int i = 0; i < ITERATIONS; i++) {
+			int local = BREAKEND_LENGTH + MARGIN + random.nextInt(genome.length() - 2 * (BREAKEND_LENGTH + MARGIN));
+			int remote = random.nextInt(genome.length() - BREAKEND_LENGTH);
+			breakend[i] = B(genome.substring(local - BREAKEND_LENGTH, local) + genome.substring(remote, remote + BREAKEND_LENGTH));
+			ref[i] = B(genome.substring(local - BREAKEND_LENGTH - MARGIN, local + BREAKEND_LENGTH + MARGIN));
+		}
+		run("StripedSmithWatermanAligner", new StripedSmithWatermanAligner(1, -4, -4, 6, 1), breakend, ref);
+		run("JAlignerAligner", new JAlignerAligner(1, -4, -4, 6, 1), breakend, ref);
+		try {
+			run("SswJniAligner", new SswJniAligner(1, -4, -4, 6, 1), breakend, ref);
+		} catch (UnsatisfiedLinkError e) {
+			log.warn("SswJniAligner: sswjni library not available");
+		}
+	}
+	private static void run(String name, Aligner aligner, byte[][] seq, byte[][] ref) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			aligner.align_smith_waterman(seq[i], ref[i]);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < seq.length; i++) {
+			aligner.align_smith_waterman(seq[i], ref[i]);
+		}
+		long elapsed = System.nanoTime() - start;
+		log.info(String.format("%s: %.1f alignments/s", name, seq.length / (elapsed / 1e9)));
+	}
+}